@@ -0,0 +1,90 @@
+package dev.csaba.arphysics;
+
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+/**
+ * Renderables shared by identical boxes. Sceneform can render the same ModelRenderable
+ * on any number of nodes, so a structure needs one renderable per distinct geometry
+ * and material instead of one per plank.
+ */
+public class GeometryCache<V> {
+    private static final class Key {
+        private final float x;
+        private final float y;
+        private final float z;
+        private final Object material;
+
+        Key(float x, float y, float z, Object material) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.material = material;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            // Materials are compared by identity, equal colors still make distinct materials
+            return Float.compare(x, other.x) == 0 && Float.compare(y, other.y) == 0 &&
+                    Float.compare(z, other.z) == 0 && material == other.material;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Float.floatToIntBits(x);
+            result = 31 * result + Float.floatToIntBits(y);
+            result = 31 * result + Float.floatToIntBits(z);
+            return 31 * result + System.identityHashCode(material);
+        }
+    }
+
+    private final HashMap<Key, V> values = new HashMap<>();
+    private int hits;
+    private int misses;
+
+    /**
+     * @return the cached value of the box dimensions and material, created by factory on a miss
+     */
+    public V get(float x, float y, float z, Object material, Supplier<V> factory) {
+        Key key = new Key(x, y, z, material);
+        V value = values.get(key);
+        if (value != null) {
+            hits++;
+            return value;
+        }
+        misses++;
+        value = factory.get();
+        values.put(key, value);
+        return value;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    public float getHitRate() {
+        int lookups = hits + misses;
+        return lookups > 0 ? (float) hits / lookups : 0;
+    }
+
+    public void clear() {
+        values.clear();
+        hits = 0;
+        misses = 0;
+    }
+}
@@ -26,6 +26,7 @@ import com.google.ar.sceneform.ArSceneView;
 import com.google.ar.sceneform.Camera;
 import com.google.ar.sceneform.Node;
 import com.google.ar.sceneform.Scene;
+import com.google.ar.sceneform.math.Quaternion;
 import com.google.ar.sceneform.math.Vector3;
 import com.google.ar.sceneform.rendering.Color;
 import com.google.ar.sceneform.rendering.Material;
@@ -35,11 +36,23 @@ import com.google.ar.sceneform.rendering.ShapeFactory;
 import com.google.ar.sceneform.ux.ArFragment;
 import com.google.ar.sceneform.ux.TransformableNode;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import javax.vecmath.Vector3f;
 
+import dev.csaba.arphysics.engine.BroadphaseType;
 import dev.csaba.arphysics.engine.JBulletController;
+import dev.csaba.arphysics.engine.JBulletSimulation;
+import dev.csaba.arphysics.engine.PhysicsEngine;
+import dev.csaba.arphysics.engine.PhysicsEngineFactory;
+import dev.csaba.arphysics.engine.RetirementPolicy;
+import dev.csaba.arphysics.engine.SettledLayoutCache;
+import dev.csaba.arphysics.engine.StructureLayout;
 
 public class MainActivity extends AppCompatActivity implements Node.TransformChangedListener {
     enum AppState {
@@ -55,16 +68,42 @@ public class MainActivity extends AppCompatActivity implements Node.TransformCha
     private static final float DEPTH = 0.025f;
     private static final float RADIUS = HEIGHT;
     private static final float CONVEX_MARGIN = 0.0025f;
+    private static final long PERF_HUD_REFRESH_NANOS = 250_000_000L;
+    private static final long PERF_LOG_NANOS = 2_000_000_000L;
+    // Plank nodes created per frame while a structure is being placed
+    private static final int PLANKS_PER_FRAME = 50;
+    // Settled structures kept in the app storage
+    private static final int SETTLED_LAYOUT_CAPACITY = 8;
+    // Simulated seconds a knocked off plank may lie still before it is frozen
+    private static final float RETIREMENT_TIMEOUT = 5.0f;
 
     private ArFragment fragment;
     private PointerDrawable pointer = new PointerDrawable();
     private boolean isTracking;
     private boolean isHitting;
+    private PerfHudDrawable perfHud;
+    private long lastPerfHudRefresh;
+    private long lastPerfLog;
 
     private JBulletController jBulletController;
+    // Settings the controller was created with, the next placement reuses it while they are unchanged
+    private Map<String, ?> controllerPreferences;
+    // Kept across scene rebuilds, so the engines can reuse their caches
+    private final PhysicsEngineFactory engineFactory = new PhysicsEngineFactory();
+    private SettledLayoutCache settledLayouts;
     private AppState appState = AppState.INITIAL;
     private SimulationScenario simulationScenario = SimulationScenario.PlankTower;
     private TransformableNode cylinderNode;
+    // Structure whose plank nodes are still being created
+    private StructureLayout pendingLayout;
+    private Material pendingMaterial;
+    private AnchorNode pendingAnchorNode;
+    private int pendingPlankIndex;
+    // Identical planks share their renderable
+    private final GeometryCache<ModelRenderable> plankRenderables = new GeometryCache<>();
+    private ModelRenderable ballRenderable;
+    // Nodes of the projectile pool, bound to the controller at the first throw
+    private Node[] ballNodes;
 
     ModelParameters getModelParameters() {
         SharedPreferences preferences =
@@ -98,6 +137,110 @@ public class MainActivity extends AppCompatActivity implements Node.TransformCha
         );
     }
 
+    boolean isPhysicsThreadEnabled() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        return preferences.getBoolean("physics_thread", true);
+    }
+
+    int getSolverThreads() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        return preferences.getInt("solver_threads", 1);
+    }
+
+    int getNarrowphaseThreads() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        return preferences.getInt("narrowphase_threads", 1);
+    }
+
+    boolean isContinuousCollisionEnabled() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        return preferences.getBoolean("continuous_collision", true);
+    }
+
+    int getQualityBudget() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        return preferences.getInt("quality_budget", 0);
+    }
+
+    private PhysicsEngine createPhysicsEngine() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        String engineType = preferences.getString("engine", PhysicsEngineFactory.DEFAULT_ENGINE);
+        if (!PhysicsEngineFactory.isSupported(engineType)) {
+            String text = getString(R.string.engine_not_supported, engineType);
+            Snackbar.make(findViewById(android.R.id.content),
+                    text, Snackbar.LENGTH_SHORT).show();
+            engineType = PhysicsEngineFactory.DEFAULT_ENGINE;
+            // Stored by an earlier version, the message is only shown once
+            preferences.edit().putString("engine", engineType).apply();
+        }
+        return engineFactory.create(engineType, getModelParameters(), simulationScenario,
+                getBroadphaseType());
+    }
+
+    BroadphaseType getBroadphaseType() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        return BroadphaseType.valueOf(preferences.getString(
+                "broadphase", PhysicsEngineFactory.DEFAULT_BROADPHASE.name()));
+    }
+
+    boolean isRetirementEnabled() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        return preferences.getBoolean("retire_bodies", true);
+    }
+
+    boolean isRecordingEnabled() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        return preferences.getBoolean("record_simulation", false);
+    }
+
+    private void startRecording() {
+        // Pull them with adb and check them with SimulationReplayer
+        File recording = new File(getExternalFilesDir("recordings"),
+                "simulation-" + System.currentTimeMillis() + ".arpr");
+        try {
+            jBulletController.startRecording(new FileOutputStream(recording));
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, "Could not start recording", e);
+        }
+    }
+
+    boolean isTrajectoryExportEnabled() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        return preferences.getBoolean("export_trajectory", false);
+    }
+
+    private void startTrajectoryExport() {
+        File trajectory = new File(getExternalFilesDir("trajectories"),
+                "trajectory-" + System.currentTimeMillis() + ".arpt");
+        try {
+            jBulletController.startTrajectoryExport(trajectory);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start the trajectory export", e);
+        }
+    }
+
+    boolean isWarmStartEnabled() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        return preferences.getBoolean("warm_start", true);
+    }
+
+    boolean isPerfHudEnabled() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        return preferences.getBoolean("perf_hud", false);
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -116,10 +259,42 @@ public class MainActivity extends AppCompatActivity implements Node.TransformCha
         simulationScenario = (SimulationScenario)startingIntent.getSerializableExtra(ChooserActivity.SIMULATION_SCENARIO);
 
         initializeGallery();
+
+        settledLayouts = new SettledLayoutCache(new File(getFilesDir(), "settled_layouts"),
+                SETTLED_LAYOUT_CAPACITY);
+        if (isWarmStartEnabled()) {
+            // Likely ready by the time the user places the structure
+            settledLayouts.precompute(getModelParameters(), simulationScenario, getBroadphaseType(),
+                    JBulletSimulation.DEFAULT_BOX_COLLISION_ALGORITHMS);
+        }
+
+        if (isPerfHudEnabled()) {
+            perfHud = new PerfHudDrawable();
+            findViewById(android.R.id.content).getOverlay().add(perfHud);
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (jBulletController != null && isPhysicsThreadEnabled()) {
+            jBulletController.startPhysicsThread();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        // Otherwise the physics thread keeps stepping while the app is in the background
+        if (jBulletController != null) {
+            jBulletController.stopPhysicsThread();
+        }
+        super.onPause();
     }
 
     public void onDestroy() {
         clearScene(true);
+        releaseController();
+        settledLayouts.shutdown();
         super.onDestroy();
     }
 
@@ -132,10 +307,17 @@ public class MainActivity extends AppCompatActivity implements Node.TransformCha
                 Vector3 position = cylinderNode.getLocalPosition();
                 cylinderPosition = new Vector3f(position.x, position.y, position.z);
             }
+            if (pendingLayout != null) {
+                buildPendingPlanks();
+            }
             jBulletController.updatePhysics(cylinderPosition);
         }
 
         View contentView = findViewById(android.R.id.content);
+        if (perfHud != null && jBulletController != null) {
+            updatePerfHud(contentView);
+        }
+
         if (trackingChanged) {
             if (isTracking) {
                 contentView.getOverlay().add(pointer);
@@ -154,6 +336,24 @@ public class MainActivity extends AppCompatActivity implements Node.TransformCha
         }
     }
 
+    private void updatePerfHud(View contentView) {
+        long now = System.nanoTime();
+        if (now - lastPerfHudRefresh < PERF_HUD_REFRESH_NANOS) {
+            return;
+        }
+        lastPerfHudRefresh = now;
+        String[] lines = jBulletController.getStats().format();
+        perfHud.setLines(lines);
+        contentView.invalidate();
+
+        if (now - lastPerfLog >= PERF_LOG_NANOS) {
+            lastPerfLog = now;
+            for (String line : lines) {
+                Log.i(TAG, line);
+            }
+        }
+    }
+
     private boolean updateTracking() {
         Frame frame = fragment.getArSceneView().getArFrame();
         boolean wasTracking = isTracking;
@@ -187,85 +387,96 @@ public class MainActivity extends AppCompatActivity implements Node.TransformCha
         return new Point(vw.getWidth() / 2, vw.getHeight() / 2);
     }
 
-    private void buildTower(Material material, AnchorNode anchorNode) {
-        int numFloors = getModelParameters().getNumFloors();
-        for (int i = 0; i < numFloors; i++) {
-            boolean even = i % 2 == 0;
-            for (int j = -1; j <= 1; j += 2) {
-                Vector3 box = new Vector3(even ? WIDTH : DEPTH, HEIGHT, even ? DEPTH: WIDTH);
-                ModelRenderable renderable = ShapeFactory.makeCube(
-                    box,
-                    new Vector3(0, 0, 0),
-                    material
-                );
-
-                Node node = new Node();
-                node.setParent(anchorNode);
-                node.setRenderable(renderable);
-                float displacement = (WIDTH - 2 * DEPTH) / 2 * j;
-                float margin = CONVEX_MARGIN;
-                Vector3 pos = new Vector3(
-                    even ? 0.0f : displacement,
-                    margin + (HEIGHT + margin) * i,
-                    even ? displacement : 0.0f
-                );
-                node.setLocalPosition(pos);
-
-                int index = i * 2 + (j < 0 ? 0 : 1);
-                jBulletController.addPlankRigidBody(
-                    index,
-                    node,
-                    new Vector3f(box.x / 2, box.y / 2, box.z / 2),
-                    new Vector3f(pos.x, pos.y, pos.z)
-                );
+    private void buildStructure(Material material, AnchorNode anchorNode) {
+        ModelParameters modelParameters = getModelParameters();
+        StructureLayout layout = null;
+        if (isWarmStartEnabled()) {
+            BroadphaseType broadphaseType = getBroadphaseType();
+            layout = settledLayouts.get(modelParameters, simulationScenario, broadphaseType,
+                    JBulletSimulation.DEFAULT_BOX_COLLISION_ALGORITHMS);
+            if (layout == null) {
+                // Not settled or loaded yet, at least the next spawn can start at rest
+                settledLayouts.precompute(modelParameters, simulationScenario, broadphaseType,
+                        JBulletSimulation.DEFAULT_BOX_COLLISION_ALGORITHMS);
             }
         }
+        if (layout == null) {
+            layout = StructureLayout.create(modelParameters, simulationScenario);
+        }
+        if (isRetirementEnabled()) {
+            jBulletController.setRetirement(RetirementPolicy.around(
+                    layout, RetirementPolicy.DEFAULT_MARGIN, RETIREMENT_TIMEOUT, true));
+        }
+        // All the bodies go in at once, the nodes follow over the next frames
+        jBulletController.addStructure(layout);
+        pendingLayout = layout;
+        pendingMaterial = material;
+        pendingAnchorNode = anchorNode;
+        pendingPlankIndex = 0;
     }
 
-    private void buildPlankMatrix(Material material, AnchorNode anchorNode) {
-        int numFloors = getModelParameters().getNumFloors();
-        int numPlanks = numFloors * numFloors;
-        float spacing = 1.0f / (numFloors + 1);
-        for (int i = 0; i < numPlanks; i++) {
-            Vector3 box = new Vector3(HEIGHT, WIDTH, HEIGHT);
-            ModelRenderable renderable = ShapeFactory.makeCube(
-                box,
-                new Vector3(0, 0, 0),
-                material
+    private void buildPendingPlanks() {
+        float[] halfExtents = pendingLayout.getHalfExtents();
+        float[] positions = pendingLayout.getPositions();
+        float[] rotations = pendingLayout.getRotations();
+        int end = Math.min(pendingPlankIndex + PLANKS_PER_FRAME, pendingLayout.getPlankCount());
+        for (int i = pendingPlankIndex; i < end; i++) {
+            int offset = i * 3;
+            Vector3 box = new Vector3(
+                halfExtents[offset] * 2,
+                halfExtents[offset + 1] * 2,
+                halfExtents[offset + 2] * 2
+            );
+            Material material = pendingMaterial;
+            ModelRenderable renderable = plankRenderables.get(box.x, box.y, box.z, material,
+                () -> ShapeFactory.makeCube(
+                    box,
+                    new Vector3(0, 0, 0),
+                    material
+                )
             );
 
             Node node = new Node();
-            node.setParent(anchorNode);
+            node.setParent(pendingAnchorNode);
             node.setRenderable(renderable);
-            int xIndex = i % numFloors + 1;
-            int zIndex = i / numFloors + 1;
-            float xPos = xIndex * spacing - 0.5f;
-            float zPos = zIndex * spacing - 0.5f;
-            Vector3 pos = new Vector3(xPos, CONVEX_MARGIN, zPos);
-            node.setLocalPosition(pos);
-
-            jBulletController.addPlankRigidBody(
-                i,
-                node,
-                new Vector3f(box.x / 2, box.y / 2, box.z / 2),
-                new Vector3f(pos.x, pos.y, pos.z)
-            );
+            node.setLocalPosition(
+                new Vector3(positions[offset], positions[offset + 1], positions[offset + 2]));
+            if (rotations != null) {
+                int rotationOffset = i * 4;
+                node.setLocalRotation(new Quaternion(rotations[rotationOffset],
+                    rotations[rotationOffset + 1], rotations[rotationOffset + 2],
+                    rotations[rotationOffset + 3]));
+            }
+
+            jBulletController.setPlankNode(i, node);
+        }
+
+        pendingPlankIndex = end;
+        if (pendingPlankIndex >= pendingLayout.getPlankCount()) {
+            pendingLayout = null;
+            pendingMaterial = null;
+            pendingAnchorNode = null;
         }
     }
 
-    private void spawnStructure(ArSceneView arSceneView, Anchor anchor) {
+    private void spawnStructure(ArSceneView arSceneView, Anchor anchor, boolean reused) {
         AnchorNode anchorNode = new AnchorNode(anchor);
         Scene scene = arSceneView.getScene();
         anchorNode.setParent(scene);
 
+        if (reused) {
+            // The bodies were put back by the restart, only the nodes move to the new anchor
+            for (int i = 0; i < jBulletController.getPlankCount(); i++) {
+                jBulletController.getPlankNode(i).setParent(anchorNode);
+            }
+            appState = AppState.TOWER_PLACED;
+            return;
+        }
+
         Color plankColor = new Color(0xFF593C1F);  // Brown RGB: 89, 60, 31
         MaterialFactory.makeOpaqueWithColor(this, plankColor)
                 .thenAccept(material -> {
-            if (simulationScenario == SimulationScenario.PlankTower) {
-                buildTower(material, anchorNode);
-            } else {
-                buildPlankMatrix(material, anchorNode);
-            }
+            buildStructure(material, anchorNode);
             appState = AppState.TOWER_PLACED;
         });
     }
@@ -275,33 +486,57 @@ public class MainActivity extends AppCompatActivity implements Node.TransformCha
         Scene scene = arSceneView.getScene();
         anchorNode.setParent(scene);
 
+        if (ballRenderable != null) {
+            launchBall(startPosition, targetPosition, anchorNode);
+            return;
+        }
         Color ballColor = new Color(android.graphics.Color.RED);
         MaterialFactory.makeOpaqueWithColor(this, ballColor)
             .thenAccept(material -> {
-                ModelRenderable renderable = ShapeFactory.makeSphere(
+                ballRenderable = ShapeFactory.makeSphere(
                     RADIUS,
                     new Vector3(0, 0, 0),
                     material
                 );
+                launchBall(startPosition, targetPosition, anchorNode);
+            });
+    }
 
-                Node node = new Node();
-                node.setParent(anchorNode);
-                node.setRenderable(renderable);
-                node.setLocalPosition(startPosition);
+    private void launchBall(Vector3 startPosition, Vector3 targetPosition, AnchorNode anchorNode) {
+        if (jBulletController == null) {
+            // The scene was cleared while the material was made
+            return;
+        }
+        if (ballNodes == null) {
+            ballNodes = new Node[jBulletController.getBallCapacity()];
+            for (int i = 0; i < ballNodes.length; i++) {
+                ballNodes[i] = new Node();
+                ballNodes[i].setRenderable(ballRenderable);
+                jBulletController.setBallNode(i, ballNodes[i]);
+            }
+        }
 
-                // The camera look direction is the hurdle inertia, maybe scaling needed
-                Vector3f velocityVector = new Vector3f(
-                    targetPosition.x - startPosition.x,
-                    targetPosition.y - startPosition.y,
-                    targetPosition.z - startPosition.z
-                );
-                jBulletController.addBallRigidBody(
-                    node,
-                    new Vector3f(startPosition.x, startPosition.y, startPosition.z),
-                    velocityVector
-                );
-                appState = AppState.BALL_HURDLED;
-            });
+        // The camera look direction is the hurdle inertia, maybe scaling needed
+        Vector3f velocityVector = new Vector3f(
+            targetPosition.x - startPosition.x,
+            targetPosition.y - startPosition.y,
+            targetPosition.z - startPosition.z
+        );
+        Node node = jBulletController.launchBall(
+            new Vector3f(startPosition.x, startPosition.y, startPosition.z),
+            velocityVector
+        );
+        // A ball thrown again leaves the anchor of its previous throw behind
+        Node previousParent = node.getParent();
+        if (previousParent instanceof AnchorNode && previousParent != anchorNode) {
+            Anchor previousAnchor = ((AnchorNode) previousParent).getAnchor();
+            previousParent.setParent(null);
+            if (previousAnchor != null) {
+                previousAnchor.detach();
+            }
+        }
+        node.setParent(anchorNode);
+        appState = AppState.BALL_HURDLED;
     }
 
     @Override
@@ -390,9 +625,13 @@ public class MainActivity extends AppCompatActivity implements Node.TransformCha
                             ImageView crossHairIcon = findViewById(R.id.cross_hair);
                             crossHairIcon.setVisibility(View.GONE);
                         } else {
-                            jBulletController = new JBulletController(getModelParameters(), simulationScenario);
+                            boolean reused = isControllerReusable();
+                            if (!reused) {
+                                releaseController();
+                                createController();
+                            }
                             iconButton.setEnabled(false);
-                            spawnStructure(arSceneView, hitAnchor);
+                            spawnStructure(arSceneView, hitAnchor, reused);
                             if (simulationScenario == SimulationScenario.CollisionBox) {
                                 Anchor boxAnchor = null;
                                 try {
@@ -421,6 +660,43 @@ public class MainActivity extends AppCompatActivity implements Node.TransformCha
         }
     }
 
+    private void createController() {
+        jBulletController = new JBulletController(createPhysicsEngine());
+        jBulletController.setSolverThreads(getSolverThreads());
+        jBulletController.setNarrowphaseThreads(getNarrowphaseThreads());
+        jBulletController.setQualityBudget(getQualityBudget());
+        // A ball moving more than its radius in a sub-step could skip a plank
+        jBulletController.setContinuousCollision(
+                isContinuousCollisionEnabled() ? RADIUS : 0, false);
+        if (isRecordingEnabled()) {
+            startRecording();
+        }
+        if (isTrajectoryExportEnabled()) {
+            startTrajectoryExport();
+        }
+        if (isPhysicsThreadEnabled()) {
+            jBulletController.startPhysicsThread();
+        }
+        controllerPreferences =
+                PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).getAll();
+    }
+
+    private boolean isControllerReusable() {
+        return jBulletController != null && controllerPreferences != null &&
+                controllerPreferences.equals(
+                        PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).getAll());
+    }
+
+    private void releaseController() {
+        if (jBulletController == null) {
+            return;
+        }
+        ballNodes = null;
+        jBulletController.clearScene();
+        jBulletController = null;
+        controllerPreferences = null;
+    }
+
     private void clearScene(boolean silent) {
         if (appState == AppState.INITIAL) {
             if (!silent) {
@@ -437,8 +713,19 @@ public class MainActivity extends AppCompatActivity implements Node.TransformCha
             cylinderNode.removeTransformChangedListener(this);
             cylinderNode = null;
         }
-        jBulletController.clearScene();
-        jBulletController = null;
+        // Restarting before every plank node was created leaves nothing to reuse
+        boolean reusable = pendingLayout == null;
+        pendingLayout = null;
+        pendingMaterial = null;
+        pendingAnchorNode = null;
+        // Every spawn creates its own material, the old renderables won't be hit again
+        plankRenderables.clear();
+        if (reusable) {
+            // The bodies and nodes stay for the next placement, unless the settings change
+            jBulletController.resetScene();
+        } else {
+            releaseController();
+        }
         // Clear the SceneForm scene
         fragment.getArSceneView().getScene().callOnHierarchy(node -> {
             if (node instanceof Camera) {
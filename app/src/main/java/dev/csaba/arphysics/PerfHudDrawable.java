@@ -0,0 +1,66 @@
+package dev.csaba.arphysics;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+public class PerfHudDrawable extends Drawable {
+    private static final float TEXT_SIZE = 32;
+    private static final float MARGIN = 16;
+
+    private final Paint backgroundPaint = new Paint();
+    private final Paint textPaint = new Paint();
+    private String[] lines = new String[0];
+
+    public PerfHudDrawable() {
+        backgroundPaint.setColor(Color.argb(160, 0, 0, 0));
+        textPaint.setColor(Color.GREEN);
+        textPaint.setTextSize(TEXT_SIZE);
+        textPaint.setTypeface(Typeface.MONOSPACE);
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        if (lines.length == 0) {
+            return;
+        }
+        float lineHeight = textPaint.getFontSpacing();
+        float width = 0;
+        for (String line : lines) {
+            width = Math.max(width, textPaint.measureText(line));
+        }
+        canvas.drawRect(0, 0, width + 2 * MARGIN, lines.length * lineHeight + 2 * MARGIN,
+                backgroundPaint);
+        float y = MARGIN + TEXT_SIZE;
+        for (String line : lines) {
+            canvas.drawText(line, MARGIN, y, textPaint);
+            y += lineHeight;
+        }
+    }
+
+    @Override
+    public void setAlpha(int i) {
+
+    }
+
+    @Override
+    public void setColorFilter(@Nullable ColorFilter colorFilter) {
+
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.UNKNOWN;
+    }
+
+    public void setLines(String[] lines) {
+        this.lines = lines;
+    }
+}
@@ -1,12 +1,41 @@
 package dev.csaba.arphysics;
 
 import android.os.Bundle;
+import androidx.preference.DropDownPreference;
 import androidx.preference.PreferenceFragmentCompat;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import dev.csaba.arphysics.engine.PhysicsEngineFactory;
+
 
 public class SettingsFragment extends PreferenceFragmentCompat {
     @Override
     public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
         setPreferencesFromResource(R.xml.preferences, rootKey);
+        DropDownPreference enginePreference = findPreference("engine");
+        if (enginePreference != null) {
+            listSupportedEngines(enginePreference);
+        }
+    }
+
+    // Only the engines the factory can create are offered
+    private void listSupportedEngines(DropDownPreference enginePreference) {
+        CharSequence[] entries = enginePreference.getEntries();
+        CharSequence[] entryValues = enginePreference.getEntryValues();
+        List<CharSequence> supportedEntries = new ArrayList<>();
+        List<CharSequence> supportedValues = new ArrayList<>();
+        for (int i = 0; i < entryValues.length; i++) {
+            if (PhysicsEngineFactory.isSupported(entryValues[i].toString())) {
+                supportedEntries.add(entries[i]);
+                supportedValues.add(entryValues[i]);
+            }
+        }
+        enginePreference.setEntries(supportedEntries.toArray(new CharSequence[0]));
+        enginePreference.setEntryValues(supportedValues.toArray(new CharSequence[0]));
+        if (!PhysicsEngineFactory.isSupported(enginePreference.getValue())) {
+            enginePreference.setValue(PhysicsEngineFactory.DEFAULT_ENGINE);
+        }
     }
 }
@@ -1,6 +0,0 @@
-package dev.csaba.arphysics;
-
-public enum SimulationScenario {
-    PlankTower,
-    CollisionBox
-}
@@ -2,361 +2,401 @@ package dev.csaba.arphysics.engine;
 
 import android.util.Log;
 
-import com.bulletphysics.collision.broadphase.DbvtBroadphase;
-import com.bulletphysics.collision.dispatch.CollisionDispatcher;
-import com.bulletphysics.collision.dispatch.CollisionFlags;
-import com.bulletphysics.collision.dispatch.CollisionObject;
-import com.bulletphysics.collision.dispatch.DefaultCollisionConfiguration;
-import com.bulletphysics.collision.shapes.BoxShape;
-import com.bulletphysics.collision.shapes.CollisionShape;
-import com.bulletphysics.collision.shapes.CylinderShape;
-import com.bulletphysics.collision.shapes.SphereShape;
-import com.bulletphysics.collision.shapes.StaticPlaneShape;
-import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
-import com.bulletphysics.dynamics.RigidBody;
-import com.bulletphysics.dynamics.RigidBodyConstructionInfo;
-import com.bulletphysics.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
-import com.bulletphysics.linearmath.DefaultMotionState;
-import com.bulletphysics.linearmath.MotionState;
-import com.bulletphysics.linearmath.Transform;
-import com.bulletphysics.util.ObjectArrayList;
-import com.google.ar.core.Pose;
 import com.google.ar.sceneform.Node;
 import com.google.ar.sceneform.math.Quaternion;
 import com.google.ar.sceneform.math.Vector3;
 
-import javax.vecmath.Quat4f;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
 import javax.vecmath.Vector3f;
 
 import dev.csaba.arphysics.ModelParameters;
 import dev.csaba.arphysics.SimulationScenario;
 
-
+/**
+ * Binds the Sceneform nodes to the bodies of a headless PhysicsEngine,
+ * JBulletSimulation unless another engine is passed in.
+ */
 public class JBulletController {
 
   private static final String TAG = "JBulletController";
 
-  private ModelParameters modelParameters;
-  private DiscreteDynamicsWorld dynamicsWorld;
-  private RigidBody ballRB;
-  private Node ballNode;
-  private RigidBody cylinderRB;
-  private RigidBody[] plankRBs;
+  private PhysicsEngine engine;
   private Node[] plankNodes;
-  private long previousTime;
-  private int slowMotion;
-  private Vector3f zeroVector;
-  private SimulationScenario simulationScenario;
   private int plankCount;
+  private int ballSlot;
+  // The projectile pool, ball i of the engine is shown by ballNodes[i]
+  private Node[] ballNodes;
+  // Launched, but not in the poses yet
+  private boolean[] ballsPending;
+  private boolean[] ballsInFlight;
+  // Order of the launches, when every ball is in flight the oldest one is thrown again
+  private long[] ballLaunches;
+  private long launchCount;
+  // Scratch objects of the pose synchronization, so steady state frames don't allocate
+  private final Vector3 scratchPosition = new Vector3();
+  private final Quaternion scratchRotation = new Quaternion();
+  // Last pose pushed to every node, settled bodies are not touched again
+  private float[] appliedPoses;
+  private int syncedBodyCount;
+  private SimulationRecorder recorder;
+  private TrajectoryWriter trajectoryWriter;
+  private QualityGovernor qualityGovernor;
+  // Level changes already logged, the governor itself runs on the stepping thread
+  private int loggedQualityChanges;
 
   public JBulletController(ModelParameters modelParameters, SimulationScenario simulationScenario) {
-    this.modelParameters = modelParameters;
-    this.slowMotion = modelParameters.getSlowMotion();
-    this.simulationScenario = simulationScenario;
-    initialize();
+    this(new JBulletSimulation(modelParameters, simulationScenario));
   }
 
-  public void initialize() {
-    // Initialize Bullet Physics Engine
-    DefaultCollisionConfiguration collisionConfiguration = new DefaultCollisionConfiguration();
-    CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
-    DbvtBroadphase broadPhase = new DbvtBroadphase();
-    SequentialImpulseConstraintSolver solver = new SequentialImpulseConstraintSolver();
+  public JBulletController(PhysicsEngine engine) {
+    this.engine = engine;
+    plankCount = engine.getPlankCount();
+    ballSlot = engine.getBallSlot();
+    plankNodes = new Node[plankCount];
+    int ballCapacity = engine.getBallCapacity();
+    ballNodes = new Node[ballCapacity];
+    ballsPending = new boolean[ballCapacity];
+    ballsInFlight = new boolean[ballCapacity];
+    ballLaunches = new long[ballCapacity];
+    appliedPoses = new float[engine.getPoseCount() * PoseSnapshot.STRIDE];
+  }
 
-    dynamicsWorld = new DiscreteDynamicsWorld(dispatcher, broadPhase, solver, collisionConfiguration);
+  public PhysicsEngine getEngine() {
+    return engine;
+  }
 
-    // Override default gravity (which would be (0, -10, 0)) with configured one
-    dynamicsWorld.setGravity(new Vector3f(0f, -modelParameters.getGravity(), 0f));
+  public PhysicsStats getStats() {
+    return engine.getStats();
+  }
 
-    zeroVector = new Vector3f(0, 0, 0);
+  /**
+   * Configures the fixed time step stepping.
+   * @param fixedTimeStep simulated seconds per sub-step, 0 selects the legacy variable step
+   * @param maxSubSteps maximum number of sub-steps performed in one updatePhysics call
+   */
+  public void setFixedTimeStep(float fixedTimeStep, int maxSubSteps) {
+    engine.setFixedTimeStep(fixedTimeStep, maxSubSteps);
+  }
 
-    addGroundPlane();
+  /**
+   * @param solverThreads number of threads solving independent simulation islands in parallel
+   */
+  public void setSolverThreads(int solverThreads) {
+    engine.setSolverThreads(solverThreads);
+  }
 
-    int plankCountMultiplier = simulationScenario == SimulationScenario.PlankTower ? 2 :
-            modelParameters.getNumFloors();
-    plankCount = modelParameters.getNumFloors() * plankCountMultiplier;
-    plankRBs = new RigidBody[plankCount];
-    plankNodes = new Node[plankCount];
+  /**
+   * @param narrowphaseThreads number of threads generating the contacts of the overlapping pairs
+   */
+  public void setNarrowphaseThreads(int narrowphaseThreads) {
+    engine.setNarrowphaseThreads(narrowphaseThreads);
+  }
+
+  /**
+   * @param motionThreshold sub-step motion in meters above which the ball is swept, so it can't
+   * pass through a plank at a low frame rate, 0 turns it off
+   * @param planks whether fast planks are swept too
+   */
+  public void setContinuousCollision(float motionThreshold, boolean planks) {
+    engine.setContinuousCollision(motionThreshold, planks);
+  }
+
+  /**
+   * Stops simulating the planks which left the world bounds, or were knocked off and came
+   * to rest, see RetirementPolicy. The nodes of the removed planks are hidden.
+   * @param policy null keeps every body in the simulation
+   */
+  public void setRetirement(RetirementPolicy policy) {
+    engine.setRetirement(policy);
+  }
+
+  /**
+   * Lowers the simulation quality while the physics steps take longer than the budget,
+   * and raises it again once they are well below, see QualityGovernor.
+   * @param budgetMillis step time to stay below, 0 turns the governor off
+   */
+  public void setQualityBudget(float budgetMillis) {
+    if (budgetMillis > 0) {
+      qualityGovernor = new QualityGovernor(budgetMillis);
+    } else {
+      qualityGovernor = null;
+      engine.setQuality(QualityLevel.FULL);
+    }
+    engine.setQualityGovernor(qualityGovernor);
+  }
+
+  /**
+   * Moves the stepping of the dynamics world to a dedicated thread. The render
+   * callback (updatePhysics) then only picks up the latest published poses.
+   */
+  public void startPhysicsThread() {
+    engine.startPhysicsThread();
+  }
+
+  public void stopPhysicsThread() {
+    engine.stopPhysicsThread();
   }
 
-  public void addBallRigidBody(Node ballNode, Vector3f ballPosition, Vector3f velocity) {
-    this.ballNode = ballNode;
-    float r = modelParameters.getRadius();
-    CollisionShape ballShape = new SphereShape(r);
+  /**
+   * Records the simulation into the stream until clearScene, see SimulationReplayer.
+   * Has to be called before any body is added.
+   */
+  public void startRecording(OutputStream outputStream) {
+    recorder = new SimulationRecorder(outputStream);
+    engine.setRecorder(recorder);
+  }
+
+  private void stopRecording() {
+    if (recorder == null) {
+      return;
+    }
+    engine.setRecorder(null);
+    try {
+      recorder.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not finish the recording", e);
+    }
+    if (recorder.getError() != null) {
+      Log.e(TAG, "Recording stopped early", recorder.getError());
+    }
+    recorder = null;
+  }
 
-    Transform ballTransform = new Transform();
-    ballTransform.setIdentity();
-    ballTransform.origin.set(ballPosition);
+  /**
+   * Exports the pose of every body after each physics step into the file until clearScene,
+   * see TrajectoryReader.
+   */
+  public void startTrajectoryExport(File target) throws IOException {
+    trajectoryWriter = new TrajectoryWriter(target, engine.getPoseCount());
+    engine.setStepListener(trajectoryWriter);
+  }
 
-    DefaultMotionState ballMotionState = new DefaultMotionState(ballTransform);
-    float mass = (float)(modelParameters.getBallDensity() * 4 / 3 * Math.PI * r * r * r);
-    ballShape.calculateLocalInertia(mass, zeroVector);
-    RigidBodyConstructionInfo ballRBInfo = new RigidBodyConstructionInfo(
-        mass, ballMotionState, ballShape, zeroVector);
-    ballRBInfo.restitution = modelParameters.getBallRestitution();
-    ballRBInfo.friction = modelParameters.getBallFriction();
+  private void stopTrajectoryExport() {
+    if (trajectoryWriter == null) {
+      return;
+    }
+    engine.setStepListener(null);
+    try {
+      trajectoryWriter.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not finish the trajectory export", e);
+    }
+    if (trajectoryWriter.getDroppedFrames() > 0) {
+      Log.w(TAG, "Trajectory export dropped " + trajectoryWriter.getDroppedFrames() + " steps");
+    }
+    trajectoryWriter = null;
+  }
 
-    ballRB = new RigidBody(ballRBInfo);
-    // ballRB.setActivationState(DISABLE_DEACTIVATION);
-    // ballRB.setDeactivationTime(5f);
-    ballRB.setLinearVelocity(velocity);
-    ballRB.setSleepingThresholds(0.8f, 1.0f);
-    dynamicsWorld.addRigidBody(ballRB);
-    previousTime = java.lang.System.currentTimeMillis();
+  public int getBallCapacity() {
+    return ballNodes.length;
   }
 
-  private void addCollisionBoxWall(Vector3f normal, Vector3f position) {
-    CollisionShape wallShape = new StaticPlaneShape(
-            new Vector3f(normal.x, normal.y, normal.z), 0);
-    wallShape.setMargin(modelParameters.getConvexMargin());
+  /**
+   * Binds a node of the projectile pool, it is only shown while its ball is in flight.
+   */
+  public void setBallNode(int ball, Node ballNode) {
+    ballNodes[ball] = ballNode;
+    ballNode.setEnabled(ballsPending[ball] || ballsInFlight[ball]);
+  }
 
-    Transform wallTransform = new Transform();
-    wallTransform.setIdentity();
-    wallTransform.origin.set(position.x, position.y, position.z);
+  /**
+   * Throws a ball of the pool: a ball back in the pool if there is one, the one thrown
+   * the longest time ago otherwise. The engine reclaims the balls which fell asleep or
+   * flew out of range, repeated throws neither allocate nor rebuild anything.
+   * @return the node of the thrown ball, null if none is bound to it
+   */
+  public Node launchBall(Vector3f ballPosition, Vector3f velocity) {
+    int ball = 0;
+    for (int i = 0; i < ballNodes.length; i++) {
+      if (!ballsPending[i] && !ballsInFlight[i]) {
+        ball = i;
+        break;
+      }
+      if (ballLaunches[i] < ballLaunches[ball]) {
+        ball = i;
+      }
+    }
+    ballsPending[ball] = true;
+    ballLaunches[ball] = ++launchCount;
+    engine.launchBall(ball, ballPosition, velocity);
 
-    DefaultMotionState wallMotionState = new DefaultMotionState(wallTransform);
-    RigidBodyConstructionInfo wallRBInfo = new RigidBodyConstructionInfo(
-            0.0f, wallMotionState, wallShape, zeroVector);
-    wallRBInfo.friction = 0.6f;
-    RigidBody wallRB = new RigidBody(wallRBInfo);
-    dynamicsWorld.addRigidBody(wallRB);
+    Node ballNode = ballNodes[ball];
+    if (ballNode != null) {
+      // Shown at the start until the first pose of the throw arrives
+      scratchPosition.set(ballPosition.x, ballPosition.y, ballPosition.z);
+      ballNode.setLocalPosition(scratchPosition);
+      ballNode.setEnabled(true);
+    }
+    return ballNode;
   }
 
   public void addCylinderKineticBody(Vector3f cylinderPosition) {
-    float r = modelParameters.getWidth();
-    CollisionShape cylinderShape = new CylinderShape(new Vector3f(r, r, r));
-
-    Transform cylinderTransform = new Transform();
-    cylinderTransform.setIdentity();
-    cylinderTransform.origin.set(cylinderPosition);
-
-    DefaultMotionState cylinderMotionState = new DefaultMotionState(cylinderTransform);
-    // https://pybullet.org/Bullet/phpBB3/viewtopic.php?t=7086
-    // Kinematic Object's mass is 0.0
-    RigidBodyConstructionInfo cylinderRBInfo = new RigidBodyConstructionInfo(
-        0, cylinderMotionState, cylinderShape, zeroVector);
-    cylinderRBInfo.restitution = modelParameters.getBallRestitution();
-    cylinderRBInfo.friction = modelParameters.getBallFriction();
-
-    cylinderRB = new RigidBody(cylinderRBInfo);
-    cylinderRB.setCollisionFlags(CollisionFlags.KINEMATIC_OBJECT);
-    cylinderRB.setActivationState(CollisionObject.DISABLE_DEACTIVATION);
-    dynamicsWorld.addRigidBody(cylinderRB);
-
-    addCollisionBoxWall(new Vector3f(0.5f, 0, 0), new Vector3f(-0.5f, 0, 0));
-    addCollisionBoxWall(new Vector3f(0, 0, 0.5f), new Vector3f(0, 0, -0.5f));
-    addCollisionBoxWall(new Vector3f(-0.5f, 0, 0), new Vector3f(0.5f, 0, 0));
-    addCollisionBoxWall(new Vector3f(0, 0, -0.5f), new Vector3f(0, 0, 0.5f));
-    // previousTime = java.lang.System.currentTimeMillis();
-  }
-
-  public void addGroundPlane() {
-    CollisionShape groundShape = new StaticPlaneShape(
-      new Vector3f(0, 1.0f, 0), 0);
-    groundShape.setMargin(modelParameters.getConvexMargin());
-
-    Transform groundTransform = new Transform();
-    groundTransform.setIdentity();
-    groundTransform.origin.set(0, 0, 0);
-
-    DefaultMotionState groundMotionState = new DefaultMotionState(groundTransform);
-    RigidBodyConstructionInfo groundRBInfo = new RigidBodyConstructionInfo(
-        0.0f, groundMotionState, groundShape, zeroVector);
-    groundRBInfo.friction = 0.6f;
-    RigidBody groundRB = new RigidBody(groundRBInfo);
-    dynamicsWorld.addRigidBody(groundRB);
+    engine.addCylinderKineticBody(cylinderPosition);
   }
 
   public void addPlankRigidBody(int index, Node plankNode, Vector3f plankBox, Vector3f plankPosition) {
     this.plankNodes[index] = plankNode;
-    float margin = modelParameters.getConvexMargin();
-    float marginShrink = 0.0f;  // margin;
-    float doubleMargin = marginShrink * 2;
-    // We need to shrink the box with the margin, so
-    // the planks would touch and would not float on each other.
-    // This has to be reversed in updatePhysics.
-    Vector3f compensatedPlankBox = new Vector3f(
-      plankBox.x - doubleMargin,
-      plankBox.y - doubleMargin,
-      plankBox.z - doubleMargin
-    );
-    CollisionShape plankShape = new BoxShape(compensatedPlankBox);
-    plankShape.setMargin(margin);
-
-    Transform plankTransform = new Transform();
-    plankTransform.setIdentity();
-    // We need to compensate the position due to the PlankBox shrink.
-    // This has to be reversed in updatePhysics.
-    Vector3f compensatedPlankPosition = new Vector3f(
-      plankPosition.x + marginShrink,
-      plankPosition.y + marginShrink,
-      plankPosition.z + marginShrink
-    );
-    plankTransform.origin.set(compensatedPlankPosition);
-
-    DefaultMotionState plankMotionState = new DefaultMotionState(plankTransform);
-    float mass = modelParameters.getPlankDensity() * plankBox.x * plankBox.y * plankBox.z;
-    plankShape.calculateLocalInertia(mass, zeroVector);
-    RigidBodyConstructionInfo plankRBInfo = new RigidBodyConstructionInfo(
-        mass, plankMotionState, plankShape, zeroVector);
-    plankRBInfo.restitution = modelParameters.getBallRestitution();
-    plankRBInfo.friction = modelParameters.getBallFriction();
-
-    RigidBody plankRB = new RigidBody(plankRBInfo);
-    // plankRB.setActivationState(DISABLE_DEACTIVATION);
-    plankRB.setSleepingThresholds(0.8f, 1.0f);
-    plankRBs[index] = plankRB;
-
-    dynamicsWorld.addRigidBody(plankRB);
-
-    /*
-    if (index == plankCount - 1) {
-      previousTime = java.lang.System.currentTimeMillis();
-    }
-    */
+    engine.addPlankRigidBody(index, plankBox, plankPosition);
   }
 
-  public Pose getElementPose(RigidBody rigidBody) {
-    Transform elementTransform = new Transform();
-    rigidBody.getMotionState().getWorldTransform(elementTransform);
+  /**
+   * Adds the bodies of the whole structure at once. The nodes can be bound later
+   * with setPlankNode, a plank is not synchronized until it has a node.
+   */
+  public void addStructure(StructureLayout layout) {
+    engine.addStructure(layout);
+  }
 
-    Quat4f rot = new Quat4f();
-    elementTransform.getRotation(rot);
+  public void setPlankNode(int index, Node plankNode) {
+    this.plankNodes[index] = plankNode;
+  }
 
-    float margin = 0.0f;  // modelParameters.getConvexMargin();
-    // Reverse the margin compensation.
-    // A rudimentary version doesn't account for the rotation,
-    // so it could miscalculate by sqrt(2)-1 (0.414213562) x margin.
-    // Since the margin is already small this might not be much visible.
-    // Otherwise we'll have to calculate the proper geometry based on the rotation.
-    float[] translation = {
-      elementTransform.origin.x - margin,
-      elementTransform.origin.y - margin,
-      elementTransform.origin.z - margin
-    };
-    float[] rotation = {
-      rot.x,
-      rot.y,
-      rot.z,
-      rot.w
-    };
+  public Node getPlankNode(int index) {
+    return plankNodes[index];
+  }
 
-    return new Pose(translation, rotation);
+  public int getPlankCount() {
+    return plankCount;
   }
 
   public void updateCylinderLocation(Vector3f cylinderPosition) {
-    if (cylinderRB == null) {
-      return;
-    }
-    if (previousTime <= 0) {
-      // Start the simulation as soon as the cylinder moves the first time
-      previousTime = java.lang.System.currentTimeMillis();
+    engine.updateCylinderLocation(cylinderPosition);
+  }
+
+  public void updatePhysics(Vector3f cylinderPosition) {
+    float[] poses = engine.update(cylinderPosition);
+    if (poses != null) {
+      long syncStart = System.nanoTime();
+      applyPoses(poses);
+      engine.getStats().recordSync(System.nanoTime() - syncStart, syncedBodyCount);
+      logQualityChanges();
     }
 
-    Transform elementTransform = new Transform();
-    MotionState motionState = cylinderRB.getMotionState();
-    motionState.getWorldTransform(elementTransform);
-    Vector3f translation = new Vector3f(
-      cylinderPosition.x - elementTransform.origin.x,
-      cylinderPosition.y - elementTransform.origin.y,
-      cylinderPosition.z - elementTransform.origin.z
-    );
-    if (Math.abs(translation.x) < 1e-6 && Math.abs(translation.y) < 1e-6 && Math.abs(translation.z) < 1e-6) {
+    // printDebugInfo();
+  }
+
+  private void logQualityChanges() {
+    PhysicsStats stats = engine.getStats();
+    int qualityChanges = stats.getQualityChanges();
+    if (qualityGovernor == null || qualityChanges == loggedQualityChanges) {
       return;
     }
+    loggedQualityChanges = qualityChanges;
+    int level = stats.getQualityLevel();
+    Log.i(TAG, "Quality level " + level + " for the " + qualityGovernor.getBudgetMillis() +
+        " ms step budget: " + QualityGovernor.LEVELS[level]);
+  }
 
-    Transform cylinderTransform = new Transform();
-    cylinderTransform.setIdentity();
-    cylinderTransform.origin.set(cylinderPosition);
-    DefaultMotionState cylinderMotionState = new DefaultMotionState(cylinderTransform);
+  private void applyPoses(float[] poses) {
+    syncedBodyCount = 0;
+
+    // Update the balls, hiding the ones back in the pool
+    for (int ball = 0; ball < ballNodes.length; ball++) {
+      boolean written = PoseSnapshot.isWritten(poses, ballSlot + ball);
+      if (written) {
+        ballsPending[ball] = false;
+      }
+      boolean inFlight = written || ballsPending[ball];
+      Node ballNode = ballNodes[ball];
+      if (ballNode != null) {
+        if (inFlight != ballsInFlight[ball]) {
+          ballNode.setEnabled(inFlight);
+        }
+        if (written) {
+          applyPose(ballNode, poses, ballSlot + ball);
+        }
+      }
+      ballsInFlight[ball] = inFlight;
+    }
 
-    cylinderRB.setWorldTransform(cylinderTransform);
-    cylinderRB.setMotionState(cylinderMotionState);
-    cylinderRB.setLinearVelocity(new Vector3f(0, 0, 0));
-    cylinderRB.setAngularVelocity(new Vector3f(0, 0, 0));
-    cylinderRB.clearForces();
+    // Update the planks, hiding the ones the engine retired
+    for (int index = 0; index < plankCount; index++) {
+      Node plankNode = plankNodes[index];
+      if (plankNode == null) {
+        continue;
+      }
+      if (PoseSnapshot.isWritten(poses, index)) {
+        applyPose(plankNode, poses, index);
+      } else if (PoseSnapshot.isWritten(appliedPoses, index)) {
+        PoseSnapshot.clear(appliedPoses, index);
+        plankNode.setEnabled(false);
+      }
+    }
   }
 
-  public void updatePhysics(Vector3f cylinderPosition) {
-    // Approximately called with 30 FPS in my tests
-    if (previousTime <= 0) {
+  private void applyPose(Node node, float[] poses, int slot) {
+    if (!PoseSnapshot.isWritten(poses, slot)) {
       return;
     }
-    long currentTime = java.lang.System.currentTimeMillis();
-    long timeDeltaMillis = currentTime - previousTime;
-    if (timeDeltaMillis <= 0) {
-      return;
+    int offset = slot * PoseSnapshot.STRIDE;
+    boolean changed = false;
+    for (int i = offset; i < offset + PoseSnapshot.STRIDE; i++) {
+      if (appliedPoses[i] != poses[i]) {
+        changed = true;
+        appliedPoses[i] = poses[i];
+      }
     }
-
-    if (slowMotion > 1) {
-      timeDeltaMillis /= slowMotion;
+    if (!changed) {
+      return;
     }
 
-    // stepSimulation takes deltaTime in the unit of seconds
-    dynamicsWorld.stepSimulation(timeDeltaMillis / 1000.0f);
-    previousTime = currentTime;
+    // Node copies the values, so the scratch objects can be reused right away
+    scratchPosition.set(poses[offset], poses[offset + 1], poses[offset + 2]);
+    node.setLocalPosition(scratchPosition);
+    scratchRotation.set(poses[offset + 3], poses[offset + 4], poses[offset + 5], poses[offset + 6]);
+    node.setLocalRotation(scratchRotation);
+    syncedBodyCount++;
+  }
 
-    // Trying to make sure the cylinder is not resetted back to dead center
-    updateCylinderLocation(cylinderPosition);
+  /**
+   * @return number of nodes updated by the last updatePhysics call
+   */
+  public int getSyncedBodyCount() {
+    return syncedBodyCount;
+  }
 
-    // Update the ball
-    if (ballNode != null) {
-      Pose pose = getElementPose(ballRB);
-      ballNode.setLocalPosition(new Vector3(pose.tx(), pose.ty(), pose.tz()));
-      ballNode.setLocalRotation(new Quaternion(pose.qx(), pose.qy(), pose.qz(), pose.qw()));
+  /**
+   * Restarts the scene on the same bodies and nodes, see PhysicsEngine.resetScene. The plank
+   * nodes are shown again and move back into the structure with the next updatePhysics,
+   * the balls are hidden until thrown again. Recording and trajectory export go on.
+   */
+  public void resetScene() {
+    engine.resetScene();
+    for (int ball = 0; ball < ballNodes.length; ball++) {
+      ballsPending[ball] = false;
+      ballsInFlight[ball] = false;
+      if (ballNodes[ball] != null) {
+        ballNodes[ball].setEnabled(false);
+      }
     }
-
-    // Update the planks
-    int plankCount = plankRBs.length;
     for (int index = 0; index < plankCount; index++) {
-      Node plankNode = plankNodes[index];
-      if (plankNode != null) {
-        Pose pose = getElementPose(plankRBs[index]);
-        plankNode.setLocalPosition(new Vector3(pose.tx(), pose.ty(), pose.tz()));
-        plankNode.setLocalRotation(new Quaternion(pose.qx(), pose.qy(), pose.qz(), pose.qw()));
+      if (plankNodes[index] != null) {
+        plankNodes[index].setEnabled(true);
       }
     }
-
-    // printDebugInfo();
+    // Every node is synchronized again, even if its plank ends up where it was
+    Arrays.fill(appliedPoses, 0);
   }
 
   public void clearScene() {
-    ballNode = null;
-    if (ballRB != null) {
-      dynamicsWorld.removeRigidBody(ballRB);
+    engine.clearScene();
+    stopRecording();
+    stopTrajectoryExport();
+    for (int ball = 0; ball < ballNodes.length; ball++) {
+      ballNodes[ball] = null;
+      ballsPending[ball] = false;
+      ballsInFlight[ball] = false;
     }
-    if (cylinderRB != null) {
-      dynamicsWorld.removeRigidBody(cylinderRB);
-    }
-
-    int plankCount = plankRBs.length;
     for (int index = 0; index < plankCount; index++) {
       plankNodes[index] = null;
-      dynamicsWorld.removeRigidBody(plankRBs[index]);
     }
   }
 
   private void printDebugInfo() {
-    //
-    // Help print out debug info
-    //
-    int numObj = dynamicsWorld.getNumCollisionObjects();
-    ObjectArrayList<CollisionObject> objArray = dynamicsWorld.getCollisionObjectArray();
-    for (int j = 0; j < numObj; ++j) {
-      CollisionObject collisionObj = objArray.get(j);
-      RigidBody body = RigidBody.upcast(collisionObj);
-      Transform worldTransform = new Transform();
-      int state = collisionObj.getActivationState();
-      if (body != null && body.getMotionState() != null) {
-        body.getMotionState().getWorldTransform(worldTransform);
-      } else {
-        collisionObj.getWorldTransform(worldTransform);
-      }
-
-      Log.d(TAG,
-          String.format("obj %d status [%d] World transform %f, %f, %f",
-              j, state,
-              worldTransform.origin.x, worldTransform.origin.y, worldTransform.origin.z));
-    }
+    Log.d(TAG, engine.getDebugInfo());
   }
 }
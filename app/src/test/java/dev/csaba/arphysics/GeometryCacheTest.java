@@ -0,0 +1,51 @@
+package dev.csaba.arphysics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GeometryCacheTest {
+    private final Object material = new Object();
+
+    @Test
+    public void identicalBoxes_shareOneValue() {
+        GeometryCache<Object> cache = new GeometryCache<>();
+        Object first = cache.get(0.2f, 0.05f, 0.025f, material, Object::new);
+        Object second = cache.get(0.2f, 0.05f, 0.025f, material, Object::new);
+        assertSame(first, second);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void keying_coversDimensionsAndMaterial() {
+        GeometryCache<Object> cache = new GeometryCache<>();
+        Object plank = cache.get(0.2f, 0.05f, 0.025f, material, Object::new);
+        assertNotSame(plank, cache.get(0.025f, 0.05f, 0.2f, material, Object::new));
+        assertNotSame(plank, cache.get(0.2f, 0.05f, 0.025f, new Object(), Object::new));
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void tower_hitRateGrowsWithPlankCount() {
+        GeometryCache<Object> cache = new GeometryCache<>();
+        // Ten floors of two planks, the floors alternate between two orientations
+        for (int floor = 0; floor < 10; floor++) {
+            for (int plank = 0; plank < 2; plank++) {
+                if (floor % 2 == 0) {
+                    cache.get(0.2f, 0.05f, 0.025f, material, Object::new);
+                } else {
+                    cache.get(0.025f, 0.05f, 0.2f, material, Object::new);
+                }
+            }
+        }
+        assertEquals(2, cache.size());
+        assertEquals(0.9f, cache.getHitRate(), 1e-6f);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitRate(), 0);
+    }
+}
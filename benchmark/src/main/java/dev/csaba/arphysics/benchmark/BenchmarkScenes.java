@@ -0,0 +1,73 @@
+package dev.csaba.arphysics.benchmark;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+import dev.csaba.arphysics.engine.BroadphaseType;
+import dev.csaba.arphysics.engine.JBulletSimulation;
+import dev.csaba.arphysics.engine.PhysicsEngine;
+import dev.csaba.arphysics.engine.PhysicsEngineFactory;
+import dev.csaba.arphysics.engine.ShapeCache;
+import dev.csaba.arphysics.engine.StructureLayout;
+
+/**
+ * Builds the same worlds MainActivity does, without any rendering.
+ */
+final class BenchmarkScenes {
+
+  static final float FIXED_TIME_STEP = JBulletSimulation.DEFAULT_FIXED_TIME_STEP;
+
+  private BenchmarkScenes() {
+  }
+
+  // Values MainActivity derives from the default preferences
+  static ModelParameters createModelParameters(int numFloors) {
+    return new ModelParameters(numFloors, 10.0f, 0.0f, 1.0f, 500.0f, 0.0f, 0.5f, 8000.0f,
+        0.2f, 0.05f, 0.025f, 0.05f, 0.0025f, 1);
+  }
+
+  static PhysicsEngine createSimulation(String engineType, SimulationScenario scenario, int numFloors,
+                                        boolean ballImpact) {
+    ModelParameters modelParameters = createModelParameters(numFloors);
+    PhysicsEngine simulation =
+        new PhysicsEngineFactory().create(engineType, modelParameters, scenario);
+    populate(simulation, modelParameters, scenario, ballImpact);
+    return simulation;
+  }
+
+  static JBulletSimulation createSimulation(BroadphaseType broadphaseType, SimulationScenario scenario,
+                                            int numFloors, boolean ballImpact) {
+    ModelParameters modelParameters = createModelParameters(numFloors);
+    JBulletSimulation simulation =
+        new JBulletSimulation(modelParameters, scenario, new ShapeCache(), broadphaseType);
+    populate(simulation, modelParameters, scenario, ballImpact);
+    return simulation;
+  }
+
+  private static void populate(PhysicsEngine simulation, ModelParameters modelParameters,
+                               SimulationScenario scenario, boolean ballImpact) {
+    int numFloors = modelParameters.getNumFloors();
+    StructureLayout layout = StructureLayout.create(modelParameters, scenario);
+    simulation.addStructure(layout);
+
+    if (scenario == SimulationScenario.CollisionBox) {
+      // The walls come with the cylinder, park it under the floor out of the way
+      simulation.addCylinderKineticBody(new Vector3f(0, -1.0f, 0));
+    }
+    if (ballImpact && scenario.isStress()) {
+      // Hurled from a meter in front of the structure at its middle
+      Vector3f min = new Vector3f();
+      Vector3f max = new Vector3f();
+      layout.getBounds(min, max);
+      simulation.addBallRigidBody(new Vector3f((min.x + max.x) / 2, (min.y + max.y) / 2, max.z + 1.0f),
+          new Vector3f(0, 0, -5.0f));
+    } else if (ballImpact) {
+      // Hurled from a meter away at the middle of the structure, like a typical throw
+      float targetHeight = scenario == SimulationScenario.PlankTower ?
+          numFloors * modelParameters.getHeight() / 2 : modelParameters.getWidth() / 2;
+      simulation.addBallRigidBody(
+          new Vector3f(0, targetHeight, 1.0f), new Vector3f(0, 0, -5.0f));
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package dev.csaba.arphysics.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.csaba.arphysics.SimulationScenario;
+import dev.csaba.arphysics.engine.BroadphaseType;
+import dev.csaba.arphysics.engine.JBulletSimulation;
+
+/**
+ * Step cost of the settling plank tower with the default GJK and convex-plane algorithms
+ * against the box-box and box-plane ones. The window is long enough for the tower to fall
+ * asleep, which the full manifolds of the box algorithms reach sooner.
+ */
+@BenchmarkMode({Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class BoxCollisionBenchmark {
+
+  // 5 simulated seconds: spawn, settling and rest
+  private static final int WINDOW_STEPS = 600;
+
+  @Param({"false", "true"})
+  public boolean boxAlgorithms;
+
+  @Param({"10", "25"})
+  public int numFloors;
+
+  private JBulletSimulation simulation;
+  private int stepCount;
+
+  @Setup(Level.Iteration)
+  public void buildScene() {
+    simulation = BenchmarkScenes.createSimulation(BroadphaseType.Dbvt, SimulationScenario.PlankTower,
+        numFloors, false);
+    simulation.setBoxCollisionAlgorithms(boxAlgorithms);
+    stepCount = 0;
+  }
+
+  @Setup(Level.Invocation)
+  public void rebuildAfterWindow() {
+    if (stepCount >= WINDOW_STEPS) {
+      buildScene();
+    }
+  }
+
+  @Benchmark
+  public int step() {
+    stepCount++;
+    return simulation.step(BenchmarkScenes.FIXED_TIME_STEP);
+  }
+}
@@ -0,0 +1,73 @@
+package dev.csaba.arphysics.benchmark;
+
+import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.csaba.arphysics.SimulationScenario;
+import dev.csaba.arphysics.engine.BroadphaseType;
+import dev.csaba.arphysics.engine.JBulletSimulation;
+
+/**
+ * Pair finding cost of the broadphases on the collision box with 100, 400 and 625 planks.
+ * Only the bounding box update and the overlap search are measured, the untimed physics
+ * step in between keeps the planks moving.
+ */
+@BenchmarkMode({Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadphaseBenchmark {
+
+  // 3 simulated seconds: impact, collapse and settling
+  private static final int WINDOW_STEPS = 360;
+
+  @Param({"Dbvt", "AxisSweep", "SpatialHash"})
+  public BroadphaseType broadphase;
+
+  @Param({"10", "20", "25"})
+  public int numFloors;
+
+  private JBulletSimulation simulation;
+  private DiscreteDynamicsWorld world;
+  private int stepCount;
+
+  @Setup(Level.Iteration)
+  public void buildScene() {
+    simulation = BenchmarkScenes.createSimulation(broadphase, SimulationScenario.CollisionBox,
+        numFloors, true);
+    world = simulation.getDynamicsWorld();
+    stepCount = 0;
+  }
+
+  @Setup(Level.Invocation)
+  public void stepScene() {
+    if (stepCount >= WINDOW_STEPS) {
+      buildScene();
+    }
+    simulation.step(BenchmarkScenes.FIXED_TIME_STEP);
+    stepCount++;
+  }
+
+  @Benchmark
+  public int findPairs() {
+    world.updateAabbs();
+    world.getBroadphase().calculateOverlappingPairs(world.getDispatcher());
+    return world.getBroadphase().getOverlappingPairCache().getNumOverlappingPairs();
+  }
+}
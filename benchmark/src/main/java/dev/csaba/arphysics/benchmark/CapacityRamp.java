@@ -0,0 +1,98 @@
+package dev.csaba.arphysics.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import dev.csaba.arphysics.SimulationScenario;
+import dev.csaba.arphysics.engine.BroadphaseType;
+import dev.csaba.arphysics.engine.JBulletSimulation;
+import dev.csaba.arphysics.engine.QualityGovernor;
+
+/**
+ * Headless capacity measurement: builds a stress scenario with a growing number of bodies
+ * until the average physics time of a rendered frame exceeds the budget, and prints the
+ * scaling curve, frame step milliseconds against body count. The last row within the
+ * budget is the capacity of the engine on the machine it runs on.
+ * Every scene is hit by the ball and simulated for WINDOW_FRAMES, so the impact, the collapse
+ * and the settling are all measured, not a structure that went to sleep.
+ *
+ * ./gradlew :benchmark:capacity -PcapacityArgs="RandomPile 12 Dbvt"
+ */
+public final class CapacityRamp {
+
+  private static final float FRAME_TIME = 1.0f / 30.0f;
+  // 3 simulated seconds
+  private static final int WINDOW_FRAMES = 90;
+  private static final int START_BODIES = 20;
+  private static final int MAX_BODIES = 100000;
+  private static final float GROWTH = 1.5f;
+
+  private CapacityRamp() {
+  }
+
+  /**
+   * @param args scenario (RandomPile), frame budget in milliseconds (QualityGovernor's default)
+   *             and broadphase (Dbvt), all optional
+   */
+  public static void main(String[] args) {
+    SimulationScenario scenario = args.length > 0 ?
+        SimulationScenario.valueOf(args[0]) : SimulationScenario.RandomPile;
+    float budgetMillis = args.length > 1 ?
+        Float.parseFloat(args[1]) : QualityGovernor.DEFAULT_BUDGET_MILLIS;
+    BroadphaseType broadphase = args.length > 2 ?
+        BroadphaseType.valueOf(args[2]) : BroadphaseType.Dbvt;
+    if (!scenario.isStress()) {
+      throw new IllegalArgumentException(scenario + " is not a stress scenario");
+    }
+
+    System.out.println(String.format(Locale.US, "%s, %s broadphase, %.1f ms budget",
+        scenario, broadphase, budgetMillis));
+    // Untimed, so the first row is not measured with interpreted code
+    measure(scenario, broadphase, START_BODIES);
+
+    System.out.println("bodies  mean ms   p95 ms   max ms");
+    int capacity = 0;
+    for (int bodies = START_BODIES; bodies <= MAX_BODIES; bodies = grow(bodies)) {
+      float[] frameMillis = measure(scenario, broadphase, bodies);
+      float mean = mean(frameMillis);
+      Arrays.sort(frameMillis);
+      System.out.println(String.format(Locale.US, "%6d %8.2f %8.2f %8.2f", bodies, mean,
+          frameMillis[(int) (frameMillis.length * 0.95f)], frameMillis[frameMillis.length - 1]));
+      if (mean > budgetMillis) {
+        break;
+      }
+      capacity = bodies;
+    }
+    System.out.println(capacity > 0 ? "capacity: " + capacity + " bodies" :
+        "capacity: below " + START_BODIES + " bodies");
+  }
+
+  /**
+   * @return physics milliseconds of every frame of the window
+   */
+  static float[] measure(SimulationScenario scenario, BroadphaseType broadphase, int bodies) {
+    JBulletSimulation simulation = BenchmarkScenes.createSimulation(broadphase, scenario, bodies, true);
+    float[] frameMillis = new float[WINDOW_FRAMES];
+    for (int frame = 0; frame < WINDOW_FRAMES; frame++) {
+      long start = System.nanoTime();
+      simulation.step(FRAME_TIME);
+      frameMillis[frame] = (System.nanoTime() - start) / 1e6f;
+    }
+    simulation.clearScene();
+    return frameMillis;
+  }
+
+  private static int grow(int bodies) {
+    // Round numbers read better on the curve
+    int next = Math.round(bodies * GROWTH / 10) * 10;
+    return Math.max(next, bodies + 10);
+  }
+
+  private static float mean(float[] values) {
+    float sum = 0;
+    for (float value : values) {
+      sum += value;
+    }
+    return sum / values.length;
+  }
+}
@@ -0,0 +1,78 @@
+package dev.csaba.arphysics.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.csaba.arphysics.SimulationScenario;
+import dev.csaba.arphysics.engine.PhysicsEngine;
+import dev.csaba.arphysics.engine.PhysicsEngineFactory;
+
+/**
+ * Scaling of the island parallel constraint solve with the number of solver threads.
+ * The plank matrix of the collision box falls apart into many small islands, the tower
+ * stays one big island and shows the overhead of the parallel path.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelSolverBenchmark {
+
+  // 3 simulated seconds: spawn or impact, collapse and settling
+  private static final int WINDOW_STEPS = 360;
+
+  @Param({"CollisionBox", "PlankTower"})
+  public SimulationScenario scenario;
+
+  @Param({"25"})
+  public int numFloors;
+
+  @Param({"1", "2", "4", "8"})
+  public int solverThreads;
+
+  private PhysicsEngine simulation;
+  private int stepCount;
+
+  @Setup(Level.Iteration)
+  public void buildScene() {
+    if (simulation != null) {
+      simulation.clearScene();
+    }
+    simulation = BenchmarkScenes.createSimulation(PhysicsEngineFactory.JBULLET, scenario, numFloors, true);
+    simulation.setSolverThreads(solverThreads);
+    stepCount = 0;
+  }
+
+  @Setup(Level.Invocation)
+  public void rebuildAfterWindow() {
+    if (stepCount >= WINDOW_STEPS) {
+      buildScene();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void stopSolverThreads() {
+    simulation.clearScene();
+  }
+
+  @Benchmark
+  public int step() {
+    stepCount++;
+    return simulation.step(BenchmarkScenes.FIXED_TIME_STEP);
+  }
+}
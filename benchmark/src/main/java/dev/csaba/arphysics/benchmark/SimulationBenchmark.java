@@ -0,0 +1,73 @@
+package dev.csaba.arphysics.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.csaba.arphysics.SimulationScenario;
+import dev.csaba.arphysics.engine.PhysicsEngine;
+import dev.csaba.arphysics.engine.PhysicsEngineFactory;
+
+/**
+ * Cost of a single fixed physics step. Throughput gives steps per second, SampleTime the
+ * per-step latency percentiles, run with -prof gc (the default of the jmh task) for allocation rates.
+ * A scene is only simulated for WINDOW_STEPS, then rebuilt, so the measurement covers the
+ * interesting first seconds instead of a tower that fell asleep long ago.
+ * Every engine of PhysicsEngineFactory runs the identical scenes, pick them with -p engine=...
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class SimulationBenchmark {
+
+  // 3 simulated seconds: spawn or impact, collapse and settling
+  private static final int WINDOW_STEPS = 360;
+
+  @Param({PhysicsEngineFactory.JBULLET})
+  public String engine;
+
+  @Param({"PlankTower", "CollisionBox"})
+  public SimulationScenario scenario;
+
+  @Param({"1", "5", "10", "15", "20", "25"})
+  public int numFloors;
+
+  @Param({"false", "true"})
+  public boolean ballImpact;
+
+  private PhysicsEngine simulation;
+  private int stepCount;
+
+  @Setup(Level.Iteration)
+  public void buildScene() {
+    simulation = BenchmarkScenes.createSimulation(engine, scenario, numFloors, ballImpact);
+    stepCount = 0;
+  }
+
+  @Setup(Level.Invocation)
+  public void rebuildAfterWindow() {
+    if (stepCount >= WINDOW_STEPS) {
+      buildScene();
+    }
+  }
+
+  @Benchmark
+  public int step() {
+    stepCount++;
+    return simulation.step(BenchmarkScenes.FIXED_TIME_STEP);
+  }
+}
@@ -0,0 +1,15 @@
+package dev.csaba.arphysics;
+
+public enum SimulationScenario {
+    PlankTower,
+    CollisionBox,
+    // Stress scenarios, the number of floors is their number of bodies
+    BrickWall,
+    DominoChain,
+    PlankPyramid,
+    RandomPile;
+
+    public boolean isStress() {
+        return ordinal() >= BrickWall.ordinal();
+    }
+}
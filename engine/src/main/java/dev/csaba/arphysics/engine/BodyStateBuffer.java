@@ -0,0 +1,71 @@
+package dev.csaba.arphysics.engine;
+
+/**
+ * State of every body after the latest simulation step in structure of arrays layout,
+ * indexed by pose slot: positions (x, y, z), rotation quaternions (x, y, z, w), linear
+ * and angular velocities (x, y, z). Consumers can read a property of all the bodies in
+ * one contiguous pass. A slot with an all zero quaternion has no body (yet).
+ */
+public class BodyStateBuffer {
+
+  private final int bodyCount;
+  private final float[] positions;
+  private final float[] rotations;
+  private final float[] linearVelocities;
+  private final float[] angularVelocities;
+  private long stepCount;
+
+  public BodyStateBuffer(int bodyCount) {
+    this.bodyCount = bodyCount;
+    positions = new float[bodyCount * 3];
+    rotations = new float[bodyCount * 4];
+    linearVelocities = new float[bodyCount * 3];
+    angularVelocities = new float[bodyCount * 3];
+  }
+
+  public int getBodyCount() {
+    return bodyCount;
+  }
+
+  public float[] getPositions() {
+    return positions;
+  }
+
+  public float[] getRotations() {
+    return rotations;
+  }
+
+  public float[] getLinearVelocities() {
+    return linearVelocities;
+  }
+
+  public float[] getAngularVelocities() {
+    return angularVelocities;
+  }
+
+  /**
+   * @return number of steps the buffer was refreshed after
+   */
+  public long getStepCount() {
+    return stepCount;
+  }
+
+  void markStep() {
+    stepCount++;
+  }
+
+  public boolean isWritten(int slot) {
+    int offset = slot * 4;
+    return rotations[offset] != 0 || rotations[offset + 1] != 0 ||
+        rotations[offset + 2] != 0 || rotations[offset + 3] != 0;
+  }
+
+  /**
+   * Marks the slot empty, for bodies removed from the world.
+   */
+  public void clear(int slot) {
+    for (int i = slot * 4; i < slot * 4 + 4; i++) {
+      rotations[i] = 0;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.broadphase.CollisionAlgorithm;
+import com.bulletphysics.collision.broadphase.CollisionAlgorithmConstructionInfo;
+import com.bulletphysics.collision.broadphase.DispatcherInfo;
+import com.bulletphysics.collision.dispatch.CollisionAlgorithmCreateFunc;
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.dispatch.ManifoldResult;
+import com.bulletphysics.collision.narrowphase.PersistentManifold;
+import com.bulletphysics.collision.shapes.BoxShape;
+import com.bulletphysics.linearmath.Transform;
+import com.bulletphysics.util.ObjectArrayList;
+import com.bulletphysics.util.ObjectPool;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * Contacts of two boxes by the separating axis test of BoxBoxDetector. Stacked planks get
+ * their full four point manifold in a single step, instead of the one point per step of GJK
+ * and EPA, and without their iterations.
+ */
+public class BoxBoxCollisionAlgorithm extends CollisionAlgorithm {
+
+  private final BoxBoxDetector detector = new BoxBoxDetector();
+  private final Transform transform0 = new Transform();
+  private final Transform transform1 = new Transform();
+  private final Vector3f halfExtents0 = new Vector3f();
+  private final Vector3f halfExtents1 = new Vector3f();
+
+  private boolean ownManifold;
+  private PersistentManifold manifold;
+
+  public void init(PersistentManifold manifold, CollisionAlgorithmConstructionInfo ci,
+                   CollisionObject body0, CollisionObject body1) {
+    super.init(ci);
+    this.manifold = manifold;
+    ownManifold = false;
+    if (this.manifold == null && dispatcher.needsCollision(body0, body1)) {
+      this.manifold = dispatcher.getNewManifold(body0, body1);
+      ownManifold = true;
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (ownManifold) {
+      if (manifold != null) {
+        dispatcher.releaseManifold(manifold);
+      }
+      manifold = null;
+    }
+  }
+
+  @Override
+  public void processCollision(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo,
+                               ManifoldResult resultOut) {
+    if (manifold == null) {
+      return;
+    }
+    ((BoxShape) body0.getCollisionShape()).getHalfExtentsWithMargin(halfExtents0);
+    ((BoxShape) body1.getCollisionShape()).getHalfExtentsWithMargin(halfExtents1);
+    body0.getWorldTransform(transform0);
+    body1.getWorldTransform(transform1);
+    resultOut.setPersistentManifold(manifold);
+    detector.detect(transform0, halfExtents0, transform1, halfExtents1, resultOut);
+    if (ownManifold && manifold.getNumContacts() != 0) {
+      resultOut.refreshContactPoints();
+    }
+  }
+
+  @Override
+  public float calculateTimeOfImpact(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo,
+                                     ManifoldResult resultOut) {
+    return 1.0f;
+  }
+
+  @Override
+  public void getAllContactManifolds(ObjectArrayList<PersistentManifold> manifoldArray) {
+    if (manifold != null && ownManifold) {
+      manifoldArray.add(manifold);
+    }
+  }
+
+  public static class CreateFunc extends CollisionAlgorithmCreateFunc {
+    private final ObjectPool<BoxBoxCollisionAlgorithm> pool = ObjectPool.get(BoxBoxCollisionAlgorithm.class);
+
+    @Override
+    public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci,
+                                                       CollisionObject body0, CollisionObject body1) {
+      BoxBoxCollisionAlgorithm algorithm = pool.get();
+      algorithm.init(null, ci, body0, body1);
+      return algorithm;
+    }
+
+    @Override
+    public void releaseCollisionAlgorithm(CollisionAlgorithm algorithm) {
+      pool.release((BoxBoxCollisionAlgorithm) algorithm);
+    }
+  }
+}
@@ -0,0 +1,563 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.narrowphase.DiscreteCollisionDetectorInterface;
+import com.bulletphysics.linearmath.Transform;
+
+import javax.vecmath.Matrix3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * Separating axis test of two oriented boxes, the dBoxBox2 routine of ODE that Bullet ships as
+ * btBoxBoxDetector. Of the 15 candidate axes the one with the least penetration is taken.
+ * For a face axis the incident face of the other box is clipped against the reference face,
+ * which yields up to four contacts at once, an edge axis gives a single contact.
+ * Reports penetrating contacts only, touching boxes are kept by the persistent manifold.
+ * Holds scratch state, an instance is not to be shared between threads.
+ */
+final class BoxBoxDetector {
+
+  private static final float FUDGE_FACTOR = 1.05f;
+  private static final float FUDGE2 = 1.0e-5f;
+  private static final float EPSILON = 1.1920929E-7f;
+  private static final int MAX_CONTACTS = 4;
+
+  // Rotations row major, column j is the direction of box axis j
+  private final float[] r1 = new float[9];
+  private final float[] r2 = new float[9];
+  private final float[] p1 = new float[3];
+  private final float[] p2 = new float[3];
+  private final float[] pp = new float[3];
+  private final float[] sides1 = new float[3];
+  private final float[] sides2 = new float[3];
+  private final float[] normal = new float[3];
+  private final float[] normalC = new float[3];
+  private final float[] normal2 = new float[3];
+  private final float[] nr = new float[3];
+  private final float[] center = new float[3];
+  private final float[] pa = new float[3];
+  private final float[] pb = new float[3];
+  private final float[] quad = new float[8];
+  private final float[] rect = new float[2];
+  private final float[] ret = new float[16];
+  private final float[] buffer = new float[16];
+  private final float[] points = new float[3 * 8];
+  private final float[] depths = new float[8];
+  private final float[] angles = new float[8];
+  private final boolean[] available = new boolean[8];
+  private final int[] culled = new int[8];
+  private final Vector3f normalOnB = new Vector3f();
+  private final Vector3f pointOnB = new Vector3f();
+
+  // Best axis so far
+  private float s;
+  private float[] normalMatrix;
+  private int normalColumn;
+  private boolean invertNormal;
+  private int code;
+
+  /**
+   * Adds the contacts of the boxes to the output, with the normal pointing from box B to box A.
+   * @return number of contacts added
+   */
+  int detect(Transform transformA, Vector3f halfExtentsA, Transform transformB, Vector3f halfExtentsB,
+             DiscreteCollisionDetectorInterface.Result output) {
+    load(transformA.basis, r1);
+    load(transformB.basis, r2);
+    p1[0] = transformA.origin.x;
+    p1[1] = transformA.origin.y;
+    p1[2] = transformA.origin.z;
+    p2[0] = transformB.origin.x;
+    p2[1] = transformB.origin.y;
+    p2[2] = transformB.origin.z;
+    sides1[0] = halfExtentsA.x;
+    sides1[1] = halfExtentsA.y;
+    sides1[2] = halfExtentsA.z;
+    sides2[0] = halfExtentsB.x;
+    sides2[1] = halfExtentsB.y;
+    sides2[2] = halfExtentsB.z;
+
+    // Vector from the center of box 1 to box 2, relative to box 1
+    float px = p2[0] - p1[0];
+    float py = p2[1] - p1[1];
+    float pz = p2[2] - p1[2];
+    for (int i = 0; i < 3; i++) {
+      pp[i] = r1[i] * px + r1[3 + i] * py + r1[6 + i] * pz;
+    }
+
+    // Relative rotation of the boxes
+    float r11 = columnDot(r1, 0, r2, 0);
+    float r12 = columnDot(r1, 0, r2, 1);
+    float r13 = columnDot(r1, 0, r2, 2);
+    float r21 = columnDot(r1, 1, r2, 0);
+    float r22 = columnDot(r1, 1, r2, 1);
+    float r23 = columnDot(r1, 1, r2, 2);
+    float r31 = columnDot(r1, 2, r2, 0);
+    float r32 = columnDot(r1, 2, r2, 1);
+    float r33 = columnDot(r1, 2, r2, 2);
+    float q11 = Math.abs(r11);
+    float q12 = Math.abs(r12);
+    float q13 = Math.abs(r13);
+    float q21 = Math.abs(r21);
+    float q22 = Math.abs(r22);
+    float q23 = Math.abs(r23);
+    float q31 = Math.abs(r31);
+    float q32 = Math.abs(r32);
+    float q33 = Math.abs(r33);
+    float[] a = sides1;
+    float[] b = sides2;
+
+    s = -Float.MAX_VALUE;
+    normalMatrix = null;
+    invertNormal = false;
+    code = 0;
+
+    // Face axes of box 1 and box 2
+    if (!testFaceAxis(pp[0], a[0] + b[0] * q11 + b[1] * q12 + b[2] * q13, r1, 0, 1) ||
+        !testFaceAxis(pp[1], a[1] + b[0] * q21 + b[1] * q22 + b[2] * q23, r1, 1, 2) ||
+        !testFaceAxis(pp[2], a[2] + b[0] * q31 + b[1] * q32 + b[2] * q33, r1, 2, 3) ||
+        !testFaceAxis(columnDot(r2, 0, px, py, pz), a[0] * q11 + a[1] * q21 + a[2] * q31 + b[0], r2, 0, 4) ||
+        !testFaceAxis(columnDot(r2, 1, px, py, pz), a[0] * q12 + a[1] * q22 + a[2] * q32 + b[1], r2, 1, 5) ||
+        !testFaceAxis(columnDot(r2, 2, px, py, pz), a[0] * q13 + a[1] * q23 + a[2] * q33 + b[2], r2, 2, 6)) {
+      return 0;
+    }
+
+    // Keeps nearly parallel edges from producing degenerate axes
+    q11 += FUDGE2;
+    q12 += FUDGE2;
+    q13 += FUDGE2;
+    q21 += FUDGE2;
+    q22 += FUDGE2;
+    q23 += FUDGE2;
+    q31 += FUDGE2;
+    q32 += FUDGE2;
+    q33 += FUDGE2;
+
+    // Cross products of the edge directions, relative to box 1
+    if (!testEdgeAxis(pp[2] * r21 - pp[1] * r31, a[1] * q31 + a[2] * q21 + b[1] * q13 + b[2] * q12, 0, -r31, r21, 7) ||
+        !testEdgeAxis(pp[2] * r22 - pp[1] * r32, a[1] * q32 + a[2] * q22 + b[0] * q13 + b[2] * q11, 0, -r32, r22, 8) ||
+        !testEdgeAxis(pp[2] * r23 - pp[1] * r33, a[1] * q33 + a[2] * q23 + b[0] * q12 + b[1] * q11, 0, -r33, r23, 9) ||
+        !testEdgeAxis(pp[0] * r31 - pp[2] * r11, a[0] * q31 + a[2] * q11 + b[1] * q23 + b[2] * q22, r31, 0, -r11, 10) ||
+        !testEdgeAxis(pp[0] * r32 - pp[2] * r12, a[0] * q32 + a[2] * q12 + b[0] * q23 + b[2] * q21, r32, 0, -r12, 11) ||
+        !testEdgeAxis(pp[0] * r33 - pp[2] * r13, a[0] * q33 + a[2] * q13 + b[0] * q22 + b[1] * q21, r33, 0, -r13, 12) ||
+        !testEdgeAxis(pp[1] * r11 - pp[0] * r21, a[0] * q21 + a[1] * q11 + b[1] * q33 + b[2] * q32, -r21, r11, 0, 13) ||
+        !testEdgeAxis(pp[1] * r12 - pp[0] * r22, a[0] * q22 + a[1] * q12 + b[0] * q33 + b[2] * q31, -r22, r12, 0, 14) ||
+        !testEdgeAxis(pp[1] * r13 - pp[0] * r23, a[0] * q23 + a[1] * q13 + b[0] * q32 + b[1] * q31, -r23, r13, 0, 15)) {
+      return 0;
+    }
+    if (code == 0) {
+      return 0;
+    }
+
+    // The boxes interpenetrate, the normal in world coordinates points from box 1 to box 2
+    if (normalMatrix != null) {
+      for (int i = 0; i < 3; i++) {
+        normal[i] = normalMatrix[i * 3 + normalColumn];
+      }
+    } else {
+      for (int i = 0; i < 3; i++) {
+        normal[i] = r1[i * 3] * normalC[0] + r1[i * 3 + 1] * normalC[1] + r1[i * 3 + 2] * normalC[2];
+      }
+    }
+    if (invertNormal) {
+      for (int i = 0; i < 3; i++) {
+        normal[i] = -normal[i];
+      }
+    }
+    float depth = -s;
+    normalOnB.set(-normal[0], -normal[1], -normal[2]);
+
+    if (code > 6) {
+      return addEdgeContact(depth, output);
+    }
+    return addFaceContacts(output);
+  }
+
+  // An edge of box 1 touches an edge of box 2
+  private int addEdgeContact(float depth, DiscreteCollisionDetectorInterface.Result output) {
+    for (int i = 0; i < 3; i++) {
+      pa[i] = p1[i];
+      pb[i] = p2[i];
+    }
+    for (int j = 0; j < 3; j++) {
+      float sign = columnDot(r1, j, normal[0], normal[1], normal[2]) > 0 ? 1.0f : -1.0f;
+      for (int i = 0; i < 3; i++) {
+        pa[i] += sign * sides1[j] * r1[i * 3 + j];
+      }
+    }
+    for (int j = 0; j < 3; j++) {
+      float sign = columnDot(r2, j, normal[0], normal[1], normal[2]) > 0 ? -1.0f : 1.0f;
+      for (int i = 0; i < 3; i++) {
+        pb[i] += sign * sides2[j] * r2[i * 3 + j];
+      }
+    }
+
+    // Closest points of the two edge lines
+    int columnA = (code - 7) / 3;
+    int columnB = (code - 7) % 3;
+    float ua0 = r1[columnA];
+    float ua1 = r1[3 + columnA];
+    float ua2 = r1[6 + columnA];
+    float ub0 = r2[columnB];
+    float ub1 = r2[3 + columnB];
+    float ub2 = r2[6 + columnB];
+    float d0 = pb[0] - pa[0];
+    float d1 = pb[1] - pa[1];
+    float d2 = pb[2] - pa[2];
+    float uaub = ua0 * ub0 + ua1 * ub1 + ua2 * ub2;
+    float q1 = ua0 * d0 + ua1 * d1 + ua2 * d2;
+    float q2 = -(ub0 * d0 + ub1 * d1 + ub2 * d2);
+    float d = 1 - uaub * uaub;
+    float beta = 0;
+    if (d > 0.0001f) {
+      beta = (uaub * q1 + q2) / d;
+    }
+    pointOnB.set(pb[0] + ub0 * beta, pb[1] + ub1 * beta, pb[2] + ub2 * beta);
+    output.addContactPoint(normalOnB, pointOnB, -depth);
+    return 1;
+  }
+
+  // A face of one box is the reference, the closest face of the other box is clipped against it
+  private int addFaceContacts(DiscreteCollisionDetectorInterface.Result output) {
+    float[] ra;
+    float[] rb;
+    float[] posA;
+    float[] posB;
+    float[] sa;
+    float[] sb;
+    if (code <= 3) {
+      ra = r1;
+      rb = r2;
+      posA = p1;
+      posB = p2;
+      sa = sides1;
+      sb = sides2;
+      normal2[0] = normal[0];
+      normal2[1] = normal[1];
+      normal2[2] = normal[2];
+    } else {
+      ra = r2;
+      rb = r1;
+      posA = p2;
+      posB = p1;
+      sa = sides2;
+      sb = sides1;
+      normal2[0] = -normal[0];
+      normal2[1] = -normal[1];
+      normal2[2] = -normal[2];
+    }
+
+    // The incident face is the one whose normal is the most aligned with the reference normal
+    for (int i = 0; i < 3; i++) {
+      nr[i] = columnDot(rb, i, normal2[0], normal2[1], normal2[2]);
+    }
+    float anr0 = Math.abs(nr[0]);
+    float anr1 = Math.abs(nr[1]);
+    float anr2 = Math.abs(nr[2]);
+    int lanr;
+    int a1;
+    int a2;
+    if (anr1 > anr0) {
+      if (anr1 > anr2) {
+        a1 = 0;
+        lanr = 1;
+        a2 = 2;
+      } else {
+        a1 = 0;
+        a2 = 1;
+        lanr = 2;
+      }
+    } else {
+      if (anr0 > anr2) {
+        lanr = 0;
+        a1 = 1;
+        a2 = 2;
+      } else {
+        a1 = 0;
+        a2 = 1;
+        lanr = 2;
+      }
+    }
+
+    // Center of the incident face, relative to the reference box
+    for (int i = 0; i < 3; i++) {
+      if (nr[lanr] < 0) {
+        center[i] = posB[i] - posA[i] + sb[lanr] * rb[i * 3 + lanr];
+      } else {
+        center[i] = posB[i] - posA[i] - sb[lanr] * rb[i * 3 + lanr];
+      }
+    }
+
+    int codeN = code <= 3 ? code - 1 : code - 4;
+    int code1;
+    int code2;
+    if (codeN == 0) {
+      code1 = 1;
+      code2 = 2;
+    } else if (codeN == 1) {
+      code1 = 0;
+      code2 = 2;
+    } else {
+      code1 = 0;
+      code2 = 1;
+    }
+
+    // Corners of the incident face in the coordinates of the reference face
+    float c1 = columnDot(ra, code1, center[0], center[1], center[2]);
+    float c2 = columnDot(ra, code2, center[0], center[1], center[2]);
+    float m11 = columnDot(ra, code1, rb, a1);
+    float m12 = columnDot(ra, code1, rb, a2);
+    float m21 = columnDot(ra, code2, rb, a1);
+    float m22 = columnDot(ra, code2, rb, a2);
+    float k1 = m11 * sb[a1];
+    float k2 = m21 * sb[a1];
+    float k3 = m12 * sb[a2];
+    float k4 = m22 * sb[a2];
+    quad[0] = c1 - k1 - k3;
+    quad[1] = c2 - k2 - k4;
+    quad[2] = c1 - k1 + k3;
+    quad[3] = c2 - k2 + k4;
+    quad[4] = c1 + k1 + k3;
+    quad[5] = c2 + k2 + k4;
+    quad[6] = c1 + k1 - k3;
+    quad[7] = c2 + k2 - k4;
+
+    rect[0] = sa[code1];
+    rect[1] = sa[code2];
+    int n = intersectRectQuad(rect, quad, ret);
+    if (n < 1) {
+      return 0;
+    }
+
+    // Back to 3D, keeping the penetrating points only
+    float det = 1.0f / (m11 * m22 - m12 * m21);
+    m11 *= det;
+    m12 *= det;
+    m21 *= det;
+    m22 *= det;
+    int count = 0;
+    for (int j = 0; j < n; j++) {
+      float u = m22 * (ret[j * 2] - c1) - m12 * (ret[j * 2 + 1] - c2);
+      float v = -m21 * (ret[j * 2] - c1) + m11 * (ret[j * 2 + 1] - c2);
+      for (int i = 0; i < 3; i++) {
+        points[count * 3 + i] = center[i] + u * rb[i * 3 + a1] + v * rb[i * 3 + a2];
+      }
+      depths[count] = sa[codeN] - (normal2[0] * points[count * 3] + normal2[1] * points[count * 3 + 1] +
+          normal2[2] * points[count * 3 + 2]);
+      if (depths[count] >= 0) {
+        ret[count * 2] = ret[j * 2];
+        ret[count * 2 + 1] = ret[j * 2 + 1];
+        count++;
+      }
+    }
+    if (count < 1) {
+      return 0;
+    }
+
+    if (count <= MAX_CONTACTS) {
+      for (int j = 0; j < count; j++) {
+        addFaceContact(j, posA, output);
+      }
+      return count;
+    }
+    // Too many points, the deepest one and those spread the most evenly around it are kept
+    int deepest = 0;
+    for (int i = 1; i < count; i++) {
+      if (depths[i] > depths[deepest]) {
+        deepest = i;
+      }
+    }
+    cullPoints(count, ret, MAX_CONTACTS, deepest, culled);
+    for (int j = 0; j < MAX_CONTACTS; j++) {
+      addFaceContact(culled[j], posA, output);
+    }
+    return MAX_CONTACTS;
+  }
+
+  private void addFaceContact(int index, float[] posA, DiscreteCollisionDetectorInterface.Result output) {
+    float depth = depths[index];
+    float x = points[index * 3] + posA[0];
+    float y = points[index * 3 + 1] + posA[1];
+    float z = points[index * 3 + 2] + posA[2];
+    if (code >= 4) {
+      // The points are on box 1, moved onto the face of box 2
+      x -= normal[0] * depth;
+      y -= normal[1] * depth;
+      z -= normal[2] * depth;
+    }
+    pointOnB.set(x, y, z);
+    output.addContactPoint(normalOnB, pointOnB, -depth);
+  }
+
+  private boolean testFaceAxis(float expr1, float expr2, float[] matrix, int column, int axisCode) {
+    float s2 = Math.abs(expr1) - expr2;
+    if (s2 > 0) {
+      return false;
+    }
+    if (s2 > s) {
+      s = s2;
+      normalMatrix = matrix;
+      normalColumn = column;
+      invertNormal = expr1 < 0;
+      code = axisCode;
+    }
+    return true;
+  }
+
+  // Edge axes are not normalized, the depth is scaled and they have to beat the faces by a margin
+  private boolean testEdgeAxis(float expr1, float expr2, float n1, float n2, float n3, int axisCode) {
+    float s2 = Math.abs(expr1) - expr2;
+    if (s2 > EPSILON) {
+      return false;
+    }
+    float l = (float) Math.sqrt(n1 * n1 + n2 * n2 + n3 * n3);
+    if (l > EPSILON) {
+      s2 /= l;
+      if (s2 * FUDGE_FACTOR > s) {
+        s = s2;
+        normalMatrix = null;
+        normalC[0] = n1 / l;
+        normalC[1] = n2 / l;
+        normalC[2] = n3 / l;
+        invertNormal = expr1 < 0;
+        code = axisCode;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Clips the quadrilateral q against the rectangle of half sizes h centered at the origin.
+   * @return number of points of the resulting polygon written to result, at most 8
+   */
+  private int intersectRectQuad(float[] h, float[] p, float[] result) {
+    int nq = 4;
+    int nr = 0;
+    float[] q = p;
+    float[] r = result;
+    chopping:
+    for (int dir = 0; dir <= 1; dir++) {
+      for (int sign = -1; sign <= 1; sign += 2) {
+        // Chop q along the line xy[dir] = sign * h[dir]
+        int pq = 0;
+        int pr = 0;
+        nr = 0;
+        for (int i = nq; i > 0; i--) {
+          if (sign * q[pq + dir] < h[dir]) {
+            // The point is inside the chopping line
+            r[pr] = q[pq];
+            r[pr + 1] = q[pq + 1];
+            pr += 2;
+            nr++;
+            if ((nr & 8) != 0) {
+              q = r;
+              break chopping;
+            }
+          }
+          int nextq = i > 1 ? pq + 2 : 0;
+          if ((sign * q[pq + dir] < h[dir]) ^ (sign * q[nextq + dir] < h[dir])) {
+            // The edge crosses the chopping line
+            r[pr + 1 - dir] = q[pq + 1 - dir] + (q[nextq + 1 - dir] - q[pq + 1 - dir]) /
+                (q[nextq + dir] - q[pq + dir]) * (sign * h[dir] - q[pq + dir]);
+            r[pr + dir] = sign * h[dir];
+            pr += 2;
+            nr++;
+            if ((nr & 8) != 0) {
+              q = r;
+              break chopping;
+            }
+          }
+          pq += 2;
+        }
+        q = r;
+        r = q == result ? buffer : result;
+        nq = nr;
+      }
+    }
+    if (q != result) {
+      System.arraycopy(q, 0, result, 0, nr * 2);
+    }
+    return nr;
+  }
+
+  /**
+   * Picks m of the n polygon points p: point i0 and the ones closest to being evenly spread
+   * around the centroid from there.
+   */
+  private void cullPoints(int n, float[] p, int m, int i0, int[] result) {
+    float cx;
+    float cy;
+    if (n == 1) {
+      cx = p[0];
+      cy = p[1];
+    } else if (n == 2) {
+      cx = 0.5f * (p[0] + p[2]);
+      cy = 0.5f * (p[1] + p[3]);
+    } else {
+      float area = 0;
+      cx = 0;
+      cy = 0;
+      for (int i = 0; i < n - 1; i++) {
+        float q = p[i * 2] * p[i * 2 + 3] - p[i * 2 + 2] * p[i * 2 + 1];
+        area += q;
+        cx += q * (p[i * 2] + p[i * 2 + 2]);
+        cy += q * (p[i * 2 + 1] + p[i * 2 + 3]);
+      }
+      float q = p[n * 2 - 2] * p[1] - p[0] * p[n * 2 - 1];
+      if (Math.abs(area + q) > EPSILON) {
+        area = 1.0f / (3.0f * (area + q));
+      } else {
+        area = 1e30f;
+      }
+      cx = area * (cx + q * (p[n * 2 - 2] + p[0]));
+      cy = area * (cy + q * (p[n * 2 - 1] + p[1]));
+    }
+
+    for (int i = 0; i < n; i++) {
+      angles[i] = (float) Math.atan2(p[i * 2 + 1] - cy, p[i * 2] - cx);
+      available[i] = true;
+    }
+    available[i0] = false;
+    result[0] = i0;
+    for (int j = 1; j < m; j++) {
+      float angle = (float) (j * (2 * Math.PI / m) + angles[i0]);
+      if (angle > Math.PI) {
+        angle -= (float) (2 * Math.PI);
+      }
+      float maxDiff = 1e9f;
+      result[j] = i0;
+      for (int i = 0; i < n; i++) {
+        if (available[i]) {
+          float diff = Math.abs(angles[i] - angle);
+          if (diff > Math.PI) {
+            diff = (float) (2 * Math.PI) - diff;
+          }
+          if (diff < maxDiff) {
+            maxDiff = diff;
+            result[j] = i;
+          }
+        }
+      }
+      available[result[j]] = false;
+    }
+  }
+
+  private static void load(Matrix3f basis, float[] r) {
+    r[0] = basis.m00;
+    r[1] = basis.m01;
+    r[2] = basis.m02;
+    r[3] = basis.m10;
+    r[4] = basis.m11;
+    r[5] = basis.m12;
+    r[6] = basis.m20;
+    r[7] = basis.m21;
+    r[8] = basis.m22;
+  }
+
+  private static float columnDot(float[] ra, int columnA, float[] rb, int columnB) {
+    return ra[columnA] * rb[columnB] + ra[3 + columnA] * rb[3 + columnB] + ra[6 + columnA] * rb[6 + columnB];
+  }
+
+  private static float columnDot(float[] r, int column, float x, float y, float z) {
+    return r[column] * x + r[3 + column] * y + r[6 + column] * z;
+  }
+}
@@ -0,0 +1,150 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.broadphase.CollisionAlgorithm;
+import com.bulletphysics.collision.broadphase.CollisionAlgorithmConstructionInfo;
+import com.bulletphysics.collision.broadphase.DispatcherInfo;
+import com.bulletphysics.collision.dispatch.CollisionAlgorithmCreateFunc;
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.dispatch.ManifoldResult;
+import com.bulletphysics.collision.narrowphase.PersistentManifold;
+import com.bulletphysics.collision.shapes.BoxShape;
+import com.bulletphysics.collision.shapes.StaticPlaneShape;
+import com.bulletphysics.linearmath.Transform;
+import com.bulletphysics.util.ObjectArrayList;
+import com.bulletphysics.util.ObjectPool;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * Contacts of a box and a static plane from the box corners below the plane.
+ * The convex-plane algorithm of jBullet adds only the single deepest vertex per step,
+ * so a plank lying on the ground needs four steps to build its manifold and rocks meanwhile.
+ * Here the up to four deepest corners are added at once.
+ */
+public class BoxPlaneCollisionAlgorithm extends CollisionAlgorithm {
+
+  private static final int MAX_CONTACTS = 4;
+
+  private final Transform boxTransform = new Transform();
+  private final Transform planeTransform = new Transform();
+  private final Vector3f halfExtents = new Vector3f();
+  private final Vector3f planeNormal = new Vector3f();
+  private final Vector3f corner = new Vector3f();
+  private final Vector3f pointOnPlane = new Vector3f();
+  // The deepest corners so far, ordered by distance
+  private final float[] distances = new float[MAX_CONTACTS];
+  private final float[] corners = new float[MAX_CONTACTS * 3];
+
+  private boolean ownManifold;
+  private PersistentManifold manifold;
+  private boolean swapped;
+
+  public void init(PersistentManifold manifold, CollisionAlgorithmConstructionInfo ci,
+                   CollisionObject body0, CollisionObject body1, boolean swapped) {
+    super.init(ci);
+    this.manifold = manifold;
+    this.swapped = swapped;
+    ownManifold = false;
+    CollisionObject boxObject = swapped ? body1 : body0;
+    CollisionObject planeObject = swapped ? body0 : body1;
+    if (this.manifold == null && dispatcher.needsCollision(boxObject, planeObject)) {
+      this.manifold = dispatcher.getNewManifold(boxObject, planeObject);
+      ownManifold = true;
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (ownManifold) {
+      if (manifold != null) {
+        dispatcher.releaseManifold(manifold);
+      }
+      manifold = null;
+    }
+  }
+
+  @Override
+  public void processCollision(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo,
+                               ManifoldResult resultOut) {
+    if (manifold == null) {
+      return;
+    }
+    CollisionObject boxObject = swapped ? body1 : body0;
+    CollisionObject planeObject = swapped ? body0 : body1;
+    BoxShape boxShape = (BoxShape) boxObject.getCollisionShape();
+    StaticPlaneShape planeShape = (StaticPlaneShape) planeObject.getCollisionShape();
+
+    // The plane in world coordinates: normal . x = constant
+    planeObject.getWorldTransform(planeTransform);
+    planeShape.getPlaneNormal(planeNormal);
+    planeTransform.basis.transform(planeNormal);
+    float planeConstant = planeShape.getPlaneConstant() + planeNormal.dot(planeTransform.origin);
+
+    boxObject.getWorldTransform(boxTransform);
+    boxShape.getHalfExtentsWithMargin(halfExtents);
+    float threshold = manifold.getContactBreakingThreshold();
+    int count = 0;
+    for (int i = 0; i < 8; i++) {
+      corner.set((i & 1) != 0 ? halfExtents.x : -halfExtents.x,
+          (i & 2) != 0 ? halfExtents.y : -halfExtents.y,
+          (i & 4) != 0 ? halfExtents.z : -halfExtents.z);
+      boxTransform.transform(corner);
+      float distance = planeNormal.dot(corner) - planeConstant;
+      if (distance >= threshold || count == MAX_CONTACTS && distance >= distances[MAX_CONTACTS - 1]) {
+        continue;
+      }
+      int slot = Math.min(count, MAX_CONTACTS - 1);
+      while (slot > 0 && distances[slot - 1] > distance) {
+        distances[slot] = distances[slot - 1];
+        System.arraycopy(corners, (slot - 1) * 3, corners, slot * 3, 3);
+        slot--;
+      }
+      distances[slot] = distance;
+      corners[slot * 3] = corner.x;
+      corners[slot * 3 + 1] = corner.y;
+      corners[slot * 3 + 2] = corner.z;
+      count = Math.min(count + 1, MAX_CONTACTS);
+    }
+
+    resultOut.setPersistentManifold(manifold);
+    for (int i = 0; i < count; i++) {
+      // Projected onto the plane, the contact point is on the plane's surface
+      pointOnPlane.set(corners[i * 3], corners[i * 3 + 1], corners[i * 3 + 2]);
+      pointOnPlane.scaleAdd(-distances[i], planeNormal, pointOnPlane);
+      resultOut.addContactPoint(planeNormal, pointOnPlane, distances[i]);
+    }
+    if (ownManifold && manifold.getNumContacts() != 0) {
+      resultOut.refreshContactPoints();
+    }
+  }
+
+  @Override
+  public float calculateTimeOfImpact(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo,
+                                     ManifoldResult resultOut) {
+    return 1.0f;
+  }
+
+  @Override
+  public void getAllContactManifolds(ObjectArrayList<PersistentManifold> manifoldArray) {
+    if (manifold != null && ownManifold) {
+      manifoldArray.add(manifold);
+    }
+  }
+
+  public static class CreateFunc extends CollisionAlgorithmCreateFunc {
+    private final ObjectPool<BoxPlaneCollisionAlgorithm> pool = ObjectPool.get(BoxPlaneCollisionAlgorithm.class);
+
+    @Override
+    public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci,
+                                                       CollisionObject body0, CollisionObject body1) {
+      BoxPlaneCollisionAlgorithm algorithm = pool.get();
+      algorithm.init(null, ci, body0, body1, swapped);
+      return algorithm;
+    }
+
+    @Override
+    public void releaseCollisionAlgorithm(CollisionAlgorithm algorithm) {
+      pool.release((BoxPlaneCollisionAlgorithm) algorithm);
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package dev.csaba.arphysics.engine;
+
+/**
+ * Broadphase of the jBullet dynamics world, finding the body pairs worth a narrowphase test.
+ */
+public enum BroadphaseType {
+  // Dynamic bounding volume tree, no bounds needed
+  Dbvt,
+  // Sweep and prune within the world bounds of the scenario
+  AxisSweep,
+  // Uniform grid sized to the planks, see SpatialHashBroadphase
+  SpatialHash
+}
@@ -0,0 +1,151 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.broadphase.BroadphaseInterface;
+import com.bulletphysics.collision.broadphase.BroadphasePair;
+import com.bulletphysics.collision.broadphase.BroadphaseProxy;
+import com.bulletphysics.collision.broadphase.Dispatcher;
+import com.bulletphysics.collision.dispatch.CollisionConfiguration;
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.dispatch.CollisionWorld;
+import com.bulletphysics.collision.narrowphase.PersistentManifold;
+import com.bulletphysics.collision.shapes.SphereShape;
+import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
+import com.bulletphysics.dynamics.RigidBody;
+import com.bulletphysics.dynamics.constraintsolver.ConstraintSolver;
+import com.bulletphysics.linearmath.Transform;
+import com.bulletphysics.util.ObjectArrayList;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * Dynamics world clamping the motion of bodies with a CCD motion threshold: a sub-step
+ * moving such a body farther than the threshold sweeps a sphere along the motion and stops
+ * the body where the sphere first hits another body. The stock clamping throws a
+ * ClassCastException as soon as the swept sphere reaches a static plane.
+ */
+public class ContinuousCollisionDynamicsWorld extends DiscreteDynamicsWorld {
+
+  // Meters a clamped body is moved into what it hit, the solver ignores contacts at a
+  // positive distance and a body stopped just touching would pass on the next sub-step
+  private static final float CLAMP_PENETRATION = 0.005f;
+
+  /**
+   * The closest body in the way of a swept body, like the stock ClosestNotMeConvexResultCallback.
+   */
+  private final class SweepCallback extends CollisionWorld.ClosestConvexResultCallback {
+    private final ObjectArrayList<PersistentManifold> manifolds = new ObjectArrayList<>();
+    private final Vector3f motion = new Vector3f();
+    private RigidBody body;
+
+    SweepCallback() {
+      super(new Vector3f(), new Vector3f());
+    }
+
+    void reset(RigidBody body, Vector3f from, Vector3f to) {
+      this.body = body;
+      convexFromWorld.set(from);
+      convexToWorld.set(to);
+      motion.sub(to, from);
+      closestHitFraction = 1.0f;
+      hitCollisionObject = null;
+      collisionFilterGroup = body.getBroadphaseProxy().collisionFilterGroup;
+      collisionFilterMask = body.getBroadphaseProxy().collisionFilterMask;
+    }
+
+    @Override
+    public boolean needsCollision(BroadphaseProxy proxy) {
+      CollisionObject other = (CollisionObject) proxy.clientObject;
+      // Planes are half-spaces, whatever passes them is still found by the narrowphase
+      if (other == body || !other.getCollisionShape().isConvex() || !super.needsCollision(proxy)) {
+        return false;
+      }
+      if (getDispatcher().needsResponse(body, other)) {
+        // Already touching, the contacts take care of it
+        BroadphasePair pair = getBroadphase().getOverlappingPairCache().findPair(
+            body.getBroadphaseHandle(), proxy);
+        if (pair != null && pair.algorithm != null) {
+          manifolds.clear();
+          pair.algorithm.getAllContactManifolds(manifolds);
+          for (int i = 0; i < manifolds.size(); i++) {
+            if (manifolds.getQuick(i).getNumContacts() > 0) {
+              return false;
+            }
+          }
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public float addSingleResult(CollisionWorld.LocalConvexResult convexResult, boolean normalInWorldSpace) {
+      // Hits of surfaces the body moves away from don't stop it
+      if (convexResult.hitNormalLocal.dot(motion) >= 0) {
+        return 1.0f;
+      }
+      return super.addSingleResult(convexResult, normalInWorldSpace);
+    }
+  }
+
+  private final SweepCallback sweepCallback = new SweepCallback();
+  private final Transform currentTransform = new Transform();
+  private final Transform predictedTransform = new Transform();
+  private final Vector3f motion = new Vector3f();
+  private SphereShape sweptSphere;
+  private long clampedMotions;
+
+  public ContinuousCollisionDynamicsWorld(Dispatcher dispatcher, BroadphaseInterface pairCache,
+                                          ConstraintSolver constraintSolver,
+                                          CollisionConfiguration collisionConfiguration) {
+    super(dispatcher, pairCache, constraintSolver, collisionConfiguration);
+  }
+
+  /**
+   * @return number of sub-step motions cut short by continuous collision detection so far
+   */
+  public long getClampedMotions() {
+    return clampedMotions;
+  }
+
+  @Override
+  protected void integrateTransforms(float timeStep) {
+    ObjectArrayList<CollisionObject> bodies = getCollisionObjectArray();
+    for (int i = 0; i < bodies.size(); i++) {
+      RigidBody body = RigidBody.upcast(bodies.getQuick(i));
+      if (body == null) {
+        continue;
+      }
+      body.setHitFraction(1.0f);
+      if (!body.isActive() || body.isStaticOrKinematicObject()) {
+        continue;
+      }
+      body.predictIntegratedTransform(timeStep, predictedTransform);
+      float squareMotionThreshold = body.getCcdSquareMotionThreshold();
+      if (squareMotionThreshold != 0 && body.getCollisionShape().isConvex()) {
+        body.getWorldTransform(currentTransform);
+        motion.sub(predictedTransform.origin, currentTransform.origin);
+        if (motion.lengthSquared() > squareMotionThreshold) {
+          clampMotion(body, timeStep);
+        }
+      }
+      body.proceedToTransform(predictedTransform);
+    }
+  }
+
+  // Stops the body where its swept sphere first hits another body, the contacts of the next
+  // sub-step take over from there
+  private void clampMotion(RigidBody body, float timeStep) {
+    float radius = body.getCcdSweptSphereRadius();
+    if (sweptSphere == null || sweptSphere.getRadius() != radius) {
+      sweptSphere = new SphereShape(radius);
+    }
+    sweepCallback.reset(body, currentTransform.origin, predictedTransform.origin);
+    convexSweepTest(sweptSphere, currentTransform, predictedTransform, sweepCallback);
+    if (sweepCallback.hasHit() && sweepCallback.closestHitFraction > 1e-4f) {
+      motion.sub(predictedTransform.origin, currentTransform.origin);
+      body.setHitFraction(Math.min(1.0f, sweepCallback.closestHitFraction + CLAMP_PENETRATION / motion.length()));
+      body.predictIntegratedTransform(timeStep * body.getHitFraction(), predictedTransform);
+      body.setHitFraction(0);
+      clampedMotions++;
+    }
+  }
+}
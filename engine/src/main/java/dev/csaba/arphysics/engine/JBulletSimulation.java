@@ -0,0 +1,1283 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.broadphase.AxisSweep3;
+import com.bulletphysics.collision.broadphase.AxisSweep3_32;
+import com.bulletphysics.collision.broadphase.BroadphaseInterface;
+import com.bulletphysics.collision.broadphase.DbvtBroadphase;
+import com.bulletphysics.collision.broadphase.Dispatcher;
+import com.bulletphysics.collision.dispatch.CollisionConfiguration;
+import com.bulletphysics.collision.dispatch.CollisionFlags;
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.dispatch.DefaultCollisionConfiguration;
+import com.bulletphysics.collision.narrowphase.PersistentManifold;
+import com.bulletphysics.collision.shapes.BoxShape;
+import com.bulletphysics.collision.shapes.CollisionShape;
+import com.bulletphysics.collision.shapes.CylinderShape;
+import com.bulletphysics.collision.shapes.SphereShape;
+import com.bulletphysics.collision.shapes.StaticPlaneShape;
+import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
+import com.bulletphysics.dynamics.RigidBody;
+import com.bulletphysics.dynamics.RigidBodyConstructionInfo;
+import com.bulletphysics.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import com.bulletphysics.linearmath.DefaultMotionState;
+import com.bulletphysics.linearmath.MotionState;
+import com.bulletphysics.linearmath.Transform;
+import com.bulletphysics.util.ObjectArrayList;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.vecmath.Quat4f;
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+/**
+ * The jBullet world of a scenario without any Android or Sceneform dependency.
+ * Bodies are addressed by their pose slot: planks by their index, ball i of the pool by
+ * getBallSlot() + i.
+ */
+public class JBulletSimulation implements PhysicsEngine {
+
+  private static final String TAG = "JBulletSimulation";
+  private static final float NANOS_PER_SECOND = 1e9f;
+
+  // Simulation advances in fixed increments, the leftover frame time is carried
+  // over by jBullet and used to interpolate the motion states for rendering.
+  public static final float DEFAULT_FIXED_TIME_STEP = 1.0f / 120.0f;
+  // Upper bound of the physics work per frame, excess time is dropped
+  public static final int DEFAULT_MAX_SUB_STEPS = 8;
+  // Room around the structure for the flying planks, the planks retired by the default
+  // policy never get farther
+  private static final float BOUNDS_MARGIN = RetirementPolicy.DEFAULT_MARGIN;
+  // Sweep and prune handles besides the planks and the balls: ground, walls and cylinder
+  private static final int EXTRA_HANDLES = 16;
+  public static final int DEFAULT_BALL_CAPACITY = 8;
+  public static final boolean DEFAULT_BOX_COLLISION_ALGORITHMS = true;
+  // Balls farther from the origin are out of play and go back to the pool
+  private static final float BALL_RANGE = 10.0f;
+  // Parked balls wait below the ground, one ball diameter apart
+  private static final float PARKING_DEPTH = 0.5f;
+
+  private ModelParameters modelParameters;
+  private ParallelIslandDynamicsWorld dynamicsWorld;
+  private ParallelCollisionDispatcher dispatcher;
+  // Preallocated, a ball joins the world on its first launch and is only parked afterwards
+  private RigidBody[] ballRBs;
+  private boolean[] ballsInWorld;
+  private boolean[] ballsInFlight;
+  private int ballCapacity = DEFAULT_BALL_CAPACITY;
+  // Scratch objects of launching and parking, only used by the stepping thread
+  private final Transform ballTransform = new Transform();
+  private final Vector3f ballPosition = new Vector3f();
+  private RigidBody cylinderRB;
+  private final RigidBody[] wallRBs = new RigidBody[4];
+  // The planks in play, retired ones are taken out
+  private RigidBody[] plankRBs;
+  // Every plank added, resetScene puts them all back in play
+  private RigidBody[] plankPool;
+  private boolean[] planksResting;
+  // Restored when a frozen plank is put back in play
+  private float[] plankMasses;
+  private long previousTime;
+  // The wall clock is followed from the first throw or cylinder move on, nanoTime has no
+  // origin that could mark the time as unset
+  private boolean started;
+  // The bodies were put back by resetScene, their poses are published even without a step
+  private boolean reposed;
+  private int slowMotion;
+  private float fixedTimeStep = DEFAULT_FIXED_TIME_STEP;
+  private int maxSubSteps = DEFAULT_MAX_SUB_STEPS;
+  private int solverThreads = 1;
+  private int narrowphaseThreads = 1;
+  private QualityLevel quality = QualityLevel.FULL;
+  private QualityGovernor qualityGovernor;
+  private boolean boxCollisionAlgorithms = DEFAULT_BOX_COLLISION_ALGORITHMS;
+  private float ccdMotionThreshold;
+  private boolean ccdPlanks;
+  private RetirementPolicy retirement;
+  // Where every plank was added, and for how many simulated seconds it has been at rest elsewhere
+  private float[] plankOrigins;
+  private float[] plankRestSeconds;
+  private boolean[] planksFrozen;
+  // Scratch objects of the retirement, only used by the stepping thread
+  private final Vector3f retirementPosition = new Vector3f();
+  private final Vector3f retirementExtents = new Vector3f();
+  private final Vector3f retirementVelocity = new Vector3f();
+  private Vector3f zeroVector;
+  private SimulationScenario simulationScenario;
+  private BroadphaseType broadphaseType;
+  private int plankCount;
+  // Poses are laid out plank by plank, the balls occupy the last slots
+  private int ballSlot;
+  private float[] inlinePoses;
+  private PoseSnapshot poseSnapshot;
+  private BodyStateBuffer bodyState;
+  private SimulationRecorder recorder;
+  private volatile StepListener stepListener;
+  private final PoseWriter poseWriter = new PoseWriter();
+  private final PhysicsStats stats = new PhysicsStats();
+  private final ShapeCache shapeCache;
+  // Copied by the RigidBody constructor, so one instance serves every plank
+  private RigidBodyConstructionInfo plankRBInfo;
+  // In threaded mode the dynamics world is only touched by the physics thread,
+  // any modification requested from other threads is queued up for it.
+  private final ConcurrentLinkedQueue<Runnable> pendingActions = new ConcurrentLinkedQueue<>();
+  private Thread physicsThread;
+  private volatile boolean physicsThreadRunning;
+
+  public JBulletSimulation(ModelParameters modelParameters, SimulationScenario simulationScenario) {
+    this(modelParameters, simulationScenario, new ShapeCache());
+  }
+
+  /**
+   * @param shapeCache plank shapes, may be shared with earlier simulations to speed up rebuilds
+   */
+  public JBulletSimulation(ModelParameters modelParameters, SimulationScenario simulationScenario,
+                           ShapeCache shapeCache) {
+    this(modelParameters, simulationScenario, shapeCache, BroadphaseType.Dbvt);
+  }
+
+  public JBulletSimulation(ModelParameters modelParameters, SimulationScenario simulationScenario,
+                           ShapeCache shapeCache, BroadphaseType broadphaseType) {
+    this.modelParameters = modelParameters;
+    this.shapeCache = shapeCache;
+    this.broadphaseType = broadphaseType;
+    this.slowMotion = modelParameters.getSlowMotion();
+    this.simulationScenario = simulationScenario;
+    initialize();
+  }
+
+  /**
+   * Configures the fixed time step stepping, the physics thread paces its loop by the step.
+   * @param fixedTimeStep simulated seconds per sub-step, 0 selects the legacy variable step
+   * @param maxSubSteps maximum number of sub-steps performed in one update call
+   */
+  @Override
+  public void setFixedTimeStep(float fixedTimeStep, int maxSubSteps) {
+    runOnPhysicsThread(() -> applyFixedTimeStep(fixedTimeStep, maxSubSteps));
+  }
+
+  private void applyFixedTimeStep(float fixedTimeStep, int maxSubSteps) {
+    this.fixedTimeStep = fixedTimeStep;
+    this.maxSubSteps = fixedTimeStep > 0 ? Math.max(maxSubSteps, 1) : 0;
+    if (recorder != null) {
+      recorder.recordConfig(this.fixedTimeStep, this.maxSubSteps);
+    }
+  }
+
+  public float getFixedTimeStep() {
+    return fixedTimeStep;
+  }
+
+  public int getMaxSubSteps() {
+    return maxSubSteps;
+  }
+
+  @Override
+  public void setSolverThreads(int solverThreads) {
+    runOnPhysicsThread(() -> applySolverThreads(solverThreads));
+  }
+
+  // Kept for the worlds initialize builds, which may run on the stepping thread
+  private void applySolverThreads(int solverThreads) {
+    this.solverThreads = solverThreads;
+    dynamicsWorld.setSolverThreads(solverThreads);
+  }
+
+  @Override
+  public void setNarrowphaseThreads(int narrowphaseThreads) {
+    runOnPhysicsThread(() -> applyNarrowphaseThreads(narrowphaseThreads));
+  }
+
+  private void applyNarrowphaseThreads(int narrowphaseThreads) {
+    this.narrowphaseThreads = narrowphaseThreads;
+    dispatcher.setWorkerThreads(narrowphaseThreads);
+  }
+
+  @Override
+  public void setQuality(QualityLevel quality) {
+    runOnPhysicsThread(() -> applyQuality(quality));
+  }
+
+  private void applyQuality(QualityLevel quality) {
+    if (recorder != null) {
+      recorder.recordQuality(quality);
+    }
+    this.quality = quality;
+    dynamicsWorld.getSolverInfo().numIterations = quality.getSolverIterations();
+    for (int index = 0; index < plankCount; index++) {
+      if (plankRBs[index] != null) {
+        applySleepingThresholds(plankRBs[index]);
+      }
+    }
+    for (RigidBody ballRB : ballRBs) {
+      applySleepingThresholds(ballRB);
+    }
+  }
+
+  @Override
+  public void setContinuousCollision(float motionThreshold, boolean planks) {
+    runOnPhysicsThread(() -> applyContinuousCollision(motionThreshold, planks));
+  }
+
+  private void applyContinuousCollision(float motionThreshold, boolean planks) {
+    if (recorder != null) {
+      recorder.recordContinuousCollision(motionThreshold, planks);
+    }
+    ccdMotionThreshold = motionThreshold;
+    ccdPlanks = planks;
+    for (int index = 0; index < plankCount; index++) {
+      if (plankRBs[index] != null) {
+        applyContinuousCollision(plankRBs[index], ccdPlanks);
+      }
+    }
+    for (RigidBody ballRB : ballRBs) {
+      applyContinuousCollision(ballRB, true);
+    }
+  }
+
+  private void applyContinuousCollision(RigidBody body, boolean enabled) {
+    body.setCcdMotionThreshold(enabled ? ccdMotionThreshold : 0);
+    // The swept sphere must fit inside the body, or it would stop at contacts the body doesn't make
+    CollisionShape shape = body.getCollisionShape();
+    if (shape instanceof BoxShape) {
+      Vector3f halfExtents = ((BoxShape) shape).getHalfExtentsWithMargin(new Vector3f());
+      body.setCcdSweptSphereRadius(Math.min(halfExtents.x, Math.min(halfExtents.y, halfExtents.z)));
+    } else {
+      body.setCcdSweptSphereRadius(modelParameters.getRadius());
+    }
+  }
+
+  @Override
+  public void setRetirement(RetirementPolicy policy) {
+    runOnPhysicsThread(() -> applyRetirement(policy));
+  }
+
+  private void applyRetirement(RetirementPolicy policy) {
+    if (recorder != null) {
+      recorder.recordRetirement(policy);
+    }
+    retirement = policy;
+  }
+
+  public RetirementPolicy getRetirement() {
+    return retirement;
+  }
+
+  /**
+   * Selects the box-box and box-plane algorithms of PlankCollisionConfiguration,
+   * or the GJK and convex-plane algorithms jBullet uses by default.
+   */
+  public void setBoxCollisionAlgorithms(boolean boxCollisionAlgorithms) {
+    runOnPhysicsThread(() -> applyBoxCollisionAlgorithms(boxCollisionAlgorithms));
+  }
+
+  public boolean isBoxCollisionAlgorithms() {
+    return boxCollisionAlgorithms;
+  }
+
+  private void applyBoxCollisionAlgorithms(boolean boxCollisionAlgorithms) {
+    if (recorder != null) {
+      recorder.recordCollisionAlgorithms(boxCollisionAlgorithms);
+    }
+    this.boxCollisionAlgorithms = boxCollisionAlgorithms;
+    dispatcher.setCollisionConfigurations(createCollisionConfiguration(boxCollisionAlgorithms),
+        () -> createCollisionConfiguration(boxCollisionAlgorithms));
+  }
+
+  private static CollisionConfiguration createCollisionConfiguration(boolean boxCollisionAlgorithms) {
+    return boxCollisionAlgorithms ? new PlankCollisionConfiguration() : new DefaultCollisionConfiguration();
+  }
+
+  private void applySleepingThresholds(RigidBody body) {
+    body.setSleepingThresholds(quality.getLinearSleepingThreshold(),
+        quality.getAngularSleepingThreshold());
+  }
+
+  public QualityLevel getQuality() {
+    return quality;
+  }
+
+  @Override
+  public void setQualityGovernor(QualityGovernor governor) {
+    runOnPhysicsThread(() -> applyQualityGovernor(governor));
+  }
+
+  private void applyQualityGovernor(QualityGovernor governor) {
+    qualityGovernor = governor;
+    if (governor != null) {
+      applyQuality(governor.getQuality());
+    }
+  }
+
+  @Override
+  public void setStepListener(StepListener listener) {
+    stepListener = listener;
+  }
+
+  @Override
+  public void setRecorder(SimulationRecorder recorder) {
+    if (recorder != null) {
+      recorder.begin(PhysicsEngineFactory.JBULLET, broadphaseType, modelParameters,
+          simulationScenario, fixedTimeStep, maxSubSteps);
+      if (quality != QualityLevel.FULL) {
+        recorder.recordQuality(quality);
+      }
+      if (!boxCollisionAlgorithms) {
+        recorder.recordCollisionAlgorithms(false);
+      }
+      if (ccdMotionThreshold > 0) {
+        recorder.recordContinuousCollision(ccdMotionThreshold, ccdPlanks);
+      }
+      if (ballCapacity != DEFAULT_BALL_CAPACITY) {
+        recorder.recordBallCapacity(ballCapacity);
+      }
+      if (retirement != null) {
+        recorder.recordRetirement(retirement);
+      }
+    }
+    this.recorder = recorder;
+  }
+
+  public void initialize() {
+    // Initialize Bullet Physics Engine
+    boolean boxAlgorithms = boxCollisionAlgorithms;
+    CollisionConfiguration collisionConfiguration = createCollisionConfiguration(boxAlgorithms);
+    dispatcher = new ParallelCollisionDispatcher(collisionConfiguration,
+        () -> createCollisionConfiguration(boxAlgorithms));
+    dispatcher.setWorkerThreads(narrowphaseThreads);
+    BroadphaseInterface broadPhase = createBroadphase();
+    SequentialImpulseConstraintSolver solver = new SequentialImpulseConstraintSolver();
+
+    dynamicsWorld = new ParallelIslandDynamicsWorld(dispatcher, broadPhase, solver, collisionConfiguration);
+    dynamicsWorld.setSolverThreads(solverThreads);
+    dynamicsWorld.getSolverInfo().numIterations = quality.getSolverIterations();
+
+    // Override default gravity (which would be (0, -10, 0)) with configured one
+    dynamicsWorld.setGravity(new Vector3f(0f, -modelParameters.getGravity(), 0f));
+
+    zeroVector = new Vector3f(0, 0, 0);
+
+    addGroundPlane();
+
+    plankCount = StructureLayout.getPlankCount(modelParameters, simulationScenario);
+    plankRBs = new RigidBody[plankCount];
+    plankPool = new RigidBody[plankCount];
+    planksResting = new boolean[plankCount];
+    plankMasses = new float[plankCount];
+    plankOrigins = new float[plankCount * 3];
+    plankRestSeconds = new float[plankCount];
+    planksFrozen = new boolean[plankCount];
+    ballSlot = plankCount;
+    createBallPool();
+    inlinePoses = new float[getPoseCount() * PoseSnapshot.STRIDE];
+    poseSnapshot = new PoseSnapshot(getPoseCount());
+    bodyState = new BodyStateBuffer(getPoseCount());
+  }
+
+  private BroadphaseInterface createBroadphase() {
+    if (broadphaseType == BroadphaseType.Dbvt) {
+      return new DbvtBroadphase();
+    }
+    StructureLayout layout = StructureLayout.create(modelParameters, simulationScenario);
+    if (broadphaseType == BroadphaseType.SpatialHash) {
+      // A plank's bounding box never exceeds the cell, so it covers at most two cells per axis
+      return new SpatialHashBroadphase(2 * layout.getMaxReach());
+    }
+
+    Vector3f worldMin = new Vector3f();
+    Vector3f worldMax = new Vector3f();
+    layout.getBounds(worldMin, worldMax);
+    if (simulationScenario == SimulationScenario.CollisionBox) {
+      // The walls of the box
+      worldMin.set(Math.min(worldMin.x, -0.5f), worldMin.y, Math.min(worldMin.z, -0.5f));
+      worldMax.set(Math.max(worldMax.x, 0.5f), worldMax.y, Math.max(worldMax.z, 0.5f));
+    }
+    worldMin.sub(new Vector3f(BOUNDS_MARGIN, BOUNDS_MARGIN, BOUNDS_MARGIN));
+    worldMax.add(new Vector3f(BOUNDS_MARGIN, BOUNDS_MARGIN, BOUNDS_MARGIN));
+    // The balls stay in play up to BALL_RANGE, they go back to the pool before leaving
+    // the bounds. A body outside is clamped to the border of the sweep and prune grid,
+    // where it overlaps every other clamped body, that only happens to planks flying
+    // beyond the margin without a retirement policy.
+    worldMin.set(Math.min(worldMin.x, -BALL_RANGE), Math.min(worldMin.y, -BALL_RANGE),
+        Math.min(worldMin.z, -BALL_RANGE));
+    worldMax.set(Math.max(worldMax.x, BALL_RANGE), Math.max(worldMax.y, BALL_RANGE),
+        Math.max(worldMax.z, BALL_RANGE));
+    int maxHandles = layout.getPlankCount() + ballCapacity + EXTRA_HANDLES;
+    if (maxHandles >= Short.MAX_VALUE) {
+      // The stress scenarios go beyond what 16 bit handles can address
+      return new AxisSweep3_32(worldMin, worldMax, maxHandles);
+    }
+    return new AxisSweep3(worldMin, worldMax, maxHandles);
+  }
+
+  public BroadphaseType getBroadphaseType() {
+    return broadphaseType;
+  }
+
+  public ModelParameters getModelParameters() {
+    return modelParameters;
+  }
+
+  public SimulationScenario getSimulationScenario() {
+    return simulationScenario;
+  }
+
+  public DiscreteDynamicsWorld getDynamicsWorld() {
+    return dynamicsWorld;
+  }
+
+  @Override
+  public int getPlankCount() {
+    return plankCount;
+  }
+
+  @Override
+  public int getBallSlot() {
+    return ballSlot;
+  }
+
+  @Override
+  public int getBallCapacity() {
+    return ballCapacity;
+  }
+
+  /**
+   * Resizes the ball pool, every ball takes a pose slot after the planks.
+   * Has to be called before any body is added, the world is rebuilt for the new pose layout.
+   */
+  public void setBallCapacity(int ballCapacity) {
+    if (recorder != null) {
+      recorder.recordBallCapacity(ballCapacity);
+    }
+    if (ballCapacity == this.ballCapacity) {
+      return;
+    }
+    this.ballCapacity = ballCapacity;
+    dynamicsWorld.shutdown();
+    dispatcher.shutdown();
+    initialize();
+  }
+
+  @Override
+  public int getPoseCount() {
+    return plankCount + ballCapacity;
+  }
+
+  @Override
+  public PhysicsStats getStats() {
+    return stats;
+  }
+
+  @Override
+  public BodyStateBuffer getBodyState() {
+    return bodyState;
+  }
+
+  public ShapeCache getShapeCache() {
+    return shapeCache;
+  }
+
+  /**
+   * Moves the stepping of the dynamics world to a dedicated thread. The render
+   * callback (update) then only picks up the latest published poses.
+   * A thread started again after stopPhysicsThread doesn't make up the time it was stopped.
+   */
+  @Override
+  public void startPhysicsThread() {
+    if (physicsThread != null) {
+      return;
+    }
+    // No thread is stepping, the wall clock can be moved from here
+    previousTime = java.lang.System.nanoTime();
+    physicsThreadRunning = true;
+    physicsThread = new Thread(this::runPhysicsLoop, TAG);
+    physicsThread.start();
+  }
+
+  @Override
+  public void stopPhysicsThread() {
+    if (physicsThread == null) {
+      return;
+    }
+    physicsThreadRunning = false;
+    try {
+      physicsThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    physicsThread = null;
+    // Anything queued after the last iteration of the loop
+    drainPendingActions();
+  }
+
+  public boolean isPhysicsThreadRunning() {
+    return physicsThreadRunning;
+  }
+
+  private void runOnPhysicsThread(Runnable action) {
+    if (physicsThreadRunning) {
+      pendingActions.add(action);
+    } else {
+      action.run();
+    }
+  }
+
+  private void drainPendingActions() {
+    Runnable action;
+    while ((action = pendingActions.poll()) != null) {
+      action.run();
+    }
+  }
+
+  private void runPhysicsLoop() {
+    while (physicsThreadRunning) {
+      long loopStart = java.lang.System.nanoTime();
+      drainPendingActions();
+      // After the actions, one of them may have changed the time step
+      float period = fixedTimeStep > 0 ? fixedTimeStep : DEFAULT_FIXED_TIME_STEP;
+      long periodNanos = (long)(period * NANOS_PER_SECOND);
+      if (stepPhysics() || reposed) {
+        reposed = false;
+        writePoses(poseSnapshot.getWriteBuffer());
+        poseSnapshot.publish();
+      }
+      long remainingNanos = periodNanos - (java.lang.System.nanoTime() - loopStart);
+      if (remainingNanos > 0) {
+        LockSupport.parkNanos(remainingNanos);
+      }
+    }
+  }
+
+  @Override
+  public void addBallRigidBody(Vector3f ballPosition, Vector3f velocity) {
+    launchBall(0, ballPosition, velocity);
+  }
+
+  @Override
+  public void launchBall(int ball, Vector3f position, Vector3f velocity) {
+    runOnPhysicsThread(() -> launchPooledBall(ball, position, velocity));
+  }
+
+  private void createBallPool() {
+    float r = modelParameters.getRadius();
+    CollisionShape ballShape = new SphereShape(r);
+    float mass = (float)(modelParameters.getBallDensity() * 4 / 3 * Math.PI * r * r * r);
+    Vector3f ballInertia = new Vector3f();
+    ballShape.calculateLocalInertia(mass, ballInertia);
+    RigidBodyConstructionInfo ballRBInfo = new RigidBodyConstructionInfo(
+        mass, null, ballShape, ballInertia);
+    ballRBInfo.restitution = modelParameters.getBallRestitution();
+    ballRBInfo.friction = modelParameters.getBallFriction();
+
+    ballRBs = new RigidBody[ballCapacity];
+    ballsInWorld = new boolean[ballCapacity];
+    ballsInFlight = new boolean[ballCapacity];
+    Transform parkingTransform = new Transform();
+    for (int ball = 0; ball < ballCapacity; ball++) {
+      getParkingTransform(ball, parkingTransform);
+      ballRBInfo.motionState = new DefaultMotionState(parkingTransform);
+      ballRBs[ball] = new RigidBody(ballRBInfo);
+    }
+  }
+
+  private void getParkingTransform(int ball, Transform transform) {
+    transform.setIdentity();
+    transform.origin.set(ball * 2 * modelParameters.getRadius(), -PARKING_DEPTH, 0);
+  }
+
+  /**
+   * Puts the ball of the pool into play, a ball still in flight is taken back first.
+   * Nothing is allocated and nothing enters the broadphase, except on the first launch of a ball.
+   */
+  private void launchPooledBall(int ball, Vector3f position, Vector3f velocity) {
+    if (recorder != null) {
+      recorder.recordLaunch(ball, position, velocity);
+    }
+    RigidBody ballRB = ballRBs[ball];
+    ballTransform.setIdentity();
+    ballTransform.origin.set(position);
+    moveBall(ballRB, ballTransform);
+    ballRB.setLinearVelocity(velocity);
+    ballRB.forceActivationState(CollisionObject.ACTIVE_TAG);
+    ballRB.setDeactivationTime(0);
+    applySleepingThresholds(ballRB);
+    applyContinuousCollision(ballRB, true);
+    if (ballsInWorld[ball]) {
+      dynamicsWorld.updateSingleAabb(ballRB);
+    } else {
+      dynamicsWorld.addRigidBody(ballRB);
+      ballsInWorld[ball] = true;
+    }
+    ballsInFlight[ball] = true;
+    previousTime = java.lang.System.nanoTime();
+    started = true;
+  }
+
+  /**
+   * Takes the ball out of play: it stays in the world, but is not simulated until launched again.
+   */
+  private void parkBall(int ball) {
+    RigidBody ballRB = ballRBs[ball];
+    ballRB.forceActivationState(CollisionObject.DISABLE_SIMULATION);
+    getParkingTransform(ball, ballTransform);
+    moveBall(ballRB, ballTransform);
+    ballRB.setLinearVelocity(zeroVector);
+    dynamicsWorld.updateSingleAabb(ballRB);
+    ballsInFlight[ball] = false;
+    bodyState.clear(ballSlot + ball);
+  }
+
+  private void moveBall(RigidBody ballRB, Transform transform) {
+    ballRB.setWorldTransform(transform);
+    ballRB.setInterpolationWorldTransform(transform);
+    ballRB.getMotionState().setWorldTransform(transform);
+    ballRB.setInterpolationLinearVelocity(zeroVector);
+    ballRB.setInterpolationAngularVelocity(zeroVector);
+    ballRB.setAngularVelocity(zeroVector);
+    ballRB.clearForces();
+  }
+
+  /**
+   * Balls which fell asleep or left the range return to the pool.
+   */
+  private void reclaimBalls() {
+    for (int ball = 0; ball < ballCapacity; ball++) {
+      if (!ballsInFlight[ball]) {
+        continue;
+      }
+      RigidBody ballRB = ballRBs[ball];
+      ballRB.getCenterOfMassPosition(ballPosition);
+      if (!ballRB.isActive() || ballPosition.lengthSquared() > BALL_RANGE * BALL_RANGE) {
+        parkBall(ball);
+      }
+    }
+  }
+
+  /**
+   * @return whether the ball of the pool is in play
+   */
+  public boolean isBallInFlight(int ball) {
+    return ballsInFlight[ball];
+  }
+
+  private RigidBody addCollisionBoxWall(Vector3f normal, Vector3f position) {
+    CollisionShape wallShape = new StaticPlaneShape(
+            new Vector3f(normal.x, normal.y, normal.z), 0);
+    wallShape.setMargin(modelParameters.getConvexMargin());
+
+    Transform wallTransform = new Transform();
+    wallTransform.setIdentity();
+    wallTransform.origin.set(position.x, position.y, position.z);
+
+    DefaultMotionState wallMotionState = new DefaultMotionState(wallTransform);
+    RigidBodyConstructionInfo wallRBInfo = new RigidBodyConstructionInfo(
+            0.0f, wallMotionState, wallShape, zeroVector);
+    wallRBInfo.friction = 0.6f;
+    RigidBody wallRB = new RigidBody(wallRBInfo);
+    dynamicsWorld.addRigidBody(wallRB);
+    return wallRB;
+  }
+
+  @Override
+  public void addCylinderKineticBody(Vector3f cylinderPosition) {
+    runOnPhysicsThread(() -> createCylinderKineticBody(cylinderPosition));
+  }
+
+  private void createCylinderKineticBody(Vector3f cylinderPosition) {
+    if (recorder != null) {
+      recorder.recordCylinder(SimulationRecorder.CYLINDER, cylinderPosition);
+    }
+    float r = modelParameters.getWidth();
+    CollisionShape cylinderShape = new CylinderShape(new Vector3f(r, r, r));
+
+    Transform cylinderTransform = new Transform();
+    cylinderTransform.setIdentity();
+    cylinderTransform.origin.set(cylinderPosition);
+
+    DefaultMotionState cylinderMotionState = new DefaultMotionState(cylinderTransform);
+    // https://pybullet.org/Bullet/phpBB3/viewtopic.php?t=7086
+    // Kinematic Object's mass is 0.0
+    RigidBodyConstructionInfo cylinderRBInfo = new RigidBodyConstructionInfo(
+        0, cylinderMotionState, cylinderShape, zeroVector);
+    cylinderRBInfo.restitution = modelParameters.getBallRestitution();
+    cylinderRBInfo.friction = modelParameters.getBallFriction();
+
+    cylinderRB = new RigidBody(cylinderRBInfo);
+    cylinderRB.setCollisionFlags(CollisionFlags.KINEMATIC_OBJECT);
+    cylinderRB.setActivationState(CollisionObject.DISABLE_DEACTIVATION);
+    dynamicsWorld.addRigidBody(cylinderRB);
+
+    wallRBs[0] = addCollisionBoxWall(new Vector3f(0.5f, 0, 0), new Vector3f(-0.5f, 0, 0));
+    wallRBs[1] = addCollisionBoxWall(new Vector3f(0, 0, 0.5f), new Vector3f(0, 0, -0.5f));
+    wallRBs[2] = addCollisionBoxWall(new Vector3f(-0.5f, 0, 0), new Vector3f(0.5f, 0, 0));
+    wallRBs[3] = addCollisionBoxWall(new Vector3f(0, 0, -0.5f), new Vector3f(0, 0, 0.5f));
+  }
+
+  public void addGroundPlane() {
+    CollisionShape groundShape = new StaticPlaneShape(
+      new Vector3f(0, 1.0f, 0), 0);
+    groundShape.setMargin(modelParameters.getConvexMargin());
+
+    Transform groundTransform = new Transform();
+    groundTransform.setIdentity();
+    groundTransform.origin.set(0, 0, 0);
+
+    DefaultMotionState groundMotionState = new DefaultMotionState(groundTransform);
+    RigidBodyConstructionInfo groundRBInfo = new RigidBodyConstructionInfo(
+        0.0f, groundMotionState, groundShape, zeroVector);
+    groundRBInfo.friction = 0.6f;
+    RigidBody groundRB = new RigidBody(groundRBInfo);
+    dynamicsWorld.addRigidBody(groundRB);
+  }
+
+  @Override
+  public void addPlankRigidBody(int index, Vector3f plankBox, Vector3f plankPosition) {
+    runOnPhysicsThread(() -> {
+      if (recorder != null) {
+        recorder.recordPlank(index, plankBox, plankPosition);
+      }
+      createPlankRigidBody(index, plankBox, plankPosition, null, false);
+    });
+  }
+
+  /**
+   * Adds every plank of the layout in one go, plank i taking pose slot i.
+   */
+  @Override
+  public void addStructure(StructureLayout layout) {
+    runOnPhysicsThread(() -> createStructure(layout));
+  }
+
+  private void createStructure(StructureLayout layout) {
+    if (recorder != null) {
+      recorder.recordStructure(layout);
+    }
+    float[] halfExtents = layout.getHalfExtents();
+    float[] positions = layout.getPositions();
+    float[] rotations = layout.getRotations();
+    // createPlankRigidBody copies the values, the vectors can be reused
+    Vector3f plankBox = new Vector3f();
+    Vector3f plankPosition = new Vector3f();
+    Quat4f plankRotation = rotations != null ? new Quat4f() : null;
+    for (int index = 0; index < layout.getPlankCount(); index++) {
+      int offset = index * 3;
+      plankBox.set(halfExtents[offset], halfExtents[offset + 1], halfExtents[offset + 2]);
+      plankPosition.set(positions[offset], positions[offset + 1], positions[offset + 2]);
+      if (plankRotation != null) {
+        int rotationOffset = index * 4;
+        plankRotation.set(rotations[rotationOffset], rotations[rotationOffset + 1],
+            rotations[rotationOffset + 2], rotations[rotationOffset + 3]);
+      }
+      createPlankRigidBody(index, plankBox, plankPosition, plankRotation, layout.isResting());
+    }
+  }
+
+  /**
+   * @param plankRotation rotation of the plank, null for none
+   * @param resting the plank starts deactivated, until something wakes it up
+   */
+  private void createPlankRigidBody(int index, Vector3f plankBox, Vector3f plankPosition,
+                                    Quat4f plankRotation, boolean resting) {
+    float margin = modelParameters.getConvexMargin();
+    float marginShrink = 0.0f;  // margin;
+    float doubleMargin = marginShrink * 2;
+    // We need to shrink the box with the margin, so
+    // the planks would touch and would not float on each other.
+    // This has to be reversed in updatePhysics.
+    Vector3f compensatedPlankBox = new Vector3f(
+      plankBox.x - doubleMargin,
+      plankBox.y - doubleMargin,
+      plankBox.z - doubleMargin
+    );
+    float mass = modelParameters.getPlankDensity() * plankBox.x * plankBox.y * plankBox.z;
+    ShapeCache.BoxEntry plankShape = shapeCache.getBox(compensatedPlankBox, margin, mass);
+
+    Transform plankTransform = new Transform();
+    plankTransform.setIdentity();
+    // We need to compensate the position due to the PlankBox shrink.
+    // This has to be reversed in updatePhysics.
+    Vector3f compensatedPlankPosition = new Vector3f(
+      plankPosition.x + marginShrink,
+      plankPosition.y + marginShrink,
+      plankPosition.z + marginShrink
+    );
+    plankTransform.origin.set(compensatedPlankPosition);
+    if (plankRotation != null) {
+      plankTransform.setRotation(plankRotation);
+    }
+
+    DefaultMotionState plankMotionState = new DefaultMotionState(plankTransform);
+    if (plankRBInfo == null) {
+      plankRBInfo = new RigidBodyConstructionInfo(
+          mass, plankMotionState, plankShape.getShape(), plankShape.getLocalInertia());
+      plankRBInfo.restitution = modelParameters.getBallRestitution();
+      plankRBInfo.friction = modelParameters.getBallFriction();
+    } else {
+      plankRBInfo.mass = mass;
+      plankRBInfo.motionState = plankMotionState;
+      plankRBInfo.collisionShape = plankShape.getShape();
+      plankRBInfo.localInertia.set(plankShape.getLocalInertia());
+    }
+
+    RigidBody plankRB = new RigidBody(plankRBInfo);
+    // plankRB.setActivationState(DISABLE_DEACTIVATION);
+    applySleepingThresholds(plankRB);
+    if (ccdPlanks) {
+      applyContinuousCollision(plankRB, true);
+    }
+    if (resting) {
+      plankRB.setActivationState(CollisionObject.ISLAND_SLEEPING);
+    }
+    plankRBs[index] = plankRB;
+    plankPool[index] = plankRB;
+    planksResting[index] = resting;
+    plankMasses[index] = mass;
+    plankOrigins[index * 3] = plankPosition.x;
+    plankOrigins[index * 3 + 1] = plankPosition.y;
+    plankOrigins[index * 3 + 2] = plankPosition.z;
+    plankRestSeconds[index] = 0;
+    planksFrozen[index] = false;
+
+    dynamicsWorld.addRigidBody(plankRB);
+  }
+
+  @Override
+  public void updateCylinderLocation(Vector3f cylinderPosition) {
+    runOnPhysicsThread(() -> moveCylinder(cylinderPosition));
+  }
+
+  private void moveCylinder(Vector3f cylinderPosition) {
+    if (cylinderRB == null) {
+      return;
+    }
+    if (!started) {
+      // Start the simulation as soon as the cylinder moves the first time
+      previousTime = java.lang.System.nanoTime();
+      started = true;
+    }
+
+    Transform elementTransform = new Transform();
+    MotionState motionState = cylinderRB.getMotionState();
+    motionState.getWorldTransform(elementTransform);
+    Vector3f translation = new Vector3f(
+      cylinderPosition.x - elementTransform.origin.x,
+      cylinderPosition.y - elementTransform.origin.y,
+      cylinderPosition.z - elementTransform.origin.z
+    );
+    if (Math.abs(translation.x) < 1e-6 && Math.abs(translation.y) < 1e-6 && Math.abs(translation.z) < 1e-6) {
+      return;
+    }
+    if (recorder != null) {
+      recorder.recordCylinder(SimulationRecorder.CYLINDER_MOVE, cylinderPosition);
+    }
+
+    Transform cylinderTransform = new Transform();
+    cylinderTransform.setIdentity();
+    cylinderTransform.origin.set(cylinderPosition);
+    DefaultMotionState cylinderMotionState = new DefaultMotionState(cylinderTransform);
+
+    cylinderRB.setWorldTransform(cylinderTransform);
+    cylinderRB.setMotionState(cylinderMotionState);
+    cylinderRB.setLinearVelocity(new Vector3f(0, 0, 0));
+    cylinderRB.setAngularVelocity(new Vector3f(0, 0, 0));
+    cylinderRB.clearForces();
+  }
+
+  /**
+   * Advances the simulation by the wall clock time elapsed since the previous call.
+   * @return the poses to display, or null if there is nothing new to show
+   */
+  @Override
+  public float[] update(Vector3f cylinderPosition) {
+    if (physicsThreadRunning) {
+      if (cylinderPosition != null) {
+        updateCylinderLocation(cylinderPosition);
+      }
+      return poseSnapshot.acquire();
+    }
+
+    // Approximately called with 30 FPS in my tests
+    if (!stepPhysics() && !reposed) {
+      return null;
+    }
+    reposed = false;
+
+    // Trying to make sure the cylinder is not resetted back to dead center
+    moveCylinder(cylinderPosition);
+
+    writePoses(inlinePoses);
+    return inlinePoses;
+  }
+
+  private boolean stepPhysics() {
+    if (!started) {
+      return false;
+    }
+    long currentTime = java.lang.System.nanoTime();
+    long timeDeltaNanos = currentTime - previousTime;
+    if (timeDeltaNanos <= 0) {
+      return false;
+    }
+
+    // Slow motion stretches every fixed step over more wall clock time.
+    float timeDelta = timeDeltaNanos / NANOS_PER_SECOND;
+    if (slowMotion > 1) {
+      timeDelta /= slowMotion;
+    }
+
+    step(timeDelta);
+    previousTime = currentTime;
+    governQuality(timeDeltaNanos / NANOS_PER_SECOND);
+    return true;
+  }
+
+  // Measured against the wall clock, a slow motion step costs the frame as much as any other
+  private void governQuality(float seconds) {
+    QualityGovernor governor = qualityGovernor;
+    if (governor != null && governor.addStepTime(stats.getStepMillis().getLast(), seconds)) {
+      applyQuality(governor.getQuality());
+      stats.recordQualityChange(governor.getLevel());
+    }
+  }
+
+  /**
+   * Advances the simulation by the given amount of simulated time, independent of the wall clock.
+   * Only to be used when the physics thread is not running.
+   * @return number of fixed sub-steps performed
+   */
+  @Override
+  public int step(float timeDelta) {
+    long stepStart = java.lang.System.nanoTime();
+    int subSteps;
+    // stepSimulation takes deltaTime in the unit of seconds
+    if (maxSubSteps > 0) {
+      // A lower quality caps the work of a slow frame, the simulation falls behind the wall clock
+      int subStepLimit = Math.min(maxSubSteps, quality.getMaxSubSteps());
+      subSteps = dynamicsWorld.stepSimulation(timeDelta, subStepLimit, fixedTimeStep);
+    } else {
+      subSteps = dynamicsWorld.stepSimulation(timeDelta, 0);
+    }
+    reclaimBalls();
+    retirePlanks(maxSubSteps > 0 ? subSteps * fixedTimeStep : timeDelta);
+    recordStepStats(java.lang.System.nanoTime() - stepStart, subSteps);
+    writeBodyState();
+    if (recorder != null) {
+      recorder.recordStep(timeDelta, subSteps, bodyState);
+    }
+    StepListener listener = stepListener;
+    if (listener != null) {
+      listener.onStep(bodyState);
+    }
+    return subSteps;
+  }
+
+  /**
+   * Removes the planks out of the world bounds, then freezes or removes the ones which were
+   * knocked farther than their own size from where they were added and rested through
+   * the timeout. Planks resting in place are the intact structure, they are kept for the ball.
+   * @param seconds simulated time of the step
+   */
+  private void retirePlanks(float seconds) {
+    int removedCount = 0;
+    int frozenCount = 0;
+    if (retirement != null) {
+      float restTimeout = retirement.getRestTimeout();
+      for (int index = 0; index < plankCount; index++) {
+        RigidBody plankRB = plankRBs[index];
+        if (plankRB == null || planksFrozen[index]) {
+          continue;
+        }
+        plankRB.getCenterOfMassPosition(retirementPosition);
+        if (!retirement.contains(retirementPosition)) {
+          removePlank(index);
+          removedCount++;
+          continue;
+        }
+        if (restTimeout <= 0 || !isResting(plankRB) || !isKnockedOff(index)) {
+          plankRestSeconds[index] = 0;
+          continue;
+        }
+        plankRestSeconds[index] += seconds;
+        if (plankRestSeconds[index] < restTimeout) {
+          continue;
+        }
+        if (retirement.isFreeze()) {
+          freezePlank(index);
+          frozenCount++;
+        } else {
+          wakeContacts(plankRB);
+          removePlank(index);
+          removedCount++;
+        }
+      }
+    }
+    stats.recordRetirement(removedCount, frozenCount);
+  }
+
+  /**
+   * Asleep, or below the sleeping thresholds at the end of the step. A collapsed pile jitters
+   * on contact and rarely falls asleep as a whole, though most of its planks lie still.
+   */
+  private boolean isResting(RigidBody plankRB) {
+    if (!plankRB.isActive()) {
+      return true;
+    }
+    float linearThreshold = quality.getLinearSleepingThreshold();
+    float angularThreshold = quality.getAngularSleepingThreshold();
+    return plankRB.getLinearVelocity(retirementVelocity).lengthSquared() <
+        linearThreshold * linearThreshold &&
+        plankRB.getAngularVelocity(retirementVelocity).lengthSquared() <
+        angularThreshold * angularThreshold;
+  }
+
+  private boolean isKnockedOff(int index) {
+    ((BoxShape) plankRBs[index].getCollisionShape()).getHalfExtentsWithMargin(retirementExtents);
+    int offset = index * 3;
+    retirementPosition.x -= plankOrigins[offset];
+    retirementPosition.y -= plankOrigins[offset + 1];
+    retirementPosition.z -= plankOrigins[offset + 2];
+    return retirementPosition.lengthSquared() > retirementExtents.lengthSquared();
+  }
+
+  private void removePlank(int index) {
+    dynamicsWorld.removeRigidBody(plankRBs[index]);
+    plankRBs[index] = null;
+    bodyState.clear(index);
+  }
+
+  /**
+   * Turns the plank into a static body, it still blocks the others but costs no solver time.
+   * It is re-added, so the broadphase files it with the static bodies.
+   */
+  private void freezePlank(int index) {
+    RigidBody plankRB = plankRBs[index];
+    dynamicsWorld.removeRigidBody(plankRB);
+    plankRB.setLinearVelocity(zeroVector);
+    plankRB.setAngularVelocity(zeroVector);
+    plankRB.setMassProps(0, zeroVector);
+    plankRB.updateInertiaTensor();
+    dynamicsWorld.addRigidBody(plankRB);
+    plankRB.forceActivationState(CollisionObject.ISLAND_SLEEPING);
+    planksFrozen[index] = true;
+  }
+
+  // Whatever rests on a removed plank would keep sleeping in the air
+  private void wakeContacts(RigidBody body) {
+    Dispatcher worldDispatcher = dynamicsWorld.getDispatcher();
+    for (int i = 0; i < worldDispatcher.getNumManifolds(); i++) {
+      PersistentManifold manifold = worldDispatcher.getManifoldByIndexInternal(i);
+      Object other = manifold.getBody0() == body ? manifold.getBody1() :
+          manifold.getBody1() == body ? manifold.getBody0() : null;
+      if (other != null && manifold.getNumContacts() > 0) {
+        ((CollisionObject) other).activate();
+      }
+    }
+  }
+
+  /**
+   * @return whether the plank was turned static by the retirement policy
+   */
+  public boolean isPlankFrozen(int index) {
+    return planksFrozen[index];
+  }
+
+  private void writeBodyState() {
+    for (int index = 0; index < plankCount; index++) {
+      if (plankRBs[index] != null) {
+        poseWriter.writeState(plankRBs[index], bodyState, index);
+      }
+    }
+    for (int ball = 0; ball < ballCapacity; ball++) {
+      if (ballsInFlight[ball]) {
+        poseWriter.writeState(ballRBs[ball], bodyState, ballSlot + ball);
+      }
+    }
+    bodyState.markStep();
+  }
+
+  private void recordStepStats(long stepNanos, int subSteps) {
+    int activeCount = 0;
+    int bodyCount = 0;
+    for (int index = 0; index < plankCount; index++) {
+      if (plankRBs[index] != null) {
+        bodyCount++;
+        if (plankRBs[index].isActive()) {
+          activeCount++;
+        }
+      }
+    }
+    for (int ball = 0; ball < ballCapacity; ball++) {
+      if (ballsInFlight[ball]) {
+        bodyCount++;
+        if (ballRBs[ball].isActive()) {
+          activeCount++;
+        }
+      }
+    }
+    stats.recordStep(stepNanos, subSteps, activeCount, bodyCount - activeCount,
+        dynamicsWorld.getDispatcher().getNumManifolds());
+  }
+
+  /**
+   * Copies the current pose of every existing body into the pose buffer, see PoseSnapshot.
+   */
+  @Override
+  public void writePoses(float[] poses) {
+    for (int index = 0; index < plankCount; index++) {
+      if (plankRBs[index] != null) {
+        poseWriter.write(plankRBs[index], poses, index);
+      } else {
+        // Retired, or not added yet
+        PoseSnapshot.clear(poses, index);
+      }
+    }
+    for (int ball = 0; ball < ballCapacity; ball++) {
+      if (ballsInFlight[ball]) {
+        poseWriter.write(ballRBs[ball], poses, ballSlot + ball);
+      } else {
+        // The buffers are reused, a parked ball may have been in flight when this one was written
+        PoseSnapshot.clear(poses, ballSlot + ball);
+      }
+    }
+  }
+
+  @Override
+  public void resetScene() {
+    runOnPhysicsThread(this::resetBodies);
+  }
+
+  /**
+   * Puts every plank back where it was added, retired ones included, parks the balls and
+   * takes out the cylinder with the walls of the box. The world, the broadphase, the solver
+   * and the bodies are all reused, only the few retired planks are re-inserted.
+   */
+  private void resetBodies() {
+    if (recorder != null) {
+      recorder.recordReset();
+    }
+    for (int ball = 0; ball < ballCapacity; ball++) {
+      if (ballsInFlight[ball]) {
+        parkBall(ball);
+      }
+    }
+    removeCollisionBox();
+
+    for (int index = 0; index < plankCount; index++) {
+      RigidBody plankRB = plankPool[index];
+      if (plankRB == null) {
+        continue;
+      }
+      if (plankRBs[index] == null || planksFrozen[index]) {
+        if (planksFrozen[index]) {
+          dynamicsWorld.removeRigidBody(plankRB);
+          unfreezePlank(index);
+          planksFrozen[index] = false;
+        }
+        // Added again with the filter group of a dynamic body
+        dynamicsWorld.addRigidBody(plankRB);
+        plankRBs[index] = plankRB;
+      }
+      Transform startTransform = ((DefaultMotionState) plankRB.getMotionState()).startWorldTrans;
+      plankRB.setWorldTransform(startTransform);
+      plankRB.setInterpolationWorldTransform(startTransform);
+      plankRB.getMotionState().setWorldTransform(startTransform);
+      plankRB.setLinearVelocity(zeroVector);
+      plankRB.setAngularVelocity(zeroVector);
+      plankRB.setInterpolationLinearVelocity(zeroVector);
+      plankRB.setInterpolationAngularVelocity(zeroVector);
+      plankRB.clearForces();
+      plankRB.forceActivationState(planksResting[index] ?
+          CollisionObject.ISLAND_SLEEPING : CollisionObject.ACTIVE_TAG);
+      plankRB.setDeactivationTime(0);
+      dynamicsWorld.updateSingleAabb(plankRB);
+      plankRestSeconds[index] = 0;
+      poseWriter.writeState(plankRB, bodyState, index);
+    }
+
+    // The contact points are from before the reset, the next step collects them anew
+    Dispatcher worldDispatcher = dynamicsWorld.getDispatcher();
+    for (int i = 0; i < worldDispatcher.getNumManifolds(); i++) {
+      worldDispatcher.getManifoldByIndexInternal(i).clearManifold();
+    }
+    stats.resetScene();
+    // Like a new scene, the simulation starts with the first throw or cylinder move
+    started = false;
+    reposed = true;
+  }
+
+  private void unfreezePlank(int index) {
+    RigidBody plankRB = plankPool[index];
+    Vector3f inertia = retirementVelocity;
+    plankRB.getCollisionShape().calculateLocalInertia(plankMasses[index], inertia);
+    plankRB.setMassProps(plankMasses[index], inertia);
+    plankRB.updateInertiaTensor();
+  }
+
+  private void removeCollisionBox() {
+    if (cylinderRB != null) {
+      dynamicsWorld.removeRigidBody(cylinderRB);
+      cylinderRB = null;
+    }
+    for (int i = 0; i < wallRBs.length; i++) {
+      if (wallRBs[i] != null) {
+        dynamicsWorld.removeRigidBody(wallRBs[i]);
+        wallRBs[i] = null;
+      }
+    }
+  }
+
+  @Override
+  public void clearScene() {
+    stopPhysicsThread();
+    for (int ball = 0; ball < ballCapacity; ball++) {
+      if (ballsInWorld[ball]) {
+        dynamicsWorld.removeRigidBody(ballRBs[ball]);
+        ballsInWorld[ball] = false;
+        ballsInFlight[ball] = false;
+        bodyState.clear(ballSlot + ball);
+      }
+    }
+    removeCollisionBox();
+
+    int plankCount = plankRBs.length;
+    for (int index = 0; index < plankCount; index++) {
+      if (plankRBs[index] != null) {
+        dynamicsWorld.removeRigidBody(plankRBs[index]);
+        plankRBs[index] = null;
+        bodyState.clear(index);
+      }
+      plankPool[index] = null;
+    }
+    dynamicsWorld.shutdown();
+    dispatcher.shutdown();
+  }
+
+  @Override
+  public String getDebugInfo() {
+    //
+    // Help print out debug info
+    //
+    StringBuilder debugInfo = new StringBuilder();
+    int numObj = dynamicsWorld.getNumCollisionObjects();
+    ObjectArrayList<CollisionObject> objArray = dynamicsWorld.getCollisionObjectArray();
+    for (int j = 0; j < numObj; ++j) {
+      CollisionObject collisionObj = objArray.get(j);
+      RigidBody body = RigidBody.upcast(collisionObj);
+      Transform worldTransform = new Transform();
+      int state = collisionObj.getActivationState();
+      if (body != null && body.getMotionState() != null) {
+        body.getMotionState().getWorldTransform(worldTransform);
+      } else {
+        collisionObj.getWorldTransform(worldTransform);
+      }
+
+      debugInfo.append(String.format("obj %d status [%d] World transform %f, %f, %f%n",
+          j, state,
+          worldTransform.origin.x, worldTransform.origin.y, worldTransform.origin.z));
+    }
+    return debugInfo.toString();
+  }
+}
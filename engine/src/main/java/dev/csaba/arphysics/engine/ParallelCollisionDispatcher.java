@@ -0,0 +1,308 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.broadphase.BroadphaseNativeType;
+import com.bulletphysics.collision.broadphase.BroadphasePair;
+import com.bulletphysics.collision.broadphase.CollisionAlgorithm;
+import com.bulletphysics.collision.broadphase.CollisionAlgorithmConstructionInfo;
+import com.bulletphysics.collision.broadphase.DispatchFunc;
+import com.bulletphysics.collision.broadphase.Dispatcher;
+import com.bulletphysics.collision.broadphase.DispatcherInfo;
+import com.bulletphysics.collision.broadphase.OverlappingPairCache;
+import com.bulletphysics.collision.dispatch.CollisionAlgorithmCreateFunc;
+import com.bulletphysics.collision.dispatch.CollisionConfiguration;
+import com.bulletphysics.collision.dispatch.CollisionDispatcher;
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.dispatch.DefaultNearCallback;
+import com.bulletphysics.collision.dispatch.ManifoldResult;
+import com.bulletphysics.collision.narrowphase.PersistentManifold;
+import com.bulletphysics.collision.shapes.CollisionShape;
+import com.bulletphysics.util.IntArrayList;
+import com.bulletphysics.util.ObjectArrayList;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Collision dispatcher running the narrowphase of the overlapping pairs on worker threads.
+ * jBullet binds its object pools to the constructing thread and the convex algorithms share
+ * the simplex and penetration solvers of their configuration. So every worker builds its own
+ * collision configuration on its own thread, and a pair always goes to the same worker,
+ * which created its algorithm and keeps using it.
+ * Manifolds added during the dispatch are put in pair order afterwards, the contacts and the
+ * manifold order are the same as with the serial CollisionDispatcher.
+ * With a single worker, or in continuous dispatch, it is the stock dispatcher.
+ */
+public class ParallelCollisionDispatcher extends CollisionDispatcher {
+
+  private static final int TYPE_COUNT = BroadphaseNativeType.MAX_BROADPHASE_COLLISION_TYPES.ordinal();
+
+  private final class Worker implements Runnable {
+    final IntArrayList pairIndices = new IntArrayList();
+    // Created on the worker thread, so the pools inside belong to it
+    private CollisionAlgorithmCreateFunc[][] createFuncs;
+    private ManifoldResult manifoldResult;
+    private final CollisionAlgorithmConstructionInfo constructionInfo =
+        new CollisionAlgorithmConstructionInfo();
+    int currentPairIndex;
+
+    @Override
+    public void run() {
+      if (createFuncs == null) {
+        currentWorker.set(this);
+        createFuncs = createFuncTable(workerConfigurations.get());
+        manifoldResult = new ManifoldResult();
+      }
+      for (int i = 0; i < pairIndices.size(); i++) {
+        currentPairIndex = pairIndices.get(i);
+        processPair(pairs.getQuick(currentPairIndex), manifoldResult);
+      }
+    }
+
+    CollisionAlgorithm findAlgorithm(CollisionObject body0, CollisionObject body1,
+                                     PersistentManifold sharedManifold) {
+      constructionInfo.dispatcher1 = ParallelCollisionDispatcher.this;
+      constructionInfo.manifold = sharedManifold;
+      CollisionAlgorithmCreateFunc createFunc =
+          createFuncs[body0.getCollisionShape().getShapeType().ordinal()]
+              [body1.getCollisionShape().getShapeType().ordinal()];
+      CollisionAlgorithm algorithm = createFunc.createCollisionAlgorithm(constructionInfo, body0, body1);
+      algorithm.internalSetCreateFunc(createFunc);
+      return algorithm;
+    }
+  }
+
+  private Supplier<CollisionConfiguration> workerConfigurations;
+  private final ThreadLocal<Worker> currentWorker = new ThreadLocal<>();
+  private int workerThreads = 1;
+  private Worker[] workers;
+  private ExecutorService[] executors;
+  private Future<?>[] futures;
+  // Algorithms of the previous workers can't be used by the new ones
+  private boolean algorithmsStale;
+  private final ManifoldResult serialManifoldResult = new ManifoldResult();
+  private ObjectArrayList<BroadphasePair> pairs;
+  private DispatcherInfo dispatchInfo;
+  // Manifolds added during the dispatch, with the index of the pair adding them
+  private boolean dispatching;
+  private int serialPairIndex;
+  private final ObjectArrayList<PersistentManifold> addedManifolds = new ObjectArrayList<>();
+  private final IntArrayList addedPairIndices = new IntArrayList();
+
+  /**
+   * @param collisionConfiguration configuration of the algorithms created on the stepping thread
+   * @param workerConfigurations creates a configuration of the same kind for each worker thread
+   */
+  public ParallelCollisionDispatcher(CollisionConfiguration collisionConfiguration,
+                                     Supplier<CollisionConfiguration> workerConfigurations) {
+    super(collisionConfiguration);
+    this.workerConfigurations = workerConfigurations;
+  }
+
+  /**
+   * Replaces the algorithms, the ones of the existing pairs are recreated by the next dispatch.
+   * @param collisionConfiguration configuration of the algorithms created on the stepping thread
+   * @param workerConfigurations creates a configuration of the same kind for each worker thread
+   */
+  public void setCollisionConfigurations(CollisionConfiguration collisionConfiguration,
+                                         Supplier<CollisionConfiguration> workerConfigurations) {
+    shutdown();
+    setCollisionConfiguration(collisionConfiguration);
+    CollisionAlgorithmCreateFunc[][] createFuncs = createFuncTable(collisionConfiguration);
+    for (int i = 0; i < TYPE_COUNT; i++) {
+      for (int j = 0; j < TYPE_COUNT; j++) {
+        registerCollisionCreateFunc(i, j, createFuncs[i][j]);
+      }
+    }
+    this.workerConfigurations = workerConfigurations;
+    algorithmsStale = true;
+  }
+
+  /**
+   * @param workerThreads number of threads running the narrowphase, 1 runs it on the stepping thread
+   */
+  public void setWorkerThreads(int workerThreads) {
+    workerThreads = Math.max(workerThreads, 1);
+    if (workerThreads != this.workerThreads) {
+      shutdown();
+      this.workerThreads = workerThreads;
+    }
+  }
+
+  public int getWorkerThreads() {
+    return workerThreads;
+  }
+
+  /**
+   * Stops the worker threads, they are started again by the next parallel dispatch.
+   */
+  public void shutdown() {
+    if (executors == null) {
+      return;
+    }
+    for (ExecutorService executor : executors) {
+      executor.shutdown();
+    }
+    executors = null;
+    workers = null;
+    algorithmsStale = true;
+  }
+
+  @Override
+  public CollisionAlgorithm findAlgorithm(CollisionObject body0, CollisionObject body1,
+                                         PersistentManifold sharedManifold) {
+    Worker worker = currentWorker.get();
+    if (worker == null) {
+      return super.findAlgorithm(body0, body1, sharedManifold);
+    }
+    return worker.findAlgorithm(body0, body1, sharedManifold);
+  }
+
+  @Override
+  public synchronized PersistentManifold getNewManifold(Object body0, Object body1) {
+    PersistentManifold manifold = super.getNewManifold(body0, body1);
+    if (dispatching) {
+      Worker worker = currentWorker.get();
+      addedManifolds.add(manifold);
+      addedPairIndices.add(worker != null ? worker.currentPairIndex : serialPairIndex);
+    }
+    return manifold;
+  }
+
+  @Override
+  public synchronized void releaseManifold(PersistentManifold manifold) {
+    super.releaseManifold(manifold);
+  }
+
+  @Override
+  public void dispatchAllCollisionPairs(OverlappingPairCache pairCache, DispatcherInfo dispatchInfo,
+                                        Dispatcher dispatcher) {
+    pairs = pairCache.getOverlappingPairArray();
+    if (algorithmsStale) {
+      for (int i = 0; i < pairs.size(); i++) {
+        pairCache.cleanOverlappingPair(pairs.getQuick(i), this);
+      }
+      algorithmsStale = false;
+    }
+    if (workerThreads < 2 || dispatchInfo.dispatchFunc != DispatchFunc.DISPATCH_DISCRETE ||
+        getNearCallback().getClass() != DefaultNearCallback.class) {
+      super.dispatchAllCollisionPairs(pairCache, dispatchInfo, dispatcher);
+      return;
+    }
+
+    if (executors == null) {
+      startWorkers();
+    }
+    this.dispatchInfo = dispatchInfo;
+    dispatching = true;
+    int manifoldCountBefore = getNumManifolds();
+    for (Worker worker : workers) {
+      worker.pairIndices.clear();
+    }
+    for (int i = 0; i < pairs.size(); i++) {
+      BroadphasePair pair = pairs.getQuick(i);
+      CollisionObject body0 = (CollisionObject) pair.pProxy0.clientObject;
+      CollisionObject body1 = (CollisionObject) pair.pProxy1.clientObject;
+      if (!needsCollision(body0, body1)) {
+        continue;
+      }
+      if (isParallelSafe(body0) && isParallelSafe(body1)) {
+        // Stable for the lifetime of the pair, so its algorithm stays with one worker
+        int hash = pair.pProxy0.getUid() * 31 + pair.pProxy1.getUid();
+        workers[(hash & Integer.MAX_VALUE) % workers.length].pairIndices.add(i);
+      } else {
+        // Compound and concave algorithms add and release child manifolds while processing
+        serialPairIndex = i;
+        processPair(pair, serialManifoldResult);
+      }
+    }
+
+    for (int i = 0; i < workers.length; i++) {
+      futures[i] = executors[i].submit(workers[i]);
+    }
+    try {
+      for (int i = 0; i < workers.length; i++) {
+        futures[i].get();
+        futures[i] = null;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted during the narrowphase", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Narrowphase worker failed", e.getCause());
+    } finally {
+      dispatching = false;
+    }
+    restorePairOrder(manifoldCountBefore);
+    addedManifolds.clear();
+    addedPairIndices.clear();
+  }
+
+  private void processPair(BroadphasePair pair, ManifoldResult manifoldResult) {
+    CollisionObject body0 = (CollisionObject) pair.pProxy0.clientObject;
+    CollisionObject body1 = (CollisionObject) pair.pProxy1.clientObject;
+    if (pair.algorithm == null) {
+      pair.algorithm = findAlgorithm(body0, body1);
+    }
+    if (pair.algorithm != null) {
+      manifoldResult.init(body0, body1);
+      pair.algorithm.processCollision(body0, body1, dispatchInfo, manifoldResult);
+    }
+  }
+
+  // The serial dispatcher appends the new manifolds in pair order, the island solve depends on it
+  private void restorePairOrder(int manifoldCountBefore) {
+    int count = addedManifolds.size();
+    // Insertion sort, stable and there are only a few new manifolds per step
+    for (int i = 1; i < count; i++) {
+      PersistentManifold manifold = addedManifolds.getQuick(i);
+      int pairIndex = addedPairIndices.get(i);
+      int j = i - 1;
+      while (j >= 0 && addedPairIndices.get(j) > pairIndex) {
+        addedManifolds.setQuick(j + 1, addedManifolds.getQuick(j));
+        addedPairIndices.set(j + 1, addedPairIndices.get(j));
+        j--;
+      }
+      addedManifolds.setQuick(j + 1, manifold);
+      addedPairIndices.set(j + 1, pairIndex);
+    }
+    ObjectArrayList<PersistentManifold> manifolds = getInternalManifoldPointer();
+    for (int i = 0; i < count; i++) {
+      PersistentManifold manifold = addedManifolds.getQuick(i);
+      manifolds.setQuick(manifoldCountBefore + i, manifold);
+      manifold.index1a = manifoldCountBefore + i;
+    }
+  }
+
+  private void startWorkers() {
+    workers = new Worker[workerThreads];
+    executors = new ExecutorService[workerThreads];
+    futures = new Future<?>[workerThreads];
+    for (int i = 0; i < workerThreads; i++) {
+      workers[i] = new Worker();
+      executors[i] = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "NarrowphaseWorker");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  private static boolean isParallelSafe(CollisionObject body) {
+    CollisionShape shape = body.getCollisionShape();
+    return shape.isConvex() || shape.getShapeType() == BroadphaseNativeType.STATIC_PLANE_PROXYTYPE;
+  }
+
+  private static CollisionAlgorithmCreateFunc[][] createFuncTable(CollisionConfiguration configuration) {
+    CollisionAlgorithmCreateFunc[][] createFuncs = new CollisionAlgorithmCreateFunc[TYPE_COUNT][TYPE_COUNT];
+    for (int i = 0; i < TYPE_COUNT; i++) {
+      for (int j = 0; j < TYPE_COUNT; j++) {
+        createFuncs[i][j] = configuration.getCollisionAlgorithmCreateFunc(
+            BroadphaseNativeType.forValue(i), BroadphaseNativeType.forValue(j));
+      }
+    }
+    return createFuncs;
+  }
+}
@@ -0,0 +1,218 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.broadphase.BroadphaseInterface;
+import com.bulletphysics.collision.broadphase.Dispatcher;
+import com.bulletphysics.collision.dispatch.CollisionConfiguration;
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.dispatch.SimulationIslandManager;
+import com.bulletphysics.collision.narrowphase.PersistentManifold;
+import com.bulletphysics.dynamics.constraintsolver.ConstraintSolver;
+import com.bulletphysics.dynamics.constraintsolver.ContactSolverInfo;
+import com.bulletphysics.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import com.bulletphysics.util.ObjectArrayList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Dynamics world solving the contacts of independent simulation islands in parallel.
+ * Islands share no dynamic body, so their solves don't interfere: static and kinematic
+ * bodies get a private solver body per island and are never written back.
+ * Every worker thread has its own solver, jBullet solvers keep per thread pools.
+ * The stock solver draws the randomized constraint order from one random sequence shared by
+ * all islands. Here the sequence is seeded for every island from the island and the step, so
+ * the outcome of an island only depends on the island, not on the thread or the order it was
+ * solved in, and a step gives the same result whatever the number of solver threads.
+ * A single solver thread goes through the same islands on the stepping thread. Only worlds
+ * with constraints use the stock solve.
+ */
+public class ParallelIslandDynamicsWorld extends ContinuousCollisionDynamicsWorld {
+
+  // Islands with fewer manifolds together are solved as one task
+  private static final int MIN_TASK_MANIFOLDS = 16;
+  // Island ids are indices of the collision objects, the seeds of one step never repeat
+  // the seeds of another one below this many objects
+  private static final long ISLAND_SEED_STRIDE = 1 << 20;
+
+  private static final class Island implements Comparable<Island> {
+    final ObjectArrayList<CollisionObject> bodies = new ObjectArrayList<>();
+    ObjectArrayList<PersistentManifold> manifolds;
+    int manifoldOffset;
+    int manifoldCount;
+    int islandId;
+
+    @Override
+    public int compareTo(Island other) {
+      // Biggest first, so the long solves start early
+      if (manifoldCount != other.manifoldCount) {
+        return manifoldCount > other.manifoldCount ? -1 : 1;
+      }
+      return Integer.compare(islandId, other.islandId);
+    }
+  }
+
+  private final class IslandCollector extends SimulationIslandManager.IslandCallback {
+    @Override
+    public void processIsland(ObjectArrayList<CollisionObject> bodies, int numBodies,
+                              ObjectArrayList<PersistentManifold> manifolds, int manifoldOffset,
+                              int numManifolds, int islandId) {
+      if (numManifolds == 0) {
+        return;
+      }
+      // The manager reuses the body list, the manifold array stays intact until the next build
+      Island island;
+      if (islandCount < islandPool.size()) {
+        island = islandPool.get(islandCount);
+        island.bodies.clear();
+      } else {
+        island = new Island();
+        islandPool.add(island);
+      }
+      for (int i = 0; i < numBodies; i++) {
+        island.bodies.add(bodies.getQuick(i));
+      }
+      island.manifolds = manifolds;
+      island.manifoldOffset = manifoldOffset;
+      island.manifoldCount = numManifolds;
+      island.islandId = islandId;
+      islandCount++;
+    }
+  }
+
+  private final class SolveTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int start;
+    private final int end;
+
+    SolveTask(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      int manifolds = 0;
+      for (int i = start; i < end; i++) {
+        manifolds += islands.get(i).manifoldCount;
+      }
+      if (end - start == 1 || manifolds < MIN_TASK_MANIFOLDS) {
+        SequentialImpulseConstraintSolver solver = solvers.get();
+        for (int i = start; i < end; i++) {
+          solveIsland(solver, islands.get(i));
+        }
+        return;
+      }
+      int middle = (start + end) >>> 1;
+      invokeAll(new SolveTask(start, middle), new SolveTask(middle, end));
+    }
+  }
+
+  private final ArrayList<Island> islandPool = new ArrayList<>();
+  private final ArrayList<Island> islands = new ArrayList<>();
+  private int islandCount;
+  private final IslandCollector islandCollector = new IslandCollector();
+  // Created on the thread using it, jBullet binds its object pools to the constructing thread
+  private final ThreadLocal<SequentialImpulseConstraintSolver> solvers =
+      new ThreadLocal<SequentialImpulseConstraintSolver>() {
+        @Override
+        protected SequentialImpulseConstraintSolver initialValue() {
+          return new SequentialImpulseConstraintSolver();
+        }
+      };
+  private int solverThreads = 1;
+  // Contact solves since the world started, seeds the constraint order of the islands
+  private long solveCount;
+  private ForkJoinPool pool;
+  private final ContactSolverInfo islandSolverInfo = new ContactSolverInfo();
+
+  public ParallelIslandDynamicsWorld(Dispatcher dispatcher, BroadphaseInterface pairCache,
+                                     ConstraintSolver constraintSolver,
+                                     CollisionConfiguration collisionConfiguration) {
+    super(dispatcher, pairCache, constraintSolver, collisionConfiguration);
+  }
+
+  /**
+   * @param solverThreads number of threads solving islands, 1 solves them on the stepping thread
+   */
+  public void setSolverThreads(int solverThreads) {
+    this.solverThreads = Math.max(solverThreads, 1);
+    shutdown();
+  }
+
+  public int getSolverThreads() {
+    return solverThreads;
+  }
+
+  /**
+   * Stops the worker threads, they are started again by the next parallel solve.
+   */
+  public void shutdown() {
+    if (pool != null) {
+      pool.shutdown();
+      pool = null;
+    }
+  }
+
+  @Override
+  protected void solveConstraints(ContactSolverInfo solverInfo) {
+    if (getNumConstraints() > 0) {
+      super.solveConstraints(solverInfo);
+      return;
+    }
+
+    solveCount++;
+    islandCount = 0;
+    getSimulationIslandManager().buildAndProcessIslands(
+        getCollisionWorld().getDispatcher(), getCollisionWorld().getCollisionObjectArray(),
+        islandCollector);
+    islands.clear();
+    for (int i = 0; i < islandCount; i++) {
+      islands.add(islandPool.get(i));
+    }
+    if (islands.isEmpty()) {
+      return;
+    }
+    Collections.sort(islands);
+    copySolverInfo(solverInfo, islandSolverInfo);
+
+    if (solverThreads < 2) {
+      SequentialImpulseConstraintSolver solver = solvers.get();
+      for (int i = 0; i < islands.size(); i++) {
+        solveIsland(solver, islands.get(i));
+      }
+      return;
+    }
+    if (pool == null) {
+      pool = new ForkJoinPool(solverThreads);
+    }
+    pool.invoke(new SolveTask(0, islands.size()));
+  }
+
+  private void solveIsland(SequentialImpulseConstraintSolver solver, Island island) {
+    solver.setRandSeed(solveCount * ISLAND_SEED_STRIDE + island.islandId);
+    solver.solveGroup(island.bodies, island.bodies.size(), island.manifolds, island.manifoldOffset,
+        island.manifoldCount, null, 0, 0, islandSolverInfo, debugDrawer, getCollisionWorld().getDispatcher());
+  }
+
+  // The copy constructor of ContactSolverInfo leaves out half of the fields
+  private static void copySolverInfo(ContactSolverInfo source, ContactSolverInfo target) {
+    target.tau = source.tau;
+    target.damping = source.damping;
+    target.friction = source.friction;
+    target.timeStep = source.timeStep;
+    target.restitution = source.restitution;
+    target.numIterations = source.numIterations;
+    target.maxErrorReduction = source.maxErrorReduction;
+    target.sor = source.sor;
+    target.erp = source.erp;
+    target.erp2 = source.erp2;
+    target.splitImpulse = source.splitImpulse;
+    target.splitImpulsePenetrationThreshold = source.splitImpulsePenetrationThreshold;
+    target.linearSlop = source.linearSlop;
+    target.warmstartingFactor = source.warmstartingFactor;
+    target.solverMode = source.solverMode;
+  }
+}
@@ -0,0 +1,165 @@
+package dev.csaba.arphysics.engine;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * A physics backend simulating a scenario. Bodies are addressed by their pose slot:
+ * planks by their index, ball i of the pool by getBallSlot() + i. Poses are laid out in
+ * PoseSnapshot.STRIDE sized slots (translation followed by the rotation quaternion).
+ */
+public interface PhysicsEngine {
+
+  /**
+   * Configures the fixed time step stepping.
+   * @param fixedTimeStep simulated seconds per sub-step, 0 selects a variable step
+   * @param maxSubSteps maximum number of sub-steps performed in one update call
+   */
+  void setFixedTimeStep(float fixedTimeStep, int maxSubSteps);
+
+  /**
+   * @param solverThreads number of threads solving independent simulation islands in parallel,
+   * 1 keeps the solving on the stepping thread
+   */
+  void setSolverThreads(int solverThreads);
+
+  /**
+   * @param narrowphaseThreads number of threads generating the contacts of the overlapping pairs,
+   * 1 keeps the narrowphase on the stepping thread
+   */
+  void setNarrowphaseThreads(int narrowphaseThreads);
+
+  /**
+   * Switches the solver iterations, the sub-step limit and the sleeping thresholds,
+   * see QualityGovernor. Applies to the bodies already added as well.
+   */
+  void setQuality(QualityLevel quality);
+
+  /**
+   * Fed by the stepping thread after every step, which also switches to the quality
+   * the governor picks. Starts from the full quality, null keeps the current one.
+   */
+  void setQualityGovernor(QualityGovernor governor);
+
+  /**
+   * Continuous collision detection: a sub-step moving a body farther than motionThreshold is
+   * swept and stopped at the first body in its way, so a fast ball can't pass through a plank
+   * between two sub-steps. Applies to the bodies already added as well.
+   * @param motionThreshold meters per sub-step, 0 turns it off
+   * @param planks whether fast planks are swept too, not only the ball
+   */
+  void setContinuousCollision(float motionThreshold, boolean planks);
+
+  /**
+   * Stops simulating the planks that left the world bounds or were knocked off and came to rest,
+   * see RetirementPolicy. A removed plank's pose slot is cleared, a frozen one keeps its pose.
+   * The balls are thrown from outside the bounds, they keep returning to the pool by range.
+   * Applies to the bodies already added as well.
+   * @param policy null keeps every body in the simulation
+   */
+  void setRetirement(RetirementPolicy policy);
+
+  /**
+   * Moves the stepping to a dedicated thread, update then only picks up the latest poses.
+   * The simulated time resumes from the start, the time the thread was stopped is skipped.
+   */
+  void startPhysicsThread();
+
+  /**
+   * Stops the stepping thread, nothing moves until it is started again or update steps inline.
+   */
+  void stopPhysicsThread();
+
+  int getPlankCount();
+
+  /**
+   * @return pose slot of the first ball of the pool
+   */
+  int getBallSlot();
+
+  /**
+   * @return number of balls in the pool, each has its own pose slot
+   */
+  int getBallCapacity();
+
+  int getPoseCount();
+
+  PhysicsStats getStats();
+
+  /**
+   * State of all the bodies, refreshed after every step by the stepping thread.
+   * Only consistent when read from that thread or while the physics thread is stopped.
+   */
+  BodyStateBuffer getBodyState();
+
+  /**
+   * Logs the inputs and the outcome of every step from now on, null stops the recording.
+   * Attach it before adding the bodies, the recorder is not closed by the engine.
+   */
+  void setRecorder(SimulationRecorder recorder);
+
+  /**
+   * Called by the stepping thread after every step, null removes the listener.
+   */
+  void setStepListener(StepListener listener);
+
+  /**
+   * Launches the first ball of the pool, see launchBall.
+   */
+  void addBallRigidBody(Vector3f ballPosition, Vector3f velocity);
+
+  /**
+   * Puts a ball of the pool into play, relaunching it if it is still in flight. Balls return
+   * to the pool by themselves once they fall asleep or fly out of range, their pose slot is
+   * cleared then.
+   * @param ball index of the ball in the pool, below getBallCapacity()
+   */
+  void launchBall(int ball, Vector3f position, Vector3f velocity);
+
+  /**
+   * Adds the kinematic cylinder of the collision box together with the walls of the box.
+   */
+  void addCylinderKineticBody(Vector3f cylinderPosition);
+
+  void addPlankRigidBody(int index, Vector3f plankBox, Vector3f plankPosition);
+
+  /**
+   * Adds every plank of the layout in one go, plank i taking pose slot i.
+   */
+  void addStructure(StructureLayout layout);
+
+  void updateCylinderLocation(Vector3f cylinderPosition);
+
+  /**
+   * Advances the simulation by the wall clock time elapsed since the previous call.
+   * @param cylinderPosition latest position of the cylinder, null if there is none
+   * @return the poses to display, or null if there is nothing new to show
+   */
+  float[] update(Vector3f cylinderPosition);
+
+  /**
+   * Advances the simulation by timeDelta seconds regardless of the wall clock.
+   * @return the number of simulation sub-steps performed
+   */
+  int step(float timeDelta);
+
+  /**
+   * Writes the current pose of every body into poses, slots of missing bodies are cleared.
+   */
+  void writePoses(float[] poses);
+
+  /**
+   * Restarts the scene without rebuilding it: the planks go back where they were added,
+   * retired ones included, the balls return to the pool and the cylinder with the walls of
+   * the box is taken out. The world, the broadphase, the solver and the bodies are reused,
+   * the simulation waits for the next throw or cylinder move like a new scene does.
+   * The poses of the planks are returned by the next update.
+   */
+  void resetScene();
+
+  /**
+   * Removes every body of the scene and stops the physics thread.
+   */
+  void clearScene();
+
+  String getDebugInfo();
+}
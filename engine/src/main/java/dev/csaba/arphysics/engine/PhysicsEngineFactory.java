@@ -0,0 +1,45 @@
+package dev.csaba.arphysics.engine;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+/**
+ * Creates the physics engine selected by the engine preference. The factory outlives
+ * the scenes, so caches of an engine (like the jBullet plank shapes) are kept across rebuilds.
+ */
+public class PhysicsEngineFactory {
+
+  // Values of the engine_type_value array
+  public static final String JBULLET = "jbullet";
+  public static final String JMONKEY = "jmonkey";
+  public static final String SCENEFORM_BULLET = "sfbullet";
+  public static final String VIROCORE = "virocore";
+  public static final String DEFAULT_ENGINE = JBULLET;
+  public static final BroadphaseType DEFAULT_BROADPHASE = BroadphaseType.Dbvt;
+
+  private final ShapeCache shapeCache = new ShapeCache();
+
+  public static boolean isSupported(String engineType) {
+    return JBULLET.equals(engineType);
+  }
+
+  /**
+   * @throws IllegalArgumentException if the engine type is not (yet) available
+   */
+  public PhysicsEngine create(String engineType, ModelParameters modelParameters,
+                              SimulationScenario simulationScenario) {
+    return create(engineType, modelParameters, simulationScenario, DEFAULT_BROADPHASE);
+  }
+
+  /**
+   * @param broadphaseType broadphase of the engines with a choice, ignored by the others
+   * @throws IllegalArgumentException if the engine type is not (yet) available
+   */
+  public PhysicsEngine create(String engineType, ModelParameters modelParameters,
+                              SimulationScenario simulationScenario, BroadphaseType broadphaseType) {
+    if (JBULLET.equals(engineType)) {
+      return new JBulletSimulation(modelParameters, simulationScenario, shapeCache, broadphaseType);
+    }
+    throw new IllegalArgumentException("Unsupported physics engine: " + engineType);
+  }
+}
@@ -0,0 +1,176 @@
+package dev.csaba.arphysics.engine;
+
+import java.util.Locale;
+
+/**
+ * Per frame instrumentation of the simulation with rolling min / avg / p95 values.
+ * Steps are recorded by the stepping thread, the pose sync by the render thread.
+ */
+public class PhysicsStats {
+
+  public static final int DEFAULT_WINDOW_SIZE = 120;
+
+  private final RollingStat stepMillis;
+  private final RollingStat subSteps;
+  private final RollingStat activeBodies;
+  private final RollingStat sleepingBodies;
+  private final RollingStat manifolds;
+  private final RollingStat syncMillis;
+  private final RollingStat syncedBodies;
+  private final RollingStat retiredBodies;
+  private volatile int qualityLevel;
+  private volatile int qualityChanges;
+  private volatile int removedBodies;
+  private volatile int frozenBodies;
+
+  public PhysicsStats() {
+    this(DEFAULT_WINDOW_SIZE);
+  }
+
+  public PhysicsStats(int windowSize) {
+    stepMillis = new RollingStat(windowSize);
+    subSteps = new RollingStat(windowSize);
+    activeBodies = new RollingStat(windowSize);
+    sleepingBodies = new RollingStat(windowSize);
+    manifolds = new RollingStat(windowSize);
+    syncMillis = new RollingStat(windowSize);
+    syncedBodies = new RollingStat(windowSize);
+    retiredBodies = new RollingStat(windowSize);
+  }
+
+  public void recordStep(long stepNanos, int subStepCount, int activeCount, int sleepingCount,
+                         int manifoldCount) {
+    stepMillis.add(stepNanos / 1e6f);
+    subSteps.add(subStepCount);
+    activeBodies.add(activeCount);
+    sleepingBodies.add(sleepingCount);
+    manifolds.add(manifoldCount);
+  }
+
+  public void recordSync(long syncNanos, int syncedCount) {
+    syncMillis.add(syncNanos / 1e6f);
+    syncedBodies.add(syncedCount);
+  }
+
+  /**
+   * Bodies retired by the step, see RetirementPolicy.
+   */
+  public void recordRetirement(int removedCount, int frozenCount) {
+    retiredBodies.add(removedCount + frozenCount);
+    removedBodies += removedCount;
+    frozenBodies += frozenCount;
+  }
+
+  /**
+   * @param level the quality level switched to, see QualityGovernor
+   */
+  public void recordQualityChange(int level) {
+    qualityLevel = level;
+    qualityChanges++;
+  }
+
+  public int getQualityLevel() {
+    return qualityLevel;
+  }
+
+  public int getQualityChanges() {
+    return qualityChanges;
+  }
+
+  /**
+   * @return bodies removed since the scene started
+   */
+  public int getRemovedBodies() {
+    return removedBodies;
+  }
+
+  /**
+   * @return bodies frozen in place since the scene started
+   */
+  public int getFrozenBodies() {
+    return frozenBodies;
+  }
+
+  public RollingStat getStepMillis() {
+    return stepMillis;
+  }
+
+  public RollingStat getSubSteps() {
+    return subSteps;
+  }
+
+  public RollingStat getActiveBodies() {
+    return activeBodies;
+  }
+
+  public RollingStat getSleepingBodies() {
+    return sleepingBodies;
+  }
+
+  public RollingStat getManifolds() {
+    return manifolds;
+  }
+
+  public RollingStat getSyncMillis() {
+    return syncMillis;
+  }
+
+  public RollingStat getSyncedBodies() {
+    return syncedBodies;
+  }
+
+  /**
+   * @return bodies retired per step
+   */
+  public RollingStat getRetiredBodies() {
+    return retiredBodies;
+  }
+
+  /**
+   * Starts the totals of a restarted scene, the rolling windows and the quality level carry on.
+   */
+  public void resetScene() {
+    removedBodies = 0;
+    frozenBodies = 0;
+  }
+
+  public void clear() {
+    stepMillis.clear();
+    subSteps.clear();
+    activeBodies.clear();
+    sleepingBodies.clear();
+    manifolds.clear();
+    syncMillis.clear();
+    syncedBodies.clear();
+    retiredBodies.clear();
+    qualityLevel = 0;
+    qualityChanges = 0;
+    removedBodies = 0;
+    frozenBodies = 0;
+  }
+
+  /**
+   * @return one line per metric with min / avg / p95 over the window,
+   * then the quality level and the number of level changes, then the bodies removed and
+   * frozen since the scene started
+   */
+  public String[] format() {
+    return new String[] {
+        formatLine("step ms", stepMillis),
+        formatLine("sub-steps", subSteps),
+        formatLine("active", activeBodies),
+        formatLine("sleeping", sleepingBodies),
+        formatLine("manifolds", manifolds),
+        formatLine("sync ms", syncMillis),
+        formatLine("synced", syncedBodies),
+        formatLine("retired", retiredBodies),
+        String.format(Locale.US, "%-10s %7d %7d", "quality", qualityLevel, qualityChanges),
+        String.format(Locale.US, "%-10s %7d %7d", "rm/frozen", removedBodies, frozenBodies)
+    };
+  }
+
+  private static String formatLine(String name, RollingStat stat) {
+    return String.format(Locale.US, "%-10s %7.2f %7.2f %7.2f",
+        name, stat.getMin(), stat.getAverage(), stat.getPercentile(95));
+  }
+}
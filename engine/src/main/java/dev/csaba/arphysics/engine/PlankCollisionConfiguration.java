@@ -0,0 +1,37 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.broadphase.BroadphaseNativeType;
+import com.bulletphysics.collision.dispatch.CollisionAlgorithmCreateFunc;
+import com.bulletphysics.collision.dispatch.DefaultCollisionConfiguration;
+
+/**
+ * The default collision configuration with dedicated algorithms for the plank pairs:
+ * box against box and box against the static planes. Every other pair keeps its default.
+ */
+public class PlankCollisionConfiguration extends DefaultCollisionConfiguration {
+
+  private final CollisionAlgorithmCreateFunc boxBoxCreateFunc = new BoxBoxCollisionAlgorithm.CreateFunc();
+  private final CollisionAlgorithmCreateFunc boxPlaneCreateFunc = new BoxPlaneCollisionAlgorithm.CreateFunc();
+  private final CollisionAlgorithmCreateFunc planeBoxCreateFunc = new BoxPlaneCollisionAlgorithm.CreateFunc();
+
+  public PlankCollisionConfiguration() {
+    planeBoxCreateFunc.swapped = true;
+  }
+
+  @Override
+  public CollisionAlgorithmCreateFunc getCollisionAlgorithmCreateFunc(BroadphaseNativeType proxyType0,
+                                                                      BroadphaseNativeType proxyType1) {
+    if (proxyType0 == BroadphaseNativeType.BOX_SHAPE_PROXYTYPE) {
+      if (proxyType1 == BroadphaseNativeType.BOX_SHAPE_PROXYTYPE) {
+        return boxBoxCreateFunc;
+      }
+      if (proxyType1 == BroadphaseNativeType.STATIC_PLANE_PROXYTYPE) {
+        return boxPlaneCreateFunc;
+      }
+    } else if (proxyType0 == BroadphaseNativeType.STATIC_PLANE_PROXYTYPE &&
+        proxyType1 == BroadphaseNativeType.BOX_SHAPE_PROXYTYPE) {
+      return planeBoxCreateFunc;
+    }
+    return super.getCollisionAlgorithmCreateFunc(proxyType0, proxyType1);
+  }
+}
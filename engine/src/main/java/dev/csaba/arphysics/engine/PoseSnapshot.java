@@ -0,0 +1,69 @@
+package dev.csaba.arphysics.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free hand-over of body poses from the physics thread to the render thread.
+ * Every pose occupies STRIDE floats: translation (x, y, z) followed by the rotation
+ * quaternion (x, y, z, w). A slot with an all zero quaternion was never written.
+ * Besides the buffer being written and the one being read a third one is kept
+ * in the middle, so neither side ever has to wait for the other.
+ */
+public class PoseSnapshot {
+
+  public static final int STRIDE = 7;
+
+  private static final int INDEX_MASK = 0x3;
+  private static final int FRESH_FLAG = 0x4;
+
+  private final float[][] buffers;
+  private final AtomicInteger middle;
+  // Owned by the writer (physics) thread
+  private int writeIndex;
+  // Owned by the reader (render) thread
+  private int readIndex;
+
+  public PoseSnapshot(int poseCount) {
+    buffers = new float[3][poseCount * STRIDE];
+    writeIndex = 0;
+    middle = new AtomicInteger(1);
+    readIndex = 2;
+  }
+
+  public float[] getWriteBuffer() {
+    return buffers[writeIndex];
+  }
+
+  public void publish() {
+    int previous = middle.getAndSet(writeIndex | FRESH_FLAG);
+    writeIndex = previous & INDEX_MASK;
+  }
+
+  /**
+   * @return the most recently published poses, or the previously returned ones
+   * if nothing new was published since.
+   */
+  public float[] acquire() {
+    if ((middle.get() & FRESH_FLAG) != 0) {
+      int previous = middle.getAndSet(readIndex);
+      readIndex = previous & INDEX_MASK;
+    }
+    return buffers[readIndex];
+  }
+
+  public static boolean isWritten(float[] poses, int slot) {
+    int offset = slot * STRIDE;
+    return poses[offset + 3] != 0 || poses[offset + 4] != 0 ||
+        poses[offset + 5] != 0 || poses[offset + 6] != 0;
+  }
+
+  /**
+   * Marks the slot empty, for bodies taken out of play.
+   */
+  public static void clear(float[] poses, int slot) {
+    int offset = slot * STRIDE;
+    for (int i = offset + 3; i < offset + STRIDE; i++) {
+      poses[i] = 0;
+    }
+  }
+}
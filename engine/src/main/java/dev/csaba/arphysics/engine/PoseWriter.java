@@ -0,0 +1,93 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.dynamics.RigidBody;
+import com.bulletphysics.linearmath.Transform;
+
+import javax.vecmath.Matrix3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * Copies rigid body poses into a primitive pose buffer (see PoseSnapshot for the layout)
+ * without allocating: the motion state is read into a reused scratch transform and
+ * the rotation quaternion is derived straight from its basis.
+ * Not thread safe, every stepping thread needs its own instance.
+ */
+public class PoseWriter {
+
+  private final Transform scratchTransform = new Transform();
+  private final Vector3f scratchVelocity = new Vector3f();
+
+  public void write(RigidBody rigidBody, float[] poses, int slot) {
+    if (rigidBody.isActive()) {
+      rigidBody.getMotionState().getWorldTransform(scratchTransform);
+    } else {
+      // The interpolated motion state keeps drifting by the leftover time even for
+      // sleeping bodies, the simulated transform is stable so unchanged poses can be detected.
+      rigidBody.getWorldTransform(scratchTransform);
+    }
+    int offset = slot * PoseSnapshot.STRIDE;
+    poses[offset] = scratchTransform.origin.x;
+    poses[offset + 1] = scratchTransform.origin.y;
+    poses[offset + 2] = scratchTransform.origin.z;
+    writeRotation(scratchTransform.basis, poses, offset + 3);
+  }
+
+  /**
+   * Copies the simulated (not interpolated) transform and the velocities of the body.
+   */
+  public void writeState(RigidBody rigidBody, BodyStateBuffer state, int slot) {
+    rigidBody.getWorldTransform(scratchTransform);
+    int offset = slot * 3;
+    float[] positions = state.getPositions();
+    positions[offset] = scratchTransform.origin.x;
+    positions[offset + 1] = scratchTransform.origin.y;
+    positions[offset + 2] = scratchTransform.origin.z;
+    writeRotation(scratchTransform.basis, state.getRotations(), slot * 4);
+
+    rigidBody.getLinearVelocity(scratchVelocity);
+    float[] linearVelocities = state.getLinearVelocities();
+    linearVelocities[offset] = scratchVelocity.x;
+    linearVelocities[offset + 1] = scratchVelocity.y;
+    linearVelocities[offset + 2] = scratchVelocity.z;
+
+    rigidBody.getAngularVelocity(scratchVelocity);
+    float[] angularVelocities = state.getAngularVelocities();
+    angularVelocities[offset] = scratchVelocity.x;
+    angularVelocities[offset + 1] = scratchVelocity.y;
+    angularVelocities[offset + 2] = scratchVelocity.z;
+  }
+
+  // Same conversion as jBullet's MatrixUtil.getRotation, minus the pooled temporary array
+  static void writeRotation(Matrix3f m, float[] poses, int offset) {
+    float trace = m.m00 + m.m11 + m.m22;
+    if (trace > 0.0f) {
+      float s = (float)Math.sqrt(trace + 1.0f);
+      poses[offset + 3] = s * 0.5f;
+      s = 0.5f / s;
+      poses[offset] = (m.m21 - m.m12) * s;
+      poses[offset + 1] = (m.m02 - m.m20) * s;
+      poses[offset + 2] = (m.m10 - m.m01) * s;
+    } else if (m.m00 >= m.m11 && m.m00 >= m.m22) {
+      float s = (float)Math.sqrt(m.m00 - m.m11 - m.m22 + 1.0f);
+      poses[offset] = s * 0.5f;
+      s = 0.5f / s;
+      poses[offset + 3] = (m.m21 - m.m12) * s;
+      poses[offset + 1] = (m.m10 + m.m01) * s;
+      poses[offset + 2] = (m.m20 + m.m02) * s;
+    } else if (m.m11 >= m.m22) {
+      float s = (float)Math.sqrt(m.m11 - m.m22 - m.m00 + 1.0f);
+      poses[offset + 1] = s * 0.5f;
+      s = 0.5f / s;
+      poses[offset + 3] = (m.m02 - m.m20) * s;
+      poses[offset + 2] = (m.m21 + m.m12) * s;
+      poses[offset] = (m.m01 + m.m10) * s;
+    } else {
+      float s = (float)Math.sqrt(m.m22 - m.m00 - m.m11 + 1.0f);
+      poses[offset + 2] = s * 0.5f;
+      s = 0.5f / s;
+      poses[offset + 3] = (m.m10 - m.m01) * s;
+      poses[offset] = (m.m02 + m.m20) * s;
+      poses[offset + 1] = (m.m12 + m.m21) * s;
+    }
+  }
+}
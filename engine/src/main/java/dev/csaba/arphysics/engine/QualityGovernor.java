@@ -0,0 +1,109 @@
+package dev.csaba.arphysics.engine;
+
+/**
+ * Picks the quality level keeping the physics step time within a budget.
+ * The step times are summed up per frame and averaged over a window of frames, so the many
+ * short steps of the physics thread are measured the same way as one step per rendered
+ * frame. The level drops as soon as a window
+ * exceeds the budget, but only rises again after several windows well below it, and every
+ * change starts a new window. That keeps a level switch from flipping back right away when
+ * the cheaper settings bring the step time just below the budget.
+ */
+public class QualityGovernor {
+
+  // Physics share of the 33 ms frame of a 30 FPS session, the rest is rendering and tracking
+  public static final float DEFAULT_BUDGET_MILLIS = 12.0f;
+
+  // From the full quality down to the cheapest settings still keeping a tower standing
+  static final QualityLevel[] LEVELS = {
+      QualityLevel.FULL,
+      new QualityLevel(8, 6, 1.0f, 1.2f),
+      new QualityLevel(6, 4, 1.2f, 1.5f),
+      new QualityLevel(5, 3, 1.5f, 1.8f),
+      new QualityLevel(4, 2, 2.0f, 2.4f)
+  };
+
+  // The budget is per frame of a 30 FPS session
+  private static final float FRAMES_PER_SECOND = 30.0f;
+  private static final float WINDOW_FRAMES = 30.0f;
+  // A window counts as cheap below this fraction of the budget
+  private static final float RAISE_FRACTION = 0.6f;
+  private static final int RAISE_WINDOWS = 3;
+
+  private final float budgetMillis;
+  private int level;
+  private float windowSum;
+  private float windowFrames;
+  private int cheapWindows;
+
+  public QualityGovernor() {
+    this(DEFAULT_BUDGET_MILLIS);
+  }
+
+  /**
+   * @param budgetMillis step time the governor aims to stay below
+   */
+  public QualityGovernor(float budgetMillis) {
+    this.budgetMillis = budgetMillis;
+  }
+
+  /**
+   * Adds the step time of a frame.
+   * @return true if the quality level changed, see getQuality
+   */
+  public boolean addStepTime(float stepMillis) {
+    return addFrames(stepMillis, 1.0f);
+  }
+
+  /**
+   * Adds the step time of a step covering the given wall clock time.
+   * @return true if the quality level changed, see getQuality
+   */
+  public boolean addStepTime(float stepMillis, float seconds) {
+    return addFrames(stepMillis, seconds * FRAMES_PER_SECOND);
+  }
+
+  private boolean addFrames(float stepMillis, float frames) {
+    windowSum += stepMillis;
+    windowFrames += frames;
+    if (windowFrames < WINDOW_FRAMES) {
+      return false;
+    }
+    float average = windowSum / windowFrames;
+    windowSum = 0;
+    windowFrames = 0;
+
+    if (average > budgetMillis) {
+      cheapWindows = 0;
+      if (level < LEVELS.length - 1) {
+        level++;
+        return true;
+      }
+    } else if (average < budgetMillis * RAISE_FRACTION && level > 0) {
+      cheapWindows++;
+      if (cheapWindows >= RAISE_WINDOWS) {
+        cheapWindows = 0;
+        level--;
+        return true;
+      }
+    } else {
+      cheapWindows = 0;
+    }
+    return false;
+  }
+
+  public float getBudgetMillis() {
+    return budgetMillis;
+  }
+
+  /**
+   * @return 0 for the full quality, higher for cheaper settings
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  public QualityLevel getQuality() {
+    return LEVELS[level];
+  }
+}
@@ -0,0 +1,54 @@
+package dev.csaba.arphysics.engine;
+
+import java.util.Locale;
+
+/**
+ * Simulation settings traded against the step time, see QualityGovernor.
+ */
+public final class QualityLevel {
+
+  // The settings the simulation was tuned with
+  public static final QualityLevel FULL =
+      new QualityLevel(10, JBulletSimulation.DEFAULT_MAX_SUB_STEPS, 0.8f, 1.0f);
+
+  private final int solverIterations;
+  private final int maxSubSteps;
+  private final float linearSleepingThreshold;
+  private final float angularSleepingThreshold;
+
+  /**
+   * @param solverIterations iterations of the sequential impulse solver per sub-step
+   * @param maxSubSteps upper limit of the configured maximum sub-steps per update
+   * @param linearSleepingThreshold speed below which a body may fall asleep
+   * @param angularSleepingThreshold angular speed below which a body may fall asleep
+   */
+  public QualityLevel(int solverIterations, int maxSubSteps, float linearSleepingThreshold,
+                      float angularSleepingThreshold) {
+    this.solverIterations = solverIterations;
+    this.maxSubSteps = maxSubSteps;
+    this.linearSleepingThreshold = linearSleepingThreshold;
+    this.angularSleepingThreshold = angularSleepingThreshold;
+  }
+
+  public int getSolverIterations() {
+    return solverIterations;
+  }
+
+  public int getMaxSubSteps() {
+    return maxSubSteps;
+  }
+
+  public float getLinearSleepingThreshold() {
+    return linearSleepingThreshold;
+  }
+
+  public float getAngularSleepingThreshold() {
+    return angularSleepingThreshold;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "%d iterations, %d sub-steps, sleeping below %.2f / %.2f",
+        solverIterations, maxSubSteps, linearSleepingThreshold, angularSleepingThreshold);
+  }
+}
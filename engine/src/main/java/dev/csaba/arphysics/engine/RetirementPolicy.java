@@ -0,0 +1,75 @@
+package dev.csaba.arphysics.engine;
+
+import java.util.Locale;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * When the simulation gives up on a plank, see PhysicsEngine.setRetirement. A plank leaving
+ * the world bounds is removed. A plank knocked away from where it was added, which then comes
+ * to rest for the timeout, is frozen in place or removed.
+ */
+public final class RetirementPolicy {
+
+  // Room around the structure for the flying planks, the sweep and prune bounds leave as much
+  public static final float DEFAULT_MARGIN = 2.0f;
+
+  private final Vector3f worldMin;
+  private final Vector3f worldMax;
+  private final float restTimeout;
+  private final boolean freeze;
+
+  /**
+   * @param worldMin lower corner of the world bounds
+   * @param worldMax upper corner of the world bounds
+   * @param restTimeout simulated seconds a knocked off plank may rest, 0 keeps them all
+   * @param freeze resting planks turn static and stay in the scene instead of being removed
+   */
+  public RetirementPolicy(Vector3f worldMin, Vector3f worldMax, float restTimeout, boolean freeze) {
+    this.worldMin = new Vector3f(worldMin);
+    this.worldMax = new Vector3f(worldMax);
+    this.restTimeout = restTimeout;
+    this.freeze = freeze;
+  }
+
+  /**
+   * Bounds enclosing the structure with the margin on every side.
+   */
+  public static RetirementPolicy around(StructureLayout layout, float margin, float restTimeout,
+                                        boolean freeze) {
+    Vector3f worldMin = new Vector3f();
+    Vector3f worldMax = new Vector3f();
+    layout.getBounds(worldMin, worldMax);
+    worldMin.sub(new Vector3f(margin, margin, margin));
+    worldMax.add(new Vector3f(margin, margin, margin));
+    return new RetirementPolicy(worldMin, worldMax, restTimeout, freeze);
+  }
+
+  public Vector3f getWorldMin() {
+    return new Vector3f(worldMin);
+  }
+
+  public Vector3f getWorldMax() {
+    return new Vector3f(worldMax);
+  }
+
+  public float getRestTimeout() {
+    return restTimeout;
+  }
+
+  public boolean isFreeze() {
+    return freeze;
+  }
+
+  public boolean contains(Vector3f position) {
+    return position.x >= worldMin.x && position.x <= worldMax.x &&
+        position.y >= worldMin.y && position.y <= worldMax.y &&
+        position.z >= worldMin.z && position.z <= worldMax.z;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "bounds %s - %s, %s after %.1f s at rest",
+        worldMin, worldMax, freeze ? "frozen" : "removed", restTimeout);
+  }
+}
@@ -0,0 +1,84 @@
+package dev.csaba.arphysics.engine;
+
+import java.util.Arrays;
+
+/**
+ * Min / average / percentile statistics over the last windowSize samples.
+ * Samples may be added and queried from different threads.
+ */
+public class RollingStat {
+
+  private final float[] samples;
+  private final float[] sorted;
+  private int count;
+  private int next;
+  private float last;
+
+  public RollingStat(int windowSize) {
+    samples = new float[windowSize];
+    sorted = new float[windowSize];
+  }
+
+  public synchronized void add(float value) {
+    samples[next] = value;
+    next = (next + 1) % samples.length;
+    if (count < samples.length) {
+      count++;
+    }
+    last = value;
+  }
+
+  public synchronized int getCount() {
+    return count;
+  }
+
+  public synchronized float getLast() {
+    return last;
+  }
+
+  public synchronized float getMin() {
+    float min = count > 0 ? Float.MAX_VALUE : 0;
+    for (int i = 0; i < count; i++) {
+      min = Math.min(min, samples[i]);
+    }
+    return min;
+  }
+
+  public synchronized float getMax() {
+    float max = count > 0 ? -Float.MAX_VALUE : 0;
+    for (int i = 0; i < count; i++) {
+      max = Math.max(max, samples[i]);
+    }
+    return max;
+  }
+
+  public synchronized float getAverage() {
+    if (count == 0) {
+      return 0;
+    }
+    float sum = 0;
+    for (int i = 0; i < count; i++) {
+      sum += samples[i];
+    }
+    return sum / count;
+  }
+
+  /**
+   * @param percentile between 0 and 100, nearest rank
+   */
+  public synchronized float getPercentile(float percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    System.arraycopy(samples, 0, sorted, 0, count);
+    Arrays.sort(sorted, 0, count);
+    int rank = (int)Math.ceil(percentile / 100 * count) - 1;
+    return sorted[Math.max(0, Math.min(rank, count - 1))];
+  }
+
+  public synchronized void clear() {
+    count = 0;
+    next = 0;
+    last = 0;
+  }
+}
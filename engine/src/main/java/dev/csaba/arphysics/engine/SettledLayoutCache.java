@@ -0,0 +1,422 @@
+package dev.csaba.arphysics.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+/**
+ * Structures already settled under gravity, so a spawn starts from resting planks instead of
+ * every spawn pushing the planks into place again, visibly jittering for a while. Settling runs
+ * headlessly on a background thread, the results are kept in a directory of the app storage.
+ * Both the memory and the directory hold the most recently used capacity layouts. The files
+ * are loaded on the same background thread when the cache is created, get never touches the
+ * disk, so it can be called from the UI thread.
+ */
+public class SettledLayoutCache {
+
+  private static final int MAGIC = 0x4152534c;  // ARSL
+  private static final int VERSION = 1;
+  private static final String FILE_PREFIX = "settled-";
+  private static final float FRAME_TIME = 1.0f / 30.0f;
+  // Half a second of simulated time
+  private static final int WINDOW_FRAMES = 15;
+  // Meters, even at rest the planks creep a few millimeters per window
+  private static final float SETTLED_DRIFT = 0.01f;
+  // 10 simulated seconds, a structure still moving by then is stored as it is
+  private static final int MAX_SETTLE_FRAMES = 300;
+
+  /**
+   * Everything of a scenario, its parameters and the engine settings the settled poses depend on.
+   * The planks are created with the ball's friction and restitution, so those count as well.
+   * The solver and collision thread counts don't change the outcome of a step, and continuous
+   * collision only clamps motions much faster than those of a settling structure, so they
+   * are left out.
+   */
+  private static final class Key {
+    private final SimulationScenario scenario;
+    private final int numFloors;
+    private final BroadphaseType broadphaseType;
+    private final boolean boxCollisionAlgorithms;
+    private final float[] values;
+
+    Key(ModelParameters modelParameters, SimulationScenario scenario, BroadphaseType broadphaseType,
+        boolean boxCollisionAlgorithms) {
+      this.scenario = scenario;
+      this.numFloors = modelParameters.getNumFloors();
+      this.broadphaseType = broadphaseType;
+      this.boxCollisionAlgorithms = boxCollisionAlgorithms;
+      this.values = new float[] {
+          modelParameters.getWidth(),
+          modelParameters.getHeight(),
+          modelParameters.getDepth(),
+          modelParameters.getConvexMargin(),
+          modelParameters.getGravity(),
+          modelParameters.getPlankDensity(),
+          modelParameters.getPlankFriction(),
+          modelParameters.getPlankRestitution(),
+          modelParameters.getBallFriction(),
+          modelParameters.getBallRestitution()
+      };
+    }
+
+    Key(DataInputStream in) throws IOException {
+      scenario = SimulationScenario.valueOf(in.readUTF());
+      numFloors = in.readInt();
+      broadphaseType = BroadphaseType.valueOf(in.readUTF());
+      boxCollisionAlgorithms = in.readBoolean();
+      values = new float[in.readInt()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = in.readFloat();
+      }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeUTF(scenario.name());
+      out.writeInt(numFloors);
+      out.writeUTF(broadphaseType.name());
+      out.writeBoolean(boxCollisionAlgorithms);
+      out.writeInt(values.length);
+      for (float value : values) {
+        out.writeFloat(value);
+      }
+    }
+
+    String getFileName() {
+      return FILE_PREFIX + scenario.name() + "-" + numFloors + "-" +
+          Integer.toHexString(hashCode()) + ".bin";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key)o;
+      if (scenario != other.scenario || numFloors != other.numFloors ||
+          broadphaseType != other.broadphaseType ||
+          boxCollisionAlgorithms != other.boxCollisionAlgorithms ||
+          values.length != other.values.length) {
+        return false;
+      }
+      for (int i = 0; i < values.length; i++) {
+        if (Float.compare(values[i], other.values[i]) != 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      // Names the files, so it must not depend on the run like the enum's identity hash
+      int result = scenario.name().hashCode();
+      result = 31 * result + numFloors;
+      result = 31 * result + broadphaseType.name().hashCode();
+      result = 31 * result + (boxCollisionAlgorithms ? 1 : 0);
+      for (float value : values) {
+        result = 31 * result + Float.floatToIntBits(value);
+      }
+      return result;
+    }
+  }
+
+  private final File directory;
+  private final int capacity;
+  private final LinkedHashMap<Key, StructureLayout> layouts;
+  private final HashMap<Key, Future<StructureLayout>> pending = new HashMap<>();
+  private ExecutorService executor;
+  private volatile Future<?> loading;
+
+  /**
+   * @param directory where the layouts are kept between runs, created if missing
+   * @param capacity number of layouts kept, the least recently used ones are dropped
+   */
+  public SettledLayoutCache(File directory, int capacity) {
+    this.directory = directory;
+    this.capacity = capacity;
+    layouts = new LinkedHashMap<Key, StructureLayout>(capacity, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, StructureLayout> eldest) {
+        return size() > SettledLayoutCache.this.capacity;
+      }
+    };
+    loading = getExecutor().submit(this::load);
+  }
+
+  /**
+   * @return the layout settled with the default engine settings, null if it was not computed yet
+   */
+  public StructureLayout get(ModelParameters modelParameters, SimulationScenario scenario) {
+    return get(modelParameters, scenario, PhysicsEngineFactory.DEFAULT_BROADPHASE,
+        JBulletSimulation.DEFAULT_BOX_COLLISION_ALGORITHMS);
+  }
+
+  /**
+   * @return the layout settled with the engine settings, null if it was not computed or
+   * not loaded yet
+   */
+  public synchronized StructureLayout get(ModelParameters modelParameters, SimulationScenario scenario,
+                                          BroadphaseType broadphaseType, boolean boxCollisionAlgorithms) {
+    Key key = new Key(modelParameters, scenario, broadphaseType, boxCollisionAlgorithms);
+    StructureLayout layout = layouts.get(key);
+    if (layout != null && executor != null) {
+      executor.execute(() -> touch(key));
+    }
+    return layout;
+  }
+
+  /**
+   * Waits until the layouts stored by earlier runs are loaded.
+   */
+  void awaitLoading() throws InterruptedException, ExecutionException {
+    // Not holding the lock, the loading takes it to add the layouts
+    Future<?> future = loading;
+    if (future != null) {
+      future.get();
+    }
+  }
+
+  /**
+   * Settles the structure with the default engine settings, see the other precompute.
+   */
+  public Future<StructureLayout> precompute(ModelParameters modelParameters, SimulationScenario scenario) {
+    return precompute(modelParameters, scenario, PhysicsEngineFactory.DEFAULT_BROADPHASE,
+        JBulletSimulation.DEFAULT_BOX_COLLISION_ALGORITHMS);
+  }
+
+  /**
+   * Settles the structure on the background thread unless it is cached or already underway.
+   * @return the future settled layout
+   */
+  public synchronized Future<StructureLayout> precompute(ModelParameters modelParameters,
+                                                         SimulationScenario scenario,
+                                                         BroadphaseType broadphaseType,
+                                                         boolean boxCollisionAlgorithms) {
+    Key key = new Key(modelParameters, scenario, broadphaseType, boxCollisionAlgorithms);
+    Future<StructureLayout> future = pending.get(key);
+    if (future != null) {
+      return future;
+    }
+    StructureLayout layout = get(modelParameters, scenario, broadphaseType, boxCollisionAlgorithms);
+    if (layout != null) {
+      return CompletableFuture.completedFuture(layout);
+    }
+    future = getExecutor().submit(() -> {
+      try {
+        // Loaded from the disk since precompute was called
+        StructureLayout loaded = getLoaded(key);
+        if (loaded != null) {
+          return loaded;
+        }
+        StructureLayout settled = settle(modelParameters, scenario, broadphaseType, boxCollisionAlgorithms);
+        store(key, settled);
+        return settled;
+      } finally {
+        // Also when settling failed, so the next precompute tries again
+        removePending(key);
+      }
+    });
+    pending.put(key, future);
+    return future;
+  }
+
+  /**
+   * Stops the background thread, settling still underway is abandoned.
+   */
+  public synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    loading = null;
+    pending.clear();
+  }
+
+  public synchronized void clear() {
+    layouts.clear();
+    File[] files = listFiles();
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  public static StructureLayout settle(ModelParameters modelParameters, SimulationScenario scenario) {
+    return settle(modelParameters, scenario, PhysicsEngineFactory.DEFAULT_BROADPHASE,
+        JBulletSimulation.DEFAULT_BOX_COLLISION_ALGORITHMS);
+  }
+
+  /**
+   * Drops the structure of the scenario on the ground and lets it come to rest, simulated
+   * with the broadphase and collision algorithms it will be spawned with.
+   * The planks keep creeping a little after the initial drop, settling stops once no plank
+   * moves more than SETTLED_DRIFT over a window of frames.
+   * @return the poses it came to rest in, marked resting unless it was still moving
+   * after MAX_SETTLE_FRAMES
+   */
+  public static StructureLayout settle(ModelParameters modelParameters, SimulationScenario scenario,
+                                       BroadphaseType broadphaseType, boolean boxCollisionAlgorithms) {
+    StructureLayout layout = StructureLayout.create(modelParameters, scenario);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, scenario, new ShapeCache(),
+        broadphaseType);
+    simulation.setBoxCollisionAlgorithms(boxCollisionAlgorithms);
+    simulation.addStructure(layout);
+    int plankCount = layout.getPlankCount();
+    float[] positions = simulation.getBodyState().getPositions();
+    float[] windowStart = Arrays.copyOf(layout.getPositions(), plankCount * 3);
+    boolean resting = false;
+    for (int frame = 1; frame <= MAX_SETTLE_FRAMES && !resting; frame++) {
+      simulation.step(FRAME_TIME);
+      if (frame % WINDOW_FRAMES == 0) {
+        float drift = 0;
+        for (int i = 0; i < plankCount * 3; i++) {
+          drift = Math.max(drift, Math.abs(positions[i] - windowStart[i]));
+        }
+        resting = drift < SETTLED_DRIFT;
+        System.arraycopy(positions, 0, windowStart, 0, plankCount * 3);
+      }
+    }
+    float[] rotations = Arrays.copyOf(simulation.getBodyState().getRotations(), plankCount * 4);
+    simulation.clearScene();
+    return new StructureLayout(layout.getHalfExtents(), windowStart, rotations, resting);
+  }
+
+  private synchronized void store(Key key, StructureLayout layout) {
+    layouts.put(key, layout);
+    write(key, layout);
+    touch(key);
+    evictFiles();
+  }
+
+  private ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "LayoutSettler");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      });
+    }
+    return executor;
+  }
+
+  private synchronized StructureLayout getLoaded(Key key) {
+    StructureLayout layout = layouts.get(key);
+    if (layout != null) {
+      touch(key);
+    }
+    return layout;
+  }
+
+  private synchronized void removePending(Key key) {
+    pending.remove(key);
+  }
+
+  // The least recently used first, so the order of use is restored
+  private void load() {
+    File[] files = listFiles();
+    Arrays.sort(files, (file0, file1) -> Long.compare(file0.lastModified(), file1.lastModified()));
+    for (File file : files) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+        if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+          // Left by another version, replaced by the next store
+          continue;
+        }
+        Key key = new Key(in);
+        int plankCount = in.readInt();
+        float[] halfExtents = readFloats(in, plankCount * 3);
+        float[] positions = readFloats(in, plankCount * 3);
+        float[] rotations = readFloats(in, plankCount * 4);
+        boolean resting = in.readBoolean();
+        synchronized (this) {
+          // Not one settled meanwhile
+          if (!layouts.containsKey(key)) {
+            layouts.put(key, new StructureLayout(halfExtents, positions, rotations, resting));
+          }
+        }
+      } catch (IOException | IllegalArgumentException e) {
+        // Unreadable, replaced by the next store of its layout
+      }
+    }
+  }
+
+  private void write(Key key, StructureLayout layout) {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      return;
+    }
+    File file = new File(directory, key.getFileName());
+    // Written aside and renamed, so a killed app never leaves a truncated layout behind
+    File temporary = new File(directory, key.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      key.write(out);
+      int plankCount = layout.getPlankCount();
+      out.writeInt(plankCount);
+      writeFloats(out, layout.getHalfExtents(), plankCount * 3);
+      writeFloats(out, layout.getPositions(), plankCount * 3);
+      writeFloats(out, layout.getRotations(), plankCount * 4);
+      out.writeBoolean(layout.isResting());
+    } catch (IOException e) {
+      temporary.delete();
+      return;
+    }
+    if (!temporary.renameTo(file)) {
+      temporary.delete();
+    }
+  }
+
+  // The modification time of the files orders them by their last use
+  private void touch(Key key) {
+    new File(directory, key.getFileName()).setLastModified(System.currentTimeMillis());
+  }
+
+  private void evictFiles() {
+    File[] files = listFiles();
+    if (files.length <= capacity) {
+      return;
+    }
+    Arrays.sort(files, (file0, file1) -> Long.compare(file1.lastModified(), file0.lastModified()));
+    for (int i = capacity; i < files.length; i++) {
+      files[i].delete();
+    }
+  }
+
+  private File[] listFiles() {
+    File[] files = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(".bin"));
+    return files != null ? files : new File[0];
+  }
+
+  private static float[] readFloats(DataInputStream in, int count) throws IOException {
+    float[] values = new float[count];
+    for (int i = 0; i < count; i++) {
+      values[i] = in.readFloat();
+    }
+    return values;
+  }
+
+  private static void writeFloats(DataOutputStream out, float[] values, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      out.writeFloat(values[i]);
+    }
+  }
+}
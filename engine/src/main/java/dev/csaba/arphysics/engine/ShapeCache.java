@@ -0,0 +1,104 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.shapes.BoxShape;
+import com.bulletphysics.collision.shapes.CollisionShape;
+
+import java.util.HashMap;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * Box shapes and their inertia tensors shared by identical planks. A tower only has
+ * two plank orientations and the matrix planks are all the same, so a scene needs
+ * one or two shapes instead of one per plank. The cache can outlive a simulation,
+ * so a rebuilt scene picks up the shapes of the previous one.
+ */
+public class ShapeCache {
+
+  public static final class BoxEntry {
+    private final CollisionShape shape;
+    private final Vector3f localInertia;
+
+    BoxEntry(CollisionShape shape, Vector3f localInertia) {
+      this.shape = shape;
+      this.localInertia = localInertia;
+    }
+
+    public CollisionShape getShape() {
+      return shape;
+    }
+
+    // Shared by every body of the shape, must not be modified
+    public Vector3f getLocalInertia() {
+      return localInertia;
+    }
+  }
+
+  private static final class BoxKey {
+    private final float x;
+    private final float y;
+    private final float z;
+    private final float margin;
+    private final float mass;
+
+    BoxKey(float x, float y, float z, float margin, float mass) {
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      this.margin = margin;
+      this.mass = mass;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof BoxKey)) {
+        return false;
+      }
+      BoxKey other = (BoxKey)o;
+      return Float.compare(x, other.x) == 0 && Float.compare(y, other.y) == 0 &&
+          Float.compare(z, other.z) == 0 && Float.compare(margin, other.margin) == 0 &&
+          Float.compare(mass, other.mass) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = Float.floatToIntBits(x);
+      result = 31 * result + Float.floatToIntBits(y);
+      result = 31 * result + Float.floatToIntBits(z);
+      result = 31 * result + Float.floatToIntBits(margin);
+      return 31 * result + Float.floatToIntBits(mass);
+    }
+  }
+
+  private final HashMap<BoxKey, BoxEntry> boxes = new HashMap<>();
+
+  /**
+   * @param halfExtents half extents of the box, not retained
+   * @param margin collision margin of the shape
+   * @param mass mass the inertia tensor is calculated for
+   */
+  public synchronized BoxEntry getBox(Vector3f halfExtents, float margin, float mass) {
+    BoxKey key = new BoxKey(halfExtents.x, halfExtents.y, halfExtents.z, margin, mass);
+    BoxEntry entry = boxes.get(key);
+    if (entry == null) {
+      CollisionShape shape = new BoxShape(new Vector3f(halfExtents));
+      shape.setMargin(margin);
+      Vector3f localInertia = new Vector3f();
+      shape.calculateLocalInertia(mass, localInertia);
+      entry = new BoxEntry(shape, localInertia);
+      boxes.put(key, entry);
+    }
+    return entry;
+  }
+
+  public synchronized int size() {
+    return boxes.size();
+  }
+
+  public synchronized void clear() {
+    boxes.clear();
+  }
+}
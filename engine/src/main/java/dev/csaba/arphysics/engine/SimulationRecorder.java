@@ -0,0 +1,304 @@
+package dev.csaba.arphysics.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+/**
+ * Binary log of everything a simulation was fed: the model parameters, the bodies added,
+ * the cylinder moves and the time delta of every step, in the order the engine applied them.
+ * Each step is followed by a checksum of the resulting body state, so SimulationReplayer
+ * can tell whether a headless re-run produced bit for bit the same simulation.
+ * The engine calls it from its stepping thread. An I/O error stops the recording
+ * instead of the simulation, see getError.
+ */
+public class SimulationRecorder implements Closeable {
+
+  static final int MAGIC = 0x41525052;  // ARPR
+  static final int VERSION = 1;
+
+  static final byte END = 0;
+  static final byte CONFIG = 1;
+  static final byte STRUCTURE = 2;
+  static final byte PLANK = 3;
+  static final byte BALL = 4;
+  static final byte CYLINDER = 5;
+  static final byte CYLINDER_MOVE = 6;
+  static final byte STEP = 7;
+  static final byte QUALITY = 8;
+  static final byte COLLISION_ALGORITHMS = 9;
+  static final byte CONTINUOUS_COLLISION = 10;
+  static final byte LAUNCH = 11;
+  static final byte BALL_CAPACITY = 12;
+  static final byte RETIREMENT = 13;
+  static final byte RESET = 14;
+
+  private final DataOutputStream out;
+  private IOException error;
+  private boolean closed;
+
+  public SimulationRecorder(OutputStream outputStream) {
+    out = new DataOutputStream(new BufferedOutputStream(outputStream));
+  }
+
+  /**
+   * @return the error that stopped the recording, null if there was none
+   */
+  public IOException getError() {
+    return error;
+  }
+
+  void begin(String engineType, BroadphaseType broadphaseType, ModelParameters modelParameters,
+             SimulationScenario scenario, float fixedTimeStep, int maxSubSteps) {
+    try {
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      out.writeUTF(engineType);
+      out.writeUTF(broadphaseType.name());
+      out.writeUTF(scenario.name());
+      out.writeInt(modelParameters.getNumFloors());
+      out.writeFloat(modelParameters.getGravity());
+      out.writeFloat(modelParameters.getPlankRestitution());
+      out.writeFloat(modelParameters.getPlankFriction());
+      out.writeFloat(modelParameters.getPlankDensity());
+      out.writeFloat(modelParameters.getBallRestitution());
+      out.writeFloat(modelParameters.getBallFriction());
+      out.writeFloat(modelParameters.getBallDensity());
+      out.writeFloat(modelParameters.getWidth());
+      out.writeFloat(modelParameters.getHeight());
+      out.writeFloat(modelParameters.getDepth());
+      out.writeFloat(modelParameters.getRadius());
+      out.writeFloat(modelParameters.getConvexMargin());
+      out.writeInt(modelParameters.getSlowMotion());
+      out.writeFloat(fixedTimeStep);
+      out.writeInt(maxSubSteps);
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void recordConfig(float fixedTimeStep, int maxSubSteps) {
+    if (error != null) {
+      return;
+    }
+    try {
+      out.writeByte(CONFIG);
+      out.writeFloat(fixedTimeStep);
+      out.writeInt(maxSubSteps);
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void recordQuality(QualityLevel quality) {
+    if (error != null) {
+      return;
+    }
+    try {
+      out.writeByte(QUALITY);
+      out.writeInt(quality.getSolverIterations());
+      out.writeInt(quality.getMaxSubSteps());
+      out.writeFloat(quality.getLinearSleepingThreshold());
+      out.writeFloat(quality.getAngularSleepingThreshold());
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void recordCollisionAlgorithms(boolean boxCollisionAlgorithms) {
+    if (error != null) {
+      return;
+    }
+    try {
+      out.writeByte(COLLISION_ALGORITHMS);
+      out.writeBoolean(boxCollisionAlgorithms);
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void recordContinuousCollision(float motionThreshold, boolean planks) {
+    if (error != null) {
+      return;
+    }
+    try {
+      out.writeByte(CONTINUOUS_COLLISION);
+      out.writeFloat(motionThreshold);
+      out.writeBoolean(planks);
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void recordRetirement(RetirementPolicy policy) {
+    if (error != null) {
+      return;
+    }
+    try {
+      out.writeByte(RETIREMENT);
+      out.writeBoolean(policy != null);
+      if (policy != null) {
+        writeVector(policy.getWorldMin());
+        writeVector(policy.getWorldMax());
+        out.writeFloat(policy.getRestTimeout());
+        out.writeBoolean(policy.isFreeze());
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void recordStructure(StructureLayout layout) {
+    if (error != null) {
+      return;
+    }
+    try {
+      out.writeByte(STRUCTURE);
+      out.writeInt(layout.getPlankCount());
+      writeFloats(layout.getHalfExtents(), layout.getPlankCount() * 3);
+      writeFloats(layout.getPositions(), layout.getPlankCount() * 3);
+      out.writeBoolean(layout.getRotations() != null);
+      if (layout.getRotations() != null) {
+        writeFloats(layout.getRotations(), layout.getPlankCount() * 4);
+      }
+      out.writeBoolean(layout.isResting());
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void recordPlank(int index, Vector3f plankBox, Vector3f plankPosition) {
+    if (error != null) {
+      return;
+    }
+    try {
+      out.writeByte(PLANK);
+      out.writeInt(index);
+      writeVector(plankBox);
+      writeVector(plankPosition);
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void recordBallCapacity(int ballCapacity) {
+    if (error != null) {
+      return;
+    }
+    try {
+      out.writeByte(BALL_CAPACITY);
+      out.writeInt(ballCapacity);
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void recordLaunch(int ball, Vector3f ballPosition, Vector3f velocity) {
+    if (error != null) {
+      return;
+    }
+    try {
+      out.writeByte(LAUNCH);
+      out.writeInt(ball);
+      writeVector(ballPosition);
+      writeVector(velocity);
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void recordCylinder(byte tag, Vector3f cylinderPosition) {
+    if (error != null) {
+      return;
+    }
+    try {
+      out.writeByte(tag);
+      writeVector(cylinderPosition);
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void recordReset() {
+    if (error != null) {
+      return;
+    }
+    try {
+      out.writeByte(RESET);
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void recordStep(float timeDelta, int subSteps, BodyStateBuffer state) {
+    if (error != null) {
+      return;
+    }
+    try {
+      out.writeByte(STEP);
+      out.writeFloat(timeDelta);
+      out.writeInt(subSteps);
+      out.writeLong(checksum(state));
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  /**
+   * Hash of the exact bit patterns of every position, rotation and velocity.
+   */
+  public static long checksum(BodyStateBuffer state) {
+    long hash = 17;
+    hash = hash(hash, state.getPositions());
+    hash = hash(hash, state.getRotations());
+    hash = hash(hash, state.getLinearVelocities());
+    return hash(hash, state.getAngularVelocities());
+  }
+
+  private static long hash(long hash, float[] values) {
+    for (float value : values) {
+      hash = hash * 31 + Float.floatToRawIntBits(value);
+    }
+    return hash;
+  }
+
+  private void writeVector(Vector3f vector) throws IOException {
+    out.writeFloat(vector.x);
+    out.writeFloat(vector.y);
+    out.writeFloat(vector.z);
+  }
+
+  private void writeFloats(float[] values, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      out.writeFloat(values[i]);
+    }
+  }
+
+  private void fail(IOException e) {
+    if (error == null) {
+      error = e;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (error == null) {
+        out.writeByte(END);
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
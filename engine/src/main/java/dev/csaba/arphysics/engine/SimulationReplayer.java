@@ -0,0 +1,188 @@
+package dev.csaba.arphysics.engine;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+/**
+ * Re-runs a SimulationRecorder log headlessly and compares the body state after every
+ * step with the recorded checksum. Pulled recordings can be checked off-device with
+ * java -cp engine.jar:jbullet.jar:vecmath.jar dev.csaba.arphysics.engine.SimulationReplayer file...
+ */
+public class SimulationReplayer {
+
+  public static final class Result {
+    private final int stepCount;
+    private final int firstMismatchStep;
+    private final long finalChecksum;
+
+    Result(int stepCount, int firstMismatchStep, long finalChecksum) {
+      this.stepCount = stepCount;
+      this.firstMismatchStep = firstMismatchStep;
+      this.finalChecksum = finalChecksum;
+    }
+
+    public int getStepCount() {
+      return stepCount;
+    }
+
+    /**
+     * @return index of the first step diverging from the recording, -1 if none did
+     */
+    public int getFirstMismatchStep() {
+      return firstMismatchStep;
+    }
+
+    public long getFinalChecksum() {
+      return finalChecksum;
+    }
+
+    public boolean isMatching() {
+      return firstMismatchStep < 0;
+    }
+  }
+
+  private final PhysicsEngineFactory engineFactory;
+
+  public SimulationReplayer() {
+    this(new PhysicsEngineFactory());
+  }
+
+  public SimulationReplayer(PhysicsEngineFactory engineFactory) {
+    this.engineFactory = engineFactory;
+  }
+
+  /**
+   * @throws IOException if the log can't be read or is not a recording
+   */
+  public Result replay(InputStream inputStream) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+    if (in.readInt() != SimulationRecorder.MAGIC) {
+      throw new IOException("Not a simulation recording");
+    }
+    int version = in.readShort();
+    if (version != SimulationRecorder.VERSION) {
+      throw new IOException("Unsupported recording version " + version);
+    }
+    String engineType = in.readUTF();
+    BroadphaseType broadphaseType = BroadphaseType.valueOf(in.readUTF());
+    SimulationScenario scenario = SimulationScenario.valueOf(in.readUTF());
+    ModelParameters modelParameters = new ModelParameters(in.readInt(), in.readFloat(),
+        in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat(),
+        in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat(),
+        in.readFloat(), in.readInt());
+    PhysicsEngine engine = engineFactory.create(engineType, modelParameters, scenario, broadphaseType);
+    engine.setFixedTimeStep(in.readFloat(), in.readInt());
+
+    int stepCount = 0;
+    int firstMismatchStep = -1;
+    long checksum = SimulationRecorder.checksum(engine.getBodyState());
+    byte tag;
+    while ((tag = in.readByte()) != SimulationRecorder.END) {
+      switch (tag) {
+        case SimulationRecorder.CONFIG:
+          engine.setFixedTimeStep(in.readFloat(), in.readInt());
+          break;
+        case SimulationRecorder.QUALITY:
+          engine.setQuality(new QualityLevel(in.readInt(), in.readInt(), in.readFloat(), in.readFloat()));
+          break;
+        case SimulationRecorder.COLLISION_ALGORITHMS:
+          boolean boxCollisionAlgorithms = in.readBoolean();
+          if (engine instanceof JBulletSimulation) {
+            ((JBulletSimulation) engine).setBoxCollisionAlgorithms(boxCollisionAlgorithms);
+          }
+          break;
+        case SimulationRecorder.CONTINUOUS_COLLISION:
+          engine.setContinuousCollision(in.readFloat(), in.readBoolean());
+          break;
+        case SimulationRecorder.RETIREMENT:
+          engine.setRetirement(in.readBoolean() ? new RetirementPolicy(readVector(in), readVector(in),
+              in.readFloat(), in.readBoolean()) : null);
+          break;
+        case SimulationRecorder.STRUCTURE:
+          int plankCount = in.readInt();
+          float[] halfExtents = readFloats(in, plankCount * 3);
+          float[] positions = readFloats(in, plankCount * 3);
+          float[] rotations = in.readBoolean() ? readFloats(in, plankCount * 4) : null;
+          boolean resting = in.readBoolean();
+          engine.addStructure(new StructureLayout(halfExtents, positions, rotations, resting));
+          break;
+        case SimulationRecorder.PLANK:
+          engine.addPlankRigidBody(in.readInt(), readVector(in), readVector(in));
+          break;
+        case SimulationRecorder.BALL:
+          engine.addBallRigidBody(readVector(in), readVector(in));
+          break;
+        case SimulationRecorder.BALL_CAPACITY:
+          int ballCapacity = in.readInt();
+          if (engine instanceof JBulletSimulation) {
+            ((JBulletSimulation) engine).setBallCapacity(ballCapacity);
+          }
+          break;
+        case SimulationRecorder.LAUNCH:
+          engine.launchBall(in.readInt(), readVector(in), readVector(in));
+          break;
+        case SimulationRecorder.CYLINDER:
+          engine.addCylinderKineticBody(readVector(in));
+          break;
+        case SimulationRecorder.CYLINDER_MOVE:
+          engine.updateCylinderLocation(readVector(in));
+          break;
+        case SimulationRecorder.RESET:
+          engine.resetScene();
+          break;
+        case SimulationRecorder.STEP:
+          float timeDelta = in.readFloat();
+          int subSteps = in.readInt();
+          long expected = in.readLong();
+          int actualSubSteps = engine.step(timeDelta);
+          checksum = SimulationRecorder.checksum(engine.getBodyState());
+          if (firstMismatchStep < 0 && (actualSubSteps != subSteps || checksum != expected)) {
+            firstMismatchStep = stepCount;
+          }
+          stepCount++;
+          break;
+        default:
+          throw new IOException("Unknown record " + tag);
+      }
+    }
+    engine.clearScene();
+    return new Result(stepCount, firstMismatchStep, checksum);
+  }
+
+  public static void main(String[] args) throws IOException {
+    SimulationReplayer replayer = new SimulationReplayer();
+    boolean matching = true;
+    for (String fileName : args) {
+      Result result;
+      try (InputStream in = new FileInputStream(fileName)) {
+        result = replayer.replay(in);
+      }
+      System.out.println(fileName + ": " + result.getStepCount() + " steps, " +
+          (result.isMatching() ? "matching" : "diverges at step " + result.getFirstMismatchStep()));
+      matching &= result.isMatching();
+    }
+    if (!matching) {
+      System.exit(1);
+    }
+  }
+
+  private static Vector3f readVector(DataInputStream in) throws IOException {
+    return new Vector3f(in.readFloat(), in.readFloat(), in.readFloat());
+  }
+
+  private static float[] readFloats(DataInputStream in, int count) throws IOException {
+    float[] values = new float[count];
+    for (int i = 0; i < count; i++) {
+      values[i] = in.readFloat();
+    }
+    return values;
+  }
+}
@@ -0,0 +1,230 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.broadphase.BroadphaseInterface;
+import com.bulletphysics.collision.broadphase.BroadphaseNativeType;
+import com.bulletphysics.collision.broadphase.BroadphasePair;
+import com.bulletphysics.collision.broadphase.BroadphaseProxy;
+import com.bulletphysics.collision.broadphase.Dispatcher;
+import com.bulletphysics.collision.broadphase.HashedOverlappingPairCache;
+import com.bulletphysics.collision.broadphase.OverlapCallback;
+import com.bulletphysics.collision.broadphase.OverlappingPairCache;
+import com.bulletphysics.util.ObjectArrayList;
+
+import java.util.Arrays;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * Broadphase hashing the bounding boxes into a uniform grid, rebuilt every step.
+ * Meant for many bodies of about the same size: with a cell as large as the biggest body
+ * a box covers at most two cells per axis, so a cell only holds its close neighbours.
+ * Boxes spanning too many cells, like the ground and the wall planes, are kept out of the
+ * grid and tested against every other box instead.
+ */
+public class SpatialHashBroadphase extends BroadphaseInterface {
+
+  // Boxes spanning more cells along any axis are tested against everything
+  private static final int MAX_CELL_SPAN = 4;
+  // Bounding boxes of planes are practically infinite, cell indices are clamped to stay in int range
+  private static final float MAX_CELL_INDEX = 1 << 20;
+
+  private static final class GridProxy extends BroadphaseProxy {
+    final Vector3f min = new Vector3f();
+    final Vector3f max = new Vector3f();
+    int index;
+    int cellMinX;
+    int cellMinY;
+    int cellMinZ;
+
+    GridProxy(Object userPtr, short collisionFilterGroup, short collisionFilterMask,
+              Object multiSapProxy) {
+      super(userPtr, collisionFilterGroup, collisionFilterMask, multiSapProxy);
+    }
+  }
+
+  private final class RemoveSeparatedPairs extends OverlapCallback {
+    @Override
+    public boolean processOverlap(BroadphasePair pair) {
+      return !overlaps((GridProxy) pair.pProxy0, (GridProxy) pair.pProxy1);
+    }
+  }
+
+  private final float inverseCellSize;
+  private final OverlappingPairCache pairCache;
+  private final RemoveSeparatedPairs removeSeparatedPairs = new RemoveSeparatedPairs();
+  private final ObjectArrayList<GridProxy> proxies = new ObjectArrayList<>();
+  private final ObjectArrayList<GridProxy> oversizedProxies = new ObjectArrayList<>();
+  private int nextUid;
+
+  // Chained hash of the grid entries, one entry per proxy and covered cell
+  private int[] bucketHeads = new int[0];
+  private int[] entryNext = new int[0];
+  private int[] entryProxy = new int[0];
+  private int[] entryCellX = new int[0];
+  private int[] entryCellY = new int[0];
+  private int[] entryCellZ = new int[0];
+  private int entryCount;
+
+  /**
+   * @param cellSize edge length of the grid cells, about the size of the biggest body
+   */
+  public SpatialHashBroadphase(float cellSize) {
+    this(cellSize, new HashedOverlappingPairCache());
+  }
+
+  public SpatialHashBroadphase(float cellSize, OverlappingPairCache pairCache) {
+    this.inverseCellSize = 1.0f / cellSize;
+    this.pairCache = pairCache;
+  }
+
+  @Override
+  public BroadphaseProxy createProxy(Vector3f aabbMin, Vector3f aabbMax, BroadphaseNativeType shapeType,
+                                     Object userPtr, short collisionFilterGroup, short collisionFilterMask,
+                                     Dispatcher dispatcher, Object multiSapProxy) {
+    GridProxy proxy = new GridProxy(userPtr, collisionFilterGroup, collisionFilterMask, multiSapProxy);
+    proxy.uniqueId = ++nextUid;
+    proxy.min.set(aabbMin);
+    proxy.max.set(aabbMax);
+    proxy.index = proxies.size();
+    proxies.add(proxy);
+    return proxy;
+  }
+
+  @Override
+  public void destroyProxy(BroadphaseProxy proxy, Dispatcher dispatcher) {
+    GridProxy gridProxy = (GridProxy) proxy;
+    GridProxy last = proxies.getQuick(proxies.size() - 1);
+    proxies.setQuick(gridProxy.index, last);
+    last.index = gridProxy.index;
+    proxies.removeQuick(proxies.size() - 1);
+    pairCache.removeOverlappingPairsContainingProxy(proxy, dispatcher);
+  }
+
+  @Override
+  public void setAabb(BroadphaseProxy proxy, Vector3f aabbMin, Vector3f aabbMax, Dispatcher dispatcher) {
+    GridProxy gridProxy = (GridProxy) proxy;
+    gridProxy.min.set(aabbMin);
+    gridProxy.max.set(aabbMax);
+  }
+
+  @Override
+  public void calculateOverlappingPairs(Dispatcher dispatcher) {
+    pairCache.processAllOverlappingPairs(removeSeparatedPairs, dispatcher);
+    buildGrid();
+
+    for (int bucket = 0; bucket < bucketHeads.length; bucket++) {
+      for (int a = bucketHeads[bucket]; a >= 0; a = entryNext[a]) {
+        for (int b = entryNext[a]; b >= 0; b = entryNext[b]) {
+          if (entryCellX[a] != entryCellX[b] || entryCellY[a] != entryCellY[b] ||
+              entryCellZ[a] != entryCellZ[b]) {
+            continue;
+          }
+          GridProxy proxy0 = proxies.getQuick(entryProxy[a]);
+          GridProxy proxy1 = proxies.getQuick(entryProxy[b]);
+          // Boxes sharing several cells are only paired in the first of them
+          if (entryCellX[a] == Math.max(proxy0.cellMinX, proxy1.cellMinX) &&
+              entryCellY[a] == Math.max(proxy0.cellMinY, proxy1.cellMinY) &&
+              entryCellZ[a] == Math.max(proxy0.cellMinZ, proxy1.cellMinZ) &&
+              overlaps(proxy0, proxy1)) {
+            pairCache.addOverlappingPair(proxy0, proxy1);
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < oversizedProxies.size(); i++) {
+      GridProxy oversized = oversizedProxies.getQuick(i);
+      for (int j = 0; j < proxies.size(); j++) {
+        GridProxy proxy = proxies.getQuick(j);
+        if (proxy != oversized && overlaps(oversized, proxy)) {
+          pairCache.addOverlappingPair(oversized, proxy);
+        }
+      }
+    }
+  }
+
+  private void buildGrid() {
+    entryCount = 0;
+    oversizedProxies.clear();
+    for (int i = 0; i < proxies.size(); i++) {
+      GridProxy proxy = proxies.getQuick(i);
+      int minX = cellIndex(proxy.min.x);
+      int minY = cellIndex(proxy.min.y);
+      int minZ = cellIndex(proxy.min.z);
+      int maxX = cellIndex(proxy.max.x);
+      int maxY = cellIndex(proxy.max.y);
+      int maxZ = cellIndex(proxy.max.z);
+      if (maxX - minX >= MAX_CELL_SPAN || maxY - minY >= MAX_CELL_SPAN || maxZ - minZ >= MAX_CELL_SPAN) {
+        oversizedProxies.add(proxy);
+        continue;
+      }
+      proxy.cellMinX = minX;
+      proxy.cellMinY = minY;
+      proxy.cellMinZ = minZ;
+      for (int x = minX; x <= maxX; x++) {
+        for (int y = minY; y <= maxY; y++) {
+          for (int z = minZ; z <= maxZ; z++) {
+            addEntry(i, x, y, z);
+          }
+        }
+      }
+    }
+
+    int bucketCount = Integer.highestOneBit(Math.max(entryCount, 8) * 2);
+    if (bucketHeads.length != bucketCount) {
+      bucketHeads = new int[bucketCount];
+    }
+    Arrays.fill(bucketHeads, -1);
+    for (int entry = 0; entry < entryCount; entry++) {
+      int bucket = hash(entryCellX[entry], entryCellY[entry], entryCellZ[entry]) & (bucketCount - 1);
+      entryNext[entry] = bucketHeads[bucket];
+      bucketHeads[bucket] = entry;
+    }
+  }
+
+  private void addEntry(int proxyIndex, int x, int y, int z) {
+    if (entryCount == entryProxy.length) {
+      int capacity = Math.max(entryCount * 2, 64);
+      entryNext = Arrays.copyOf(entryNext, capacity);
+      entryProxy = Arrays.copyOf(entryProxy, capacity);
+      entryCellX = Arrays.copyOf(entryCellX, capacity);
+      entryCellY = Arrays.copyOf(entryCellY, capacity);
+      entryCellZ = Arrays.copyOf(entryCellZ, capacity);
+    }
+    entryProxy[entryCount] = proxyIndex;
+    entryCellX[entryCount] = x;
+    entryCellY[entryCount] = y;
+    entryCellZ[entryCount] = z;
+    entryCount++;
+  }
+
+  private int cellIndex(float coordinate) {
+    float cell = coordinate * inverseCellSize;
+    return (int) Math.floor(Math.max(-MAX_CELL_INDEX, Math.min(cell, MAX_CELL_INDEX)));
+  }
+
+  private static int hash(int x, int y, int z) {
+    return (x * 73856093) ^ (y * 19349663) ^ (z * 83492791);
+  }
+
+  private static boolean overlaps(GridProxy proxy0, GridProxy proxy1) {
+    return proxy0.min.x <= proxy1.max.x && proxy1.min.x <= proxy0.max.x &&
+        proxy0.min.y <= proxy1.max.y && proxy1.min.y <= proxy0.max.y &&
+        proxy0.min.z <= proxy1.max.z && proxy1.min.z <= proxy0.max.z;
+  }
+
+  @Override
+  public OverlappingPairCache getOverlappingPairCache() {
+    return pairCache;
+  }
+
+  @Override
+  public void getBroadphaseAabb(Vector3f aabbMin, Vector3f aabbMax) {
+    aabbMin.set(-1e30f, -1e30f, -1e30f);
+    aabbMax.set(1e30f, 1e30f, 1e30f);
+  }
+
+  @Override
+  public void printStats() {
+  }
+}
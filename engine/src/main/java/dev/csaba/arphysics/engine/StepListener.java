@@ -0,0 +1,12 @@
+package dev.csaba.arphysics.engine;
+
+/**
+ * Notified by the stepping thread after every simulation step.
+ */
+public interface StepListener {
+
+  /**
+   * @param state the state after the step, only valid during the call
+   */
+  void onStep(BodyStateBuffer state);
+}
@@ -0,0 +1,183 @@
+package dev.csaba.arphysics.engine;
+
+import java.util.Random;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+/**
+ * Procedural structures of the stress scenarios, as many bodies as the number of floors,
+ * into the thousands. Every body starts clear of the ground and of its neighbours, so the
+ * cost measured is the scenario's and not that of resolving initial penetrations.
+ * The bricks of the wall and the pyramid are planks twice as deep as wide.
+ */
+public final class StressLayouts {
+
+  // Taller stacks sink into themselves, the solver does not converge through that many contacts,
+  // so larger counts build more structures side by side
+  private static final int WALL_COURSES = 10;
+  private static final int WALL_COLUMNS = 10;
+  private static final int PYRAMID_LEVELS = 6;
+  // Dominoes in a chain, longer chains are laid out side by side
+  private static final int CHAIN_LENGTH = 50;
+
+  private StressLayouts() {
+  }
+
+  public static StructureLayout create(ModelParameters modelParameters, SimulationScenario scenario) {
+    switch (scenario) {
+      case BrickWall:
+        return brickWall(modelParameters);
+      case DominoChain:
+        return dominoChain(modelParameters);
+      case PlankPyramid:
+        return plankPyramid(modelParameters);
+      case RandomPile:
+        return randomPile(modelParameters);
+      default:
+        throw new IllegalArgumentException(scenario + " is not a stress scenario");
+    }
+  }
+
+  /**
+   * Walls of bricks in running bond, every second course one brick shorter, so its bricks
+   * bridge the joints below without overhanging the ends of the wall. The walls run along
+   * the x axis one behind the other, the first one centered on the origin.
+   */
+  public static StructureLayout brickWall(ModelParameters modelParameters) {
+    int brickCount = modelParameters.getNumFloors();
+    float width = modelParameters.getWidth();
+    float height = modelParameters.getHeight();
+    float margin = modelParameters.getConvexMargin();
+    float[] halfExtents = new float[brickCount * 3];
+    float[] positions = new float[brickCount * 3];
+    int i = 0;
+    for (int wall = 0; i < brickCount; wall++) {
+      for (int course = 0; course < WALL_COURSES && i < brickCount; course++) {
+        int courseLength = WALL_COLUMNS - course % 2;
+        for (int column = 0; column < courseLength && i < brickCount; column++, i++) {
+          int offset = i * 3;
+          setBrick(halfExtents, offset, width, height);
+          positions[offset] = (column - (courseLength - 1) / 2.0f) * (width + margin);
+          positions[offset + 1] = height / 2 + course * height;
+          positions[offset + 2] = -wall * 2 * width;
+        }
+      }
+    }
+    return new StructureLayout(halfExtents, positions);
+  }
+
+  /**
+   * Planks standing on their ends half a plank apart, so each one topples the next.
+   * The chains run along the z axis next to each other.
+   */
+  public static StructureLayout dominoChain(ModelParameters modelParameters) {
+    int dominoCount = modelParameters.getNumFloors();
+    float width = modelParameters.getWidth();
+    float height = modelParameters.getHeight();
+    float depth = modelParameters.getDepth();
+    float margin = modelParameters.getConvexMargin();
+    int chainCount = (dominoCount + CHAIN_LENGTH - 1) / CHAIN_LENGTH;
+    float chainSpacing = 4 * height;
+    float[] halfExtents = new float[dominoCount * 3];
+    float[] positions = new float[dominoCount * 3];
+    for (int i = 0; i < dominoCount; i++) {
+      int chain = i / CHAIN_LENGTH;
+      int link = i % CHAIN_LENGTH;
+      int offset = i * 3;
+      halfExtents[offset] = height / 2;
+      halfExtents[offset + 1] = width / 2;
+      halfExtents[offset + 2] = depth / 2;
+      positions[offset] = (chain - (chainCount - 1) / 2.0f) * chainSpacing;
+      positions[offset + 1] = width / 2;
+      positions[offset + 2] = -link * width / 2;
+    }
+    return new StructureLayout(halfExtents, positions);
+  }
+
+  /**
+   * Stepped pyramids of bricks, every level one brick narrower and two bricks shallower
+   * than the one below it, so the bricks of a level bridge the joints below. The pyramids
+   * stand side by side along the x axis, the first one centered on the origin. The levels
+   * fill from the bottom, the top of the last pyramid may be incomplete.
+   */
+  public static StructureLayout plankPyramid(ModelParameters modelParameters) {
+    int brickCount = modelParameters.getNumFloors();
+    float width = modelParameters.getWidth();
+    float height = modelParameters.getHeight();
+    float margin = modelParameters.getConvexMargin();
+    float pyramidSpacing = (PYRAMID_LEVELS + 1) * (width + margin);
+    float[] halfExtents = new float[brickCount * 3];
+    float[] positions = new float[brickCount * 3];
+    int i = 0;
+    for (int pyramid = 0; i < brickCount; pyramid++) {
+      for (int level = 0; level < PYRAMID_LEVELS && i < brickCount; level++) {
+        int columns = PYRAMID_LEVELS - level;
+        int rows = 2 * columns;
+        for (int j = 0; j < columns * rows && i < brickCount; j++, i++) {
+          int offset = i * 3;
+          setBrick(halfExtents, offset, width, height);
+          positions[offset] = pyramid * pyramidSpacing +
+              (j % columns - (columns - 1) / 2.0f) * (width + margin);
+          positions[offset + 1] = height / 2 + level * height;
+          positions[offset + 2] = (j / columns - (rows - 1) / 2.0f) * (width / 2 + margin);
+        }
+      }
+    }
+    return new StructureLayout(halfExtents, positions);
+  }
+
+  /**
+   * Randomly rotated planks dropped from a cube of jittered cells, about as many cells
+   * along each axis. The random sequence is seeded by the plank count, so a pile of the
+   * same size is the same pile in every run and in every replay.
+   */
+  public static StructureLayout randomPile(ModelParameters modelParameters) {
+    int plankCount = modelParameters.getNumFloors();
+    float width = modelParameters.getWidth();
+    float height = modelParameters.getHeight();
+    float depth = modelParameters.getDepth();
+    float margin = modelParameters.getConvexMargin();
+    float reach = (float) Math.sqrt(width * width + height * height + depth * depth) / 2 + margin;
+    // Cells leave room for the jitter, spheres around neighbouring planks never intersect
+    float cell = 3 * reach;
+    float jitter = cell / 2 - reach;
+    int side = Math.max(1, (int) Math.ceil(Math.cbrt(plankCount)));
+    Random random = new Random(plankCount);
+    float[] halfExtents = new float[plankCount * 3];
+    float[] positions = new float[plankCount * 3];
+    float[] rotations = new float[plankCount * 4];
+    for (int i = 0; i < plankCount; i++) {
+      int offset = i * 3;
+      halfExtents[offset] = width / 2;
+      halfExtents[offset + 1] = height / 2;
+      halfExtents[offset + 2] = depth / 2;
+      int layer = i / (side * side);
+      positions[offset] = (i % side - (side - 1) / 2.0f) * cell + (2 * random.nextFloat() - 1) * jitter;
+      positions[offset + 1] = cell / 2 + layer * cell + (2 * random.nextFloat() - 1) * jitter;
+      positions[offset + 2] = (i / side % side - (side - 1) / 2.0f) * cell +
+          (2 * random.nextFloat() - 1) * jitter;
+      setRandomRotation(rotations, i * 4, random);
+    }
+    return new StructureLayout(halfExtents, positions, rotations, false);
+  }
+
+  private static void setBrick(float[] halfExtents, int offset, float width, float height) {
+    halfExtents[offset] = width / 2;
+    halfExtents[offset + 1] = height / 2;
+    halfExtents[offset + 2] = width / 4;
+  }
+
+  // Uniformly distributed unit quaternion (Shoemake)
+  private static void setRandomRotation(float[] rotations, int offset, Random random) {
+    double u1 = random.nextDouble();
+    double u2 = 2 * Math.PI * random.nextDouble();
+    double u3 = 2 * Math.PI * random.nextDouble();
+    double a = Math.sqrt(1 - u1);
+    double b = Math.sqrt(u1);
+    rotations[offset] = (float) (a * Math.sin(u2));
+    rotations[offset + 1] = (float) (a * Math.cos(u2));
+    rotations[offset + 2] = (float) (b * Math.sin(u3));
+    rotations[offset + 3] = (float) (b * Math.cos(u3));
+  }
+}
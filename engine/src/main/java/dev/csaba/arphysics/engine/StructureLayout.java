@@ -0,0 +1,165 @@
+package dev.csaba.arphysics.engine;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+/**
+ * Plank half extents and initial positions of a scenario's structure, three floats
+ * (x, y, z) per plank in plank index order. A settled layout also has the rotation
+ * of every plank, four floats (x, y, z, w) each, see SettledLayoutCache.
+ */
+public class StructureLayout {
+
+  private final float[] halfExtents;
+  private final float[] positions;
+  private final float[] rotations;
+  private final boolean resting;
+
+  public StructureLayout(float[] halfExtents, float[] positions) {
+    this(halfExtents, positions, null, false);
+  }
+
+  /**
+   * @param rotations plank rotations, null for the unrotated planks
+   * @param resting the planks are at rest, so they can start deactivated
+   */
+  public StructureLayout(float[] halfExtents, float[] positions, float[] rotations, boolean resting) {
+    this.halfExtents = halfExtents;
+    this.positions = positions;
+    this.rotations = rotations;
+    this.resting = resting;
+  }
+
+  public static StructureLayout create(ModelParameters modelParameters, SimulationScenario simulationScenario) {
+    if (simulationScenario.isStress()) {
+      return StressLayouts.create(modelParameters, simulationScenario);
+    }
+    if (simulationScenario == SimulationScenario.PlankTower) {
+      return tower(modelParameters);
+    }
+    return plankMatrix(modelParameters);
+  }
+
+  /**
+   * @return the number of planks create makes, without generating them
+   */
+  public static int getPlankCount(ModelParameters modelParameters, SimulationScenario simulationScenario) {
+    int numFloors = modelParameters.getNumFloors();
+    if (simulationScenario.isStress()) {
+      return numFloors;
+    }
+    return numFloors * (simulationScenario == SimulationScenario.PlankTower ? 2 : numFloors);
+  }
+
+  /**
+   * Jenga style tower: two planks per floor, every second floor rotated by 90 degrees.
+   */
+  public static StructureLayout tower(ModelParameters modelParameters) {
+    int numFloors = modelParameters.getNumFloors();
+    float width = modelParameters.getWidth();
+    float height = modelParameters.getHeight();
+    float depth = modelParameters.getDepth();
+    float margin = modelParameters.getConvexMargin();
+    float[] halfExtents = new float[numFloors * 2 * 3];
+    float[] positions = new float[numFloors * 2 * 3];
+    for (int i = 0; i < numFloors; i++) {
+      boolean even = i % 2 == 0;
+      for (int j = -1; j <= 1; j += 2) {
+        int offset = (i * 2 + (j < 0 ? 0 : 1)) * 3;
+        halfExtents[offset] = (even ? width : depth) / 2;
+        halfExtents[offset + 1] = height / 2;
+        halfExtents[offset + 2] = (even ? depth : width) / 2;
+
+        float displacement = (width - 2 * depth) / 2 * j;
+        positions[offset] = even ? 0.0f : displacement;
+        positions[offset + 1] = margin + (height + margin) * i;
+        positions[offset + 2] = even ? displacement : 0.0f;
+      }
+    }
+    return new StructureLayout(halfExtents, positions);
+  }
+
+  /**
+   * Standing planks in a regular grid inside the 1 m x 1 m collision box.
+   */
+  public static StructureLayout plankMatrix(ModelParameters modelParameters) {
+    int numFloors = modelParameters.getNumFloors();
+    int numPlanks = numFloors * numFloors;
+    float spacing = 1.0f / (numFloors + 1);
+    float[] halfExtents = new float[numPlanks * 3];
+    float[] positions = new float[numPlanks * 3];
+    for (int i = 0; i < numPlanks; i++) {
+      int offset = i * 3;
+      halfExtents[offset] = modelParameters.getHeight() / 2;
+      halfExtents[offset + 1] = modelParameters.getWidth() / 2;
+      halfExtents[offset + 2] = modelParameters.getHeight() / 2;
+
+      int xIndex = i % numFloors + 1;
+      int zIndex = i / numFloors + 1;
+      positions[offset] = xIndex * spacing - 0.5f;
+      positions[offset + 1] = modelParameters.getConvexMargin();
+      positions[offset + 2] = zIndex * spacing - 0.5f;
+    }
+    return new StructureLayout(halfExtents, positions);
+  }
+
+  /**
+   * Bounding box of the initial structure, big enough for any rotation of the planks.
+   */
+  public void getBounds(Vector3f min, Vector3f max) {
+    min.set(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+    max.set(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+    for (int offset = 0; offset < positions.length; offset += 3) {
+      float reach = getMaxReach(offset);
+      min.x = Math.min(min.x, positions[offset] - reach);
+      min.y = Math.min(min.y, positions[offset + 1] - reach);
+      min.z = Math.min(min.z, positions[offset + 2] - reach);
+      max.x = Math.max(max.x, positions[offset] + reach);
+      max.y = Math.max(max.y, positions[offset + 1] + reach);
+      max.z = Math.max(max.z, positions[offset + 2] + reach);
+    }
+  }
+
+  /**
+   * @return the largest distance of a plank corner from the plank center
+   */
+  public float getMaxReach() {
+    float reach = 0;
+    for (int offset = 0; offset < halfExtents.length; offset += 3) {
+      reach = Math.max(reach, getMaxReach(offset));
+    }
+    return reach;
+  }
+
+  private float getMaxReach(int offset) {
+    float x = halfExtents[offset];
+    float y = halfExtents[offset + 1];
+    float z = halfExtents[offset + 2];
+    return (float) Math.sqrt(x * x + y * y + z * z);
+  }
+
+  public int getPlankCount() {
+    return positions.length / 3;
+  }
+
+  public float[] getHalfExtents() {
+    return halfExtents;
+  }
+
+  public float[] getPositions() {
+    return positions;
+  }
+
+  /**
+   * @return the plank rotations, null if the planks are not rotated
+   */
+  public float[] getRotations() {
+    return rotations;
+  }
+
+  public boolean isResting() {
+    return resting;
+  }
+}
@@ -0,0 +1,19 @@
+package dev.csaba.arphysics.engine;
+
+/**
+ * Layout of a trajectory file: a header followed by fixed width little-endian records of
+ * step index (int), body id (int, the pose slot), position (3 floats) and rotation quaternion
+ * (x, y, z, w floats), ordered by step. The file is mapped in chunks of whole records.
+ */
+final class TrajectoryFormat {
+
+  static final int MAGIC = 0x41525054;  // ARPT
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  static final int RECORD_SIZE = 4 + 4 + PoseSnapshot.STRIDE * 4;
+  static final int CHUNK_RECORDS = 1 << 18;
+  static final long CHUNK_SIZE = (long)CHUNK_RECORDS * RECORD_SIZE;
+
+  private TrajectoryFormat() {
+  }
+}
@@ -0,0 +1,142 @@
+package dev.csaba.arphysics.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams a file of TrajectoryWriter back record by record. Records are fixed width and
+ * ordered by step, so any step can be found with a binary search without reading the rest.
+ */
+public class TrajectoryReader implements Closeable {
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final int bodyCount;
+  private final long recordCount;
+  private MappedByteBuffer chunk;
+  private long chunkIndex = -1;
+  // Index of the record next() reads
+  private long nextRecord;
+  private int step;
+  private int bodyId;
+  private final float[] pose = new float[PoseSnapshot.STRIDE];
+
+  public TrajectoryReader(File source) throws IOException {
+    file = new RandomAccessFile(source, "r");
+    channel = file.getChannel();
+    ByteBuffer header = ByteBuffer.allocate(TrajectoryFormat.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    channel.read(header, 0);
+    header.flip();
+    if (header.remaining() < TrajectoryFormat.HEADER_SIZE || header.getInt() != TrajectoryFormat.MAGIC) {
+      file.close();
+      throw new IOException("Not a trajectory file");
+    }
+    int version = header.getInt();
+    int recordSize = header.getInt();
+    if (version != TrajectoryFormat.VERSION || recordSize != TrajectoryFormat.RECORD_SIZE) {
+      file.close();
+      throw new IOException("Unsupported trajectory version " + version);
+    }
+    bodyCount = header.getInt();
+    recordCount = (channel.size() - TrajectoryFormat.HEADER_SIZE) / TrajectoryFormat.RECORD_SIZE;
+  }
+
+  /**
+   * @return number of pose slots of the recorded simulation
+   */
+  public int getBodyCount() {
+    return bodyCount;
+  }
+
+  public long getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * @return index of the first record of the step or of the first later one,
+   * getRecordCount() if there is none
+   */
+  public long findStep(int step) throws IOException {
+    long low = 0;
+    long high = recordCount;
+    while (low < high) {
+      long middle = (low + high) >>> 1;
+      if (readStep(middle) < step) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Positions the reader, the next call of next() reads the given record.
+   */
+  public void seek(long recordIndex) {
+    nextRecord = recordIndex;
+  }
+
+  /**
+   * Reads the next record into getStep, getBodyId and getPose.
+   * @return false at the end of the file
+   */
+  public boolean next() throws IOException {
+    if (nextRecord >= recordCount) {
+      return false;
+    }
+    ByteBuffer buffer = locate(nextRecord);
+    step = buffer.getInt();
+    bodyId = buffer.getInt();
+    for (int i = 0; i < PoseSnapshot.STRIDE; i++) {
+      pose[i] = buffer.getFloat();
+    }
+    nextRecord++;
+    return true;
+  }
+
+  public int getStep() {
+    return step;
+  }
+
+  public int getBodyId() {
+    return bodyId;
+  }
+
+  /**
+   * @return translation and rotation quaternion of the current record in PoseSnapshot layout,
+   * overwritten by the next call of next()
+   */
+  public float[] getPose() {
+    return pose;
+  }
+
+  private int readStep(long recordIndex) throws IOException {
+    return locate(recordIndex).getInt();
+  }
+
+  private ByteBuffer locate(long recordIndex) throws IOException {
+    long index = recordIndex / TrajectoryFormat.CHUNK_RECORDS;
+    if (index != chunkIndex) {
+      long start = TrajectoryFormat.HEADER_SIZE + index * TrajectoryFormat.CHUNK_SIZE;
+      long size = Math.min(TrajectoryFormat.CHUNK_SIZE, channel.size() - start);
+      chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+      chunk.order(ByteOrder.LITTLE_ENDIAN);
+      chunkIndex = index;
+    }
+    chunk.position((int)(recordIndex % TrajectoryFormat.CHUNK_RECORDS * TrajectoryFormat.RECORD_SIZE));
+    return chunk;
+  }
+
+  @Override
+  public void close() throws IOException {
+    chunk = null;
+    file.close();
+  }
+}
@@ -0,0 +1,193 @@
+package dev.csaba.arphysics.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Exports the pose of every body after every step into a trajectory file (see TrajectoryFormat).
+ * onStep only copies the poses into a preallocated frame and hands it to a writer thread,
+ * which stores it through a memory mapped FileChannel. When the writer falls behind frames are
+ * dropped and counted instead of holding up the simulation.
+ */
+public class TrajectoryWriter implements StepListener, Closeable {
+
+  private static final String TAG = "TrajectoryWriter";
+  public static final int DEFAULT_FRAME_CAPACITY = 32;
+
+  private static final class Frame {
+    private final int[] bodyIds;
+    private final float[] poses;
+    private int step;
+    private int bodyCount;
+
+    Frame(int capacity) {
+      bodyIds = new int[capacity];
+      poses = new float[capacity * PoseSnapshot.STRIDE];
+    }
+  }
+
+  // Handed to the writer thread to make it finish
+  private static final Frame END_OF_STREAM = new Frame(0);
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final ArrayBlockingQueue<Frame> freeFrames;
+  private final ArrayBlockingQueue<Frame> filledFrames;
+  private final Thread writerThread;
+  private MappedByteBuffer chunk;
+  private long chunkIndex = -1;
+  private long recordCount;
+  private volatile long droppedFrames;
+  private volatile IOException error;
+  private boolean closed;
+
+  public TrajectoryWriter(File target, int bodyCount) throws IOException {
+    this(target, bodyCount, DEFAULT_FRAME_CAPACITY);
+  }
+
+  /**
+   * @param bodyCount number of pose slots of the simulation
+   * @param frameCapacity number of steps that can be waiting for the writer thread
+   */
+  public TrajectoryWriter(File target, int bodyCount, int frameCapacity) throws IOException {
+    file = new RandomAccessFile(target, "rw");
+    file.setLength(0);
+    channel = file.getChannel();
+    ByteBuffer header = ByteBuffer.allocate(TrajectoryFormat.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(TrajectoryFormat.MAGIC);
+    header.putInt(TrajectoryFormat.VERSION);
+    header.putInt(TrajectoryFormat.RECORD_SIZE);
+    header.putInt(bodyCount);
+    header.flip();
+    channel.write(header, 0);
+
+    freeFrames = new ArrayBlockingQueue<>(frameCapacity);
+    filledFrames = new ArrayBlockingQueue<>(frameCapacity + 1);
+    for (int i = 0; i < frameCapacity; i++) {
+      freeFrames.add(new Frame(bodyCount));
+    }
+    writerThread = new Thread(this::runWriter, TAG);
+    writerThread.start();
+  }
+
+  @Override
+  public void onStep(BodyStateBuffer state) {
+    Frame frame = freeFrames.poll();
+    if (frame == null) {
+      droppedFrames++;
+      return;
+    }
+    float[] positions = state.getPositions();
+    float[] rotations = state.getRotations();
+    int count = 0;
+    for (int slot = 0; slot < state.getBodyCount(); slot++) {
+      if (!state.isWritten(slot)) {
+        continue;
+      }
+      frame.bodyIds[count] = slot;
+      int offset = count * PoseSnapshot.STRIDE;
+      System.arraycopy(positions, slot * 3, frame.poses, offset, 3);
+      System.arraycopy(rotations, slot * 4, frame.poses, offset + 3, 4);
+      count++;
+    }
+    frame.step = (int)state.getStepCount();
+    frame.bodyCount = count;
+    filledFrames.add(frame);
+  }
+
+  private void runWriter() {
+    try {
+      while (true) {
+        Frame frame = filledFrames.take();
+        if (frame == END_OF_STREAM) {
+          return;
+        }
+        if (error == null) {
+          try {
+            writeFrame(frame);
+          } catch (IOException e) {
+            error = e;
+          }
+        }
+        freeFrames.add(frame);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeFrame(Frame frame) throws IOException {
+    for (int i = 0; i < frame.bodyCount; i++) {
+      long index = recordCount % TrajectoryFormat.CHUNK_RECORDS;
+      if (index == 0 || chunk == null) {
+        mapChunk(recordCount / TrajectoryFormat.CHUNK_RECORDS);
+      }
+      chunk.position((int)(index * TrajectoryFormat.RECORD_SIZE));
+      chunk.putInt(frame.step);
+      chunk.putInt(frame.bodyIds[i]);
+      int offset = i * PoseSnapshot.STRIDE;
+      for (int j = 0; j < PoseSnapshot.STRIDE; j++) {
+        chunk.putFloat(frame.poses[offset + j]);
+      }
+      recordCount++;
+    }
+  }
+
+  private void mapChunk(long index) throws IOException {
+    if (index == chunkIndex) {
+      return;
+    }
+    chunkIndex = index;
+    long start = TrajectoryFormat.HEADER_SIZE + index * TrajectoryFormat.CHUNK_SIZE;
+    chunk = channel.map(FileChannel.MapMode.READ_WRITE, start, TrajectoryFormat.CHUNK_SIZE);
+    chunk.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  /**
+   * @return the error that stopped the writing, null if there was none
+   */
+  public IOException getError() {
+    return error;
+  }
+
+  /**
+   * Writes out the waiting frames and trims the file to the written records.
+   * The stepping thread must not call onStep any more.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    filledFrames.add(END_OF_STREAM);
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      if (chunk != null) {
+        chunk.force();
+      }
+      chunk = null;
+      file.setLength(TrajectoryFormat.HEADER_SIZE + recordCount * TrajectoryFormat.RECORD_SIZE);
+    } finally {
+      file.close();
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+}
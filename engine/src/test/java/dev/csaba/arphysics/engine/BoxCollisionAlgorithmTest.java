@@ -0,0 +1,158 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.broadphase.Dispatcher;
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.narrowphase.PersistentManifold;
+import com.bulletphysics.collision.shapes.BoxShape;
+import com.bulletphysics.collision.shapes.StaticPlaneShape;
+import com.bulletphysics.util.ObjectArrayList;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+import static org.junit.Assert.*;
+
+public class BoxCollisionAlgorithmTest {
+
+  private static final float FRAME_TIME = 1.0f / 30.0f;
+  private static final Vector3f PLANK_BOX = new Vector3f(0.1f, 0.025f, 0.05f);
+
+  private static JBulletSimulation createSimulation(boolean boxCollisionAlgorithms) {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(1);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, SimulationScenario.PlankTower);
+    simulation.setBoxCollisionAlgorithms(boxCollisionAlgorithms);
+    return simulation;
+  }
+
+  private static PersistentManifold findManifold(JBulletSimulation simulation, Class<?> shapeClass0,
+                                                 Class<?> shapeClass1) {
+    Dispatcher dispatcher = simulation.getDynamicsWorld().getDispatcher();
+    for (int i = 0; i < dispatcher.getNumManifolds(); i++) {
+      PersistentManifold manifold = dispatcher.getManifoldByIndexInternal(i);
+      Class<?> class0 = ((CollisionObject) manifold.getBody0()).getCollisionShape().getClass();
+      Class<?> class1 = ((CollisionObject) manifold.getBody1()).getCollisionShape().getClass();
+      if (class0 == shapeClass0 && class1 == shapeClass1 || class0 == shapeClass1 && class1 == shapeClass0) {
+        return manifold;
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void plankOnGround_getsFourContactsInOneStep() {
+    JBulletSimulation simulation = createSimulation(true);
+    simulation.addPlankRigidBody(0, PLANK_BOX, new Vector3f(0, PLANK_BOX.y - 0.001f, 0));
+    simulation.step(JBulletSimulation.DEFAULT_FIXED_TIME_STEP);
+
+    PersistentManifold manifold = findManifold(simulation, BoxShape.class, StaticPlaneShape.class);
+    assertNotNull(manifold);
+    assertEquals(4, manifold.getNumContacts());
+    // Normal points up from the ground, at the corners of the plank's bottom face
+    Vector3f normal = manifold.getContactPoint(0).normalWorldOnB;
+    assertEquals(1.0f, Math.abs(normal.y), 1e-4f);
+    for (int i = 0; i < 4; i++) {
+      Vector3f point = manifold.getContactPoint(i).getPositionWorldOnB(new Vector3f());
+      assertEquals(PLANK_BOX.x, Math.abs(point.x), 0.005f);
+      assertEquals(PLANK_BOX.z, Math.abs(point.z), 0.005f);
+    }
+    simulation.clearScene();
+  }
+
+  @Test
+  public void stackedPlanks_getFourContactsInOneStep() {
+    JBulletSimulation simulation = createSimulation(true);
+    simulation.addPlankRigidBody(0, PLANK_BOX, new Vector3f(0, PLANK_BOX.y, 0));
+    simulation.addPlankRigidBody(1, PLANK_BOX, new Vector3f(0.02f, 3 * PLANK_BOX.y - 0.001f, 0));
+    simulation.step(JBulletSimulation.DEFAULT_FIXED_TIME_STEP);
+
+    PersistentManifold manifold = findManifold(simulation, BoxShape.class, BoxShape.class);
+    assertNotNull(manifold);
+    assertEquals(4, manifold.getNumContacts());
+    for (int i = 0; i < 4; i++) {
+      // On the overlap of the two faces
+      Vector3f point = manifold.getContactPoint(i).getPositionWorldOnB(new Vector3f());
+      assertEquals(2 * PLANK_BOX.y, point.y, 0.005f);
+      assertTrue(point.x >= 0.02f - PLANK_BOX.x - 0.001f && point.x <= PLANK_BOX.x + 0.001f);
+      assertEquals(0.0f, manifold.getContactPoint(i).getDistance(), 0.005f);
+    }
+    simulation.clearScene();
+  }
+
+  @Test
+  public void crossedPlanks_touchOnTheirOverlap() {
+    JBulletSimulation simulation = createSimulation(true);
+    simulation.addPlankRigidBody(0, PLANK_BOX, new Vector3f(0, PLANK_BOX.y, 0));
+    // The floors of the tower alternate like this
+    simulation.addPlankRigidBody(1, new Vector3f(PLANK_BOX.z, PLANK_BOX.y, PLANK_BOX.x),
+        new Vector3f(0, 3 * PLANK_BOX.y - 0.001f, 0));
+    simulation.step(JBulletSimulation.DEFAULT_FIXED_TIME_STEP);
+
+    PersistentManifold manifold = findManifold(simulation, BoxShape.class, BoxShape.class);
+    assertNotNull(manifold);
+    assertEquals(4, manifold.getNumContacts());
+    for (int i = 0; i < 4; i++) {
+      Vector3f point = manifold.getContactPoint(i).getPositionWorldOnB(new Vector3f());
+      assertEquals(PLANK_BOX.z, Math.abs(point.x), 0.005f);
+      assertEquals(PLANK_BOX.z, Math.abs(point.z), 0.005f);
+    }
+    simulation.clearScene();
+  }
+
+  @Test
+  public void separatedPlanks_haveNoContacts() {
+    JBulletSimulation simulation = createSimulation(true);
+    simulation.addPlankRigidBody(0, PLANK_BOX, new Vector3f(0, PLANK_BOX.y, 0));
+    simulation.addPlankRigidBody(1, PLANK_BOX, new Vector3f(0, 3 * PLANK_BOX.y + 0.02f, 0));
+    simulation.step(JBulletSimulation.DEFAULT_FIXED_TIME_STEP);
+
+    PersistentManifold manifold = findManifold(simulation, BoxShape.class, BoxShape.class);
+    assertTrue(manifold == null || manifold.getNumContacts() == 0);
+    simulation.clearScene();
+  }
+
+  @Test
+  public void tower_comesToRestWithoutDrift() {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(10);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, SimulationScenario.PlankTower);
+    StructureLayout layout = StructureLayout.create(modelParameters, SimulationScenario.PlankTower);
+    simulation.addStructure(layout);
+    float[] positions = simulation.getBodyState().getPositions();
+    float[] settled = null;
+    // Collapses a bit onto the ground first, then stays put for the remaining 5 seconds
+    for (int frame = 1; frame <= 300; frame++) {
+      simulation.step(FRAME_TIME);
+      if (frame == 150) {
+        settled = Arrays.copyOf(positions, layout.getPlankCount() * 3);
+      }
+    }
+    for (int i = 0; i < settled.length; i++) {
+      assertEquals(settled[i], positions[i], 0.001f);
+    }
+    ObjectArrayList<CollisionObject> bodies = simulation.getDynamicsWorld().getCollisionObjectArray();
+    for (int i = 0; i < bodies.size(); i++) {
+      assertFalse(bodies.getQuick(i).isActive() && !bodies.getQuick(i).isStaticOrKinematicObject());
+    }
+    simulation.clearScene();
+  }
+
+  @Test
+  public void switchingAlgorithms_recreatesThePairs() {
+    JBulletSimulation simulation = createSimulation(false);
+    simulation.addPlankRigidBody(0, PLANK_BOX, new Vector3f(0, PLANK_BOX.y - 0.001f, 0));
+    simulation.step(JBulletSimulation.DEFAULT_FIXED_TIME_STEP);
+    // The convex-plane algorithm adds a single point per collision pass
+    assertTrue(findManifold(simulation, BoxShape.class, StaticPlaneShape.class).getNumContacts() < 4);
+
+    simulation.setBoxCollisionAlgorithms(true);
+    assertTrue(simulation.isBoxCollisionAlgorithms());
+    simulation.step(JBulletSimulation.DEFAULT_FIXED_TIME_STEP);
+    assertEquals(4, findManifold(simulation, BoxShape.class, StaticPlaneShape.class).getNumContacts());
+    simulation.clearScene();
+  }
+}
@@ -0,0 +1,283 @@
+package dev.csaba.arphysics.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.bulletphysics.collision.broadphase.BroadphasePair;
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.shapes.CollisionShape;
+import com.bulletphysics.collision.shapes.SphereShape;
+import com.bulletphysics.dynamics.RigidBody;
+
+import org.junit.Test;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+import static org.junit.Assert.*;
+
+public class JBulletSimulationTest extends PhysicsEngineConformanceTest {
+
+  // Same values MainActivity derives from the default preferences
+  static ModelParameters createModelParameters(int numFloors) {
+    return new ModelParameters(numFloors, 10.0f, 0.0f, 1.0f, 500.0f, 0.0f, 0.5f, 8000.0f,
+        0.2f, 0.05f, 0.025f, 0.05f, 0.0025f, 1);
+  }
+
+  static JBulletSimulation createSimulation(int numFloors, SimulationScenario scenario) {
+    ModelParameters modelParameters = createModelParameters(numFloors);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, scenario);
+    simulation.addStructure(StructureLayout.create(modelParameters, scenario));
+    return simulation;
+  }
+
+  @Override
+  protected PhysicsEngine createEngine(ModelParameters modelParameters, SimulationScenario scenario) {
+    return new PhysicsEngineFactory().create(PhysicsEngineFactory.JBULLET, modelParameters, scenario);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void factory_rejectsMissingEngines() {
+    assertFalse(PhysicsEngineFactory.isSupported(PhysicsEngineFactory.JMONKEY));
+    new PhysicsEngineFactory().create(PhysicsEngineFactory.JMONKEY,
+        createModelParameters(1), SimulationScenario.PlankTower);
+  }
+
+  @Test
+  public void tower_sharesPlankShapes() {
+    JBulletSimulation simulation = createSimulation(5, SimulationScenario.PlankTower);
+    // One shape per plank orientation, the floors alternate
+    assertEquals(2, simulation.getShapeCache().size());
+    RigidBody[] planks = planks(simulation);
+    assertSame(planks[0].getCollisionShape(), planks[1].getCollisionShape());
+    assertSame(planks[0].getCollisionShape(), planks[4].getCollisionShape());
+    assertNotSame(planks[0].getCollisionShape(), planks[2].getCollisionShape());
+  }
+
+  @Test
+  public void plankMatrix_sharesOneShapeAcrossRebuilds() {
+    JBulletSimulation simulation = createSimulation(5, SimulationScenario.CollisionBox);
+    assertEquals(1, simulation.getShapeCache().size());
+    CollisionShape shape = planks(simulation)[0].getCollisionShape();
+    simulation.clearScene();
+
+    ModelParameters modelParameters = createModelParameters(5);
+    JBulletSimulation rebuilt = new JBulletSimulation(
+        modelParameters, SimulationScenario.CollisionBox, simulation.getShapeCache());
+    float[] halfExtents =
+        StructureLayout.create(modelParameters, SimulationScenario.CollisionBox).getHalfExtents();
+    rebuilt.addPlankRigidBody(0,
+        new Vector3f(halfExtents[0], halfExtents[1], halfExtents[2]), new Vector3f(0, 0.1f, 0));
+    assertEquals(1, rebuilt.getShapeCache().size());
+    assertSame(shape, planks(rebuilt)[0].getCollisionShape());
+  }
+
+  @Test
+  public void fastBall_passesThinPlankWithoutContinuousCollision() {
+    // What the continuous collision detection is for, a sub-step jumps over the plank
+    PhysicsEngine engine = createThinPlankTarget(40.0f);
+    // Not long enough to fly out of range
+    run(engine, 0.2f);
+    float[] poses = poses(engine);
+    assertEquals(0.0f, poses[2], 0.01f);
+    assertTrue(poses[engine.getBallSlot() * PoseSnapshot.STRIDE + 2] < -1.0f);
+  }
+
+  @Test
+  public void continuousCollision_clampsOnlyFastMotions() {
+    JBulletSimulation simulation = (JBulletSimulation) createThinPlankTarget(40.0f);
+    simulation.setContinuousCollision(0.05f, false);
+    ContinuousCollisionDynamicsWorld world = (ContinuousCollisionDynamicsWorld) simulation.getDynamicsWorld();
+    simulation.step(1.0f / 30.0f);
+    assertEquals(1, world.getClampedMotions());
+
+    JBulletSimulation slow = (JBulletSimulation) createThinPlankTarget(1.0f);
+    slow.setContinuousCollision(0.05f, false);
+    run(slow, 1.0f);
+    assertEquals(0, ((ContinuousCollisionDynamicsWorld) slow.getDynamicsWorld()).getClampedMotions());
+  }
+
+  @Test
+  public void fixedTimeStep_isAppliedByThePhysicsThread() {
+    JBulletSimulation simulation = createSimulation(2, SimulationScenario.PlankTower);
+    simulation.startPhysicsThread();
+    simulation.setFixedTimeStep(1.0f / 60.0f, 2);
+    // Queued until the thread picks it up, stopping the thread applies what is left
+    simulation.stopPhysicsThread();
+    assertEquals(1.0f / 60.0f, simulation.getFixedTimeStep(), 0);
+    assertEquals(2, simulation.getMaxSubSteps());
+    simulation.clearScene();
+  }
+
+  @Test
+  public void restartedPhysicsThread_skipsTheStoppedTime() throws InterruptedException {
+    JBulletSimulation simulation = createSimulation(2, SimulationScenario.PlankTower);
+    // Enough sub-steps to make up half a second in one step
+    simulation.setFixedTimeStep(1.0f / 120.0f, 1000);
+    simulation.startPhysicsThread();
+    simulation.launchBall(0, new Vector3f(0, 1.0f, 1.0f), new Vector3f(0, 0, -1.0f));
+    Thread.sleep(50);
+    simulation.stopPhysicsThread();
+    Thread.sleep(500);
+    simulation.startPhysicsThread();
+    Thread.sleep(50);
+    simulation.stopPhysicsThread();
+    assertTrue(simulation.getStats().getSubSteps().getMax() < 30);
+    simulation.clearScene();
+  }
+
+  @Test
+  public void ballPool_relaunchesWithoutNewBodies() {
+    JBulletSimulation simulation = createSimulation(5, SimulationScenario.PlankTower);
+    for (int ball = 0; ball < simulation.getBallCapacity(); ball++) {
+      simulation.launchBall(ball, new Vector3f(ball * 0.2f, 0.5f, 1.0f), new Vector3f(0, 0, -2.0f));
+    }
+    simulation.step(1.0f / 30.0f);
+    int objectCount = simulation.getDynamicsWorld().getNumCollisionObjects();
+    for (int ball = 0; ball < simulation.getBallCapacity(); ball++) {
+      assertTrue(simulation.isBallInFlight(ball));
+      assertTrue(simulation.getBodyState().isWritten(simulation.getBallSlot() + ball));
+    }
+
+    // A ball in flight is taken back and thrown again
+    simulation.launchBall(0, new Vector3f(0, 1.0f, 2.0f), new Vector3f(0, 0, -1.0f));
+    assertEquals(objectCount, simulation.getDynamicsWorld().getNumCollisionObjects());
+    simulation.step(1.0f / 30.0f);
+    float[] positions = simulation.getBodyState().getPositions();
+    int slot = simulation.getBallSlot();
+    assertEquals(2.0f - 1.0f / 30.0f, positions[slot * 3 + 2], 0.01f);
+    assertEquals(objectCount, simulation.getDynamicsWorld().getNumCollisionObjects());
+  }
+
+  @Test
+  public void ballPool_reclaimsSleepingAndOutOfRangeBalls() {
+    JBulletSimulation simulation = createSimulation(1, SimulationScenario.PlankTower);
+    int slot = simulation.getBallSlot();
+    simulation.launchBall(0, new Vector3f(0, 0.05f, 1.0f), new Vector3f(0, 0, 0));
+    simulation.launchBall(1, new Vector3f(0, 1.0f, 0), new Vector3f(50.0f, 0, 0));
+    simulation.step(1.0f / 30.0f);
+    assertTrue(simulation.isBallInFlight(0));
+    assertTrue(simulation.isBallInFlight(1));
+
+    run(simulation, 0.5f);
+    assertFalse(simulation.isBallInFlight(1));
+    assertFalse(simulation.getBodyState().isWritten(slot + 1));
+    assertFalse(PoseSnapshot.isWritten(poses(simulation), slot + 1));
+    assertTrue(simulation.isBallInFlight(0));
+
+    // Resting on the ground, falls asleep after two seconds
+    run(simulation, 3.0f);
+    assertFalse(simulation.isBallInFlight(0));
+    assertFalse(simulation.getBodyState().isWritten(slot));
+    // Parked balls are not simulated, only the planks are left
+    assertEquals(simulation.getPlankCount(), simulation.getStats().getActiveBodies().getLast()
+        + simulation.getStats().getSleepingBodies().getLast(), 0);
+
+    simulation.launchBall(0, new Vector3f(0, 0.5f, 1.0f), new Vector3f(0, 0, -1.0f));
+    simulation.step(1.0f / 30.0f);
+    assertTrue(simulation.getBodyState().isWritten(slot));
+    assertEquals(0.5f, simulation.getBodyState().getPositions()[slot * 3 + 1], 0.05f);
+  }
+
+  @Test
+  public void axisSweep_coversTheBallRange() {
+    ModelParameters modelParameters = createModelParameters(1);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters,
+        SimulationScenario.PlankTower, new ShapeCache(), BroadphaseType.AxisSweep);
+    simulation.addStructure(StructureLayout.create(modelParameters, SimulationScenario.PlankTower));
+    // Meters apart, but both past the same corner of the structure bounds
+    simulation.launchBall(0, new Vector3f(3.0f, 3.0f, 3.0f), new Vector3f(0, 0, 0));
+    simulation.launchBall(1, new Vector3f(5.0f, 5.0f, 5.0f), new Vector3f(0, 0, 0));
+    simulation.step(1.0f / 30.0f);
+    assertTrue(simulation.isBallInFlight(0));
+    assertTrue(simulation.isBallInFlight(1));
+    for (BroadphasePair pair : simulation.getDynamicsWorld().getBroadphase()
+        .getOverlappingPairCache().getOverlappingPairArray()) {
+      CollisionObject first = (CollisionObject)pair.pProxy0.clientObject;
+      CollisionObject second = (CollisionObject)pair.pProxy1.clientObject;
+      assertFalse(first.getCollisionShape() instanceof SphereShape &&
+          second.getCollisionShape() instanceof SphereShape);
+    }
+  }
+
+  @Test
+  public void retirement_freezesKnockedOffPlanksAtRest() {
+    ModelParameters modelParameters = createModelParameters(10);
+    StructureLayout layout = StructureLayout.create(modelParameters, SimulationScenario.PlankTower);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, SimulationScenario.PlankTower);
+    simulation.setRetirement(RetirementPolicy.around(layout, 2.0f, 1.0f, true));
+    simulation.addStructure(layout);
+    // Standing still in place, the intact tower is kept for the ball
+    run(simulation, 3.0f);
+    assertEquals(0, simulation.getStats().getFrozenBodies());
+
+    simulation.launchBall(0, new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+    run(simulation, 6.0f);
+    int frozen = 0;
+    float[] poses = poses(simulation);
+    for (int i = 0; i < simulation.getPlankCount(); i++) {
+      if (simulation.isPlankFrozen(i)) {
+        frozen++;
+        // Still in the scene, only no longer simulated
+        assertTrue(PoseSnapshot.isWritten(poses, i));
+      }
+    }
+    assertTrue(frozen > 0);
+    assertEquals(frozen, simulation.getStats().getFrozenBodies());
+    // Frozen planks turned static, the ones flying out of bounds are gone, the ball stays
+    int dynamic = 0;
+    for (RigidBody plank : planks(simulation)) {
+      if (plank != null) {
+        dynamic++;
+      }
+    }
+    assertEquals(simulation.getPlankCount() - frozen - simulation.getStats().getRemovedBodies() + 1,
+        dynamic);
+  }
+
+  @Test
+  public void resetScene_reusesTheBodiesAndBringsBackRetiredPlanks() {
+    ModelParameters modelParameters = createModelParameters(10);
+    StructureLayout layout = StructureLayout.create(modelParameters, SimulationScenario.PlankTower);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, SimulationScenario.PlankTower);
+    simulation.setRetirement(RetirementPolicy.around(layout, 0.5f, 0.5f, true));
+    simulation.addStructure(layout);
+    simulation.launchBall(0, new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+    List<CollisionObject> objects =
+        new ArrayList<>(simulation.getDynamicsWorld().getCollisionObjectArray());
+    run(simulation, 5.0f);
+    PhysicsStats stats = simulation.getStats();
+    assertTrue(stats.getRemovedBodies() > 0);
+    assertTrue(stats.getFrozenBodies() > 0);
+
+    simulation.resetScene();
+    // The totals are those of the restarted scene
+    assertEquals(0, stats.getRemovedBodies());
+    assertEquals(0, stats.getFrozenBodies());
+    List<CollisionObject> resetObjects = simulation.getDynamicsWorld().getCollisionObjectArray();
+    assertEquals(objects.size(), resetObjects.size());
+    assertTrue(resetObjects.containsAll(objects));
+    for (int i = 0; i < simulation.getPlankCount(); i++) {
+      assertFalse(simulation.isPlankFrozen(i));
+      assertTrue(simulation.getBodyState().isWritten(i));
+    }
+    assertFalse(simulation.isBallInFlight(0));
+    // The poses are shown without waiting for a step
+    assertNotNull(simulation.update(null));
+    assertNull(simulation.update(null));
+  }
+
+  private static RigidBody[] planks(JBulletSimulation simulation) {
+    RigidBody[] planks = new RigidBody[simulation.getPlankCount()];
+    int count = 0;
+    for (CollisionObject collisionObject : simulation.getDynamicsWorld().getCollisionObjectArray()) {
+      RigidBody body = RigidBody.upcast(collisionObject);
+      if (body != null && body.getInvMass() > 0) {
+        planks[count++] = body;
+      }
+    }
+    return planks;
+  }
+}
@@ -0,0 +1,85 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.broadphase.Dispatcher;
+import com.bulletphysics.collision.narrowphase.ManifoldPoint;
+import com.bulletphysics.collision.narrowphase.PersistentManifold;
+
+import org.junit.Test;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.SimulationScenario;
+
+import static org.junit.Assert.*;
+
+public class ParallelCollisionDispatcherTest {
+
+  private static final float FRAME_TIME = 1.0f / 30.0f;
+
+  private static JBulletSimulation createPlankMatrix(int narrowphaseThreads) {
+    JBulletSimulation simulation = JBulletSimulationTest.createSimulation(8, SimulationScenario.CollisionBox);
+    simulation.setNarrowphaseThreads(narrowphaseThreads);
+    simulation.addCylinderKineticBody(new Vector3f(0, 0, 0));
+    simulation.addBallRigidBody(new Vector3f(0, 0.1f, 1.0f), new Vector3f(0, 0, -5.0f));
+    return simulation;
+  }
+
+  private static void assertSameContacts(Dispatcher expected, Dispatcher actual, int frame) {
+    assertEquals("manifolds at frame " + frame, expected.getNumManifolds(), actual.getNumManifolds());
+    Vector3f expectedPosition = new Vector3f();
+    Vector3f actualPosition = new Vector3f();
+    for (int i = 0; i < expected.getNumManifolds(); i++) {
+      PersistentManifold expectedManifold = expected.getManifoldByIndexInternal(i);
+      PersistentManifold actualManifold = actual.getManifoldByIndexInternal(i);
+      assertEquals(expectedManifold.getNumContacts(), actualManifold.getNumContacts());
+      for (int j = 0; j < expectedManifold.getNumContacts(); j++) {
+        ManifoldPoint expectedPoint = expectedManifold.getContactPoint(j);
+        ManifoldPoint actualPoint = actualManifold.getContactPoint(j);
+        expectedPoint.getPositionWorldOnB(expectedPosition);
+        actualPoint.getPositionWorldOnB(actualPosition);
+        assertEquals(expectedPosition, actualPosition);
+        assertEquals(expectedPoint.getDistance(), actualPoint.getDistance(), 0.0f);
+        assertEquals(expectedPoint.normalWorldOnB, actualPoint.normalWorldOnB);
+      }
+    }
+  }
+
+  @Test
+  public void parallelDispatch_findsTheSerialContacts() {
+    JBulletSimulation serial = createPlankMatrix(1);
+    JBulletSimulation parallel = createPlankMatrix(4);
+    Dispatcher serialDispatcher = serial.getDynamicsWorld().getDispatcher();
+    Dispatcher parallelDispatcher = parallel.getDynamicsWorld().getDispatcher();
+    for (int frame = 0; frame < 60; frame++) {
+      Vector3f cylinderPosition = new Vector3f(frame * 0.002f, 0, 0);
+      serial.updateCylinderLocation(cylinderPosition);
+      parallel.updateCylinderLocation(cylinderPosition);
+      serial.step(FRAME_TIME);
+      parallel.step(FRAME_TIME);
+      assertSameContacts(serialDispatcher, parallelDispatcher, frame);
+    }
+    assertTrue(parallelDispatcher.getNumManifolds() > 0);
+    assertEquals(SimulationRecorder.checksum(serial.getBodyState()),
+        SimulationRecorder.checksum(parallel.getBodyState()));
+    serial.clearScene();
+    parallel.clearScene();
+  }
+
+  @Test
+  public void changingTheWorkers_rebuildsTheAlgorithms() {
+    JBulletSimulation simulation = createPlankMatrix(2);
+    for (int frame = 0; frame < 40; frame++) {
+      if (frame == 20) {
+        // The algorithms of the old workers are dropped and created again by the new ones
+        simulation.setNarrowphaseThreads(3);
+      }
+      simulation.step(FRAME_TIME);
+    }
+    assertTrue(simulation.getDynamicsWorld().getDispatcher().getNumManifolds() > 0);
+    BodyStateBuffer state = simulation.getBodyState();
+    for (int i = 0; i < simulation.getPlankCount(); i++) {
+      assertTrue(state.getPositions()[i * 3 + 1] > 0);
+    }
+    simulation.clearScene();
+  }
+}
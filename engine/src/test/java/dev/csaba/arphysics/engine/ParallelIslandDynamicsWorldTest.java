@@ -0,0 +1,69 @@
+package dev.csaba.arphysics.engine;
+
+import org.junit.Test;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.SimulationScenario;
+
+import static org.junit.Assert.*;
+
+public class ParallelIslandDynamicsWorldTest {
+
+  private static final float FRAME_TIME = 1.0f / 30.0f;
+
+  private static long runPlankMatrix(int solverThreads) {
+    JBulletSimulation simulation = JBulletSimulationTest.createSimulation(10, SimulationScenario.CollisionBox);
+    simulation.setSolverThreads(solverThreads);
+    simulation.addCylinderKineticBody(new Vector3f(0, 0, 0));
+    for (int frame = 0; frame < 60; frame++) {
+      simulation.updateCylinderLocation(new Vector3f(frame * 0.002f, 0, 0));
+      simulation.step(FRAME_TIME);
+    }
+    long checksum = SimulationRecorder.checksum(simulation.getBodyState());
+    simulation.clearScene();
+    return checksum;
+  }
+
+  @Test
+  public void parallelSolve_isDeterministic() {
+    long first = runPlankMatrix(4);
+    for (int run = 0; run < 3; run++) {
+      assertEquals(first, runPlankMatrix(4));
+    }
+    // Islands are solved the same way whatever thread picks them up
+    assertEquals(first, runPlankMatrix(2));
+    assertEquals(first, runPlankMatrix(1));
+  }
+
+  @Test
+  public void parallelSolve_keepsTheTowerStanding() {
+    JBulletSimulation simulation = JBulletSimulationTest.createSimulation(10, SimulationScenario.PlankTower);
+    simulation.setSolverThreads(4);
+    float[] poses = new float[simulation.getPoseCount() * PoseSnapshot.STRIDE];
+    simulation.writePoses(poses);
+    float initialTop = poses[(simulation.getPlankCount() - 1) * PoseSnapshot.STRIDE + 1];
+    for (int frame = 0; frame < 90; frame++) {
+      simulation.step(FRAME_TIME);
+    }
+    simulation.writePoses(poses);
+    assertTrue(poses[(simulation.getPlankCount() - 1) * PoseSnapshot.STRIDE + 1] >= initialTop - 0.01f);
+    simulation.clearScene();
+  }
+
+  @Test
+  public void parallelSolve_keepsThePlanksOnTheGround() {
+    JBulletSimulation simulation = JBulletSimulationTest.createSimulation(10, SimulationScenario.CollisionBox);
+    simulation.setSolverThreads(4);
+    for (int frame = 0; frame < 60; frame++) {
+      simulation.step(FRAME_TIME);
+    }
+    BodyStateBuffer state = simulation.getBodyState();
+    for (int i = 0; i < simulation.getPlankCount(); i++) {
+      // Resting on the ground plane or on each other, neither sinking through nor thrown off
+      assertTrue(state.getPositions()[i * 3 + 1] > 0);
+      assertTrue(state.getPositions()[i * 3 + 1] < 1.0f);
+    }
+    simulation.clearScene();
+  }
+}
@@ -0,0 +1,275 @@
+package dev.csaba.arphysics.engine;
+
+import org.junit.Test;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+import static org.junit.Assert.*;
+
+/**
+ * Behavior every PhysicsEngine has to show on the same scenes, extended once per engine.
+ */
+public abstract class PhysicsEngineConformanceTest {
+
+  private static final float FRAME_TIME = 1.0f / 30.0f;
+
+  protected abstract PhysicsEngine createEngine(ModelParameters modelParameters,
+                                                SimulationScenario scenario);
+
+  private PhysicsEngine createScene(int numFloors, SimulationScenario scenario) {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(numFloors);
+    PhysicsEngine engine = createEngine(modelParameters, scenario);
+    engine.addStructure(StructureLayout.create(modelParameters, scenario));
+    return engine;
+  }
+
+  static float[] poses(PhysicsEngine engine) {
+    float[] poses = new float[engine.getPoseCount() * PoseSnapshot.STRIDE];
+    engine.writePoses(poses);
+    return poses;
+  }
+
+  static void run(PhysicsEngine engine, float seconds) {
+    for (float time = 0; time < seconds; time += FRAME_TIME) {
+      engine.step(FRAME_TIME);
+    }
+  }
+
+  private static float topY(PhysicsEngine engine, float[] poses) {
+    float top = 0;
+    for (int i = 0; i < engine.getPlankCount(); i++) {
+      top = Math.max(top, poses[i * PoseSnapshot.STRIDE + 1]);
+    }
+    return top;
+  }
+
+  @Test
+  public void poseSlots_followTheLayout() {
+    for (SimulationScenario scenario : SimulationScenario.values()) {
+      ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(4);
+      PhysicsEngine engine = createEngine(modelParameters, scenario);
+      int plankCount = StructureLayout.create(modelParameters, scenario).getPlankCount();
+      assertEquals(plankCount, engine.getPlankCount());
+      assertEquals(plankCount, engine.getBallSlot());
+      assertEquals(plankCount + engine.getBallCapacity(), engine.getPoseCount());
+    }
+  }
+
+  @Test
+  public void structure_startsAtTheLayout() {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(5);
+    PhysicsEngine engine = createEngine(modelParameters, SimulationScenario.PlankTower);
+    StructureLayout layout = StructureLayout.create(modelParameters, SimulationScenario.PlankTower);
+    engine.addStructure(layout);
+
+    float[] poses = poses(engine);
+    float[] positions = layout.getPositions();
+    for (int i = 0; i < layout.getPlankCount(); i++) {
+      int offset = i * PoseSnapshot.STRIDE;
+      assertEquals(positions[i * 3], poses[offset], 1e-5f);
+      assertEquals(positions[i * 3 + 1], poses[offset + 1], 1e-5f);
+      assertEquals(positions[i * 3 + 2], poses[offset + 2], 1e-5f);
+      assertEquals(1.0f, poses[offset + 6], 1e-5f);
+    }
+    assertFalse(PoseSnapshot.isWritten(poses, engine.getBallSlot()));
+  }
+
+  @Test
+  public void update_waitsForTheBall() {
+    PhysicsEngine engine = createScene(3, SimulationScenario.PlankTower);
+    assertNull(engine.update(null));
+  }
+
+  @Test
+  public void step_keepsTheFixedRate() {
+    PhysicsEngine engine = createScene(3, SimulationScenario.PlankTower);
+    engine.setFixedTimeStep(1.0f / 120.0f, 8);
+    int subSteps = 0;
+    for (int frame = 0; frame < 30; frame++) {
+      subSteps += engine.step(FRAME_TIME);
+    }
+    // One second of simulation, give or take the carried over remainder
+    assertEquals(120, subSteps, 2);
+    assertEquals(30, engine.getStats().getSubSteps().getCount());
+  }
+
+  @Test
+  public void tower_standsOnItsOwn() {
+    PhysicsEngine engine = createScene(10, SimulationScenario.PlankTower);
+    float[] initial = poses(engine);
+
+    run(engine, 3.0f);
+
+    // The planks are spawned with their center at the floor level, so they only rise
+    assertTrue(topY(engine, poses(engine)) >= topY(engine, initial) - 0.01f);
+  }
+
+  @Test
+  public void tower_topplesWhenHit() {
+    PhysicsEngine engine = createScene(10, SimulationScenario.PlankTower);
+    float initialTop = topY(engine, poses(engine));
+
+    engine.addBallRigidBody(new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+    run(engine, 1.0f);
+    assertTrue(PoseSnapshot.isWritten(poses(engine), engine.getBallSlot()));
+    run(engine, 2.0f);
+
+    assertTrue(topY(engine, poses(engine)) < initialTop - 0.05f);
+  }
+
+  // A thin plank standing in the way of a ball, stepped at the frame rate instead of 120 Hz
+  PhysicsEngine createThinPlankTarget(float ballSpeed) {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(1);
+    PhysicsEngine engine = createEngine(modelParameters, SimulationScenario.PlankTower);
+    engine.setFixedTimeStep(FRAME_TIME, 1);
+    engine.addPlankRigidBody(0, new Vector3f(0.3f, 0.3f, modelParameters.getDepth() / 2),
+        new Vector3f(0, 0.3f, 0));
+    engine.addBallRigidBody(new Vector3f(0, 0.3f, 1.0f), new Vector3f(0, 0, -ballSpeed));
+    return engine;
+  }
+
+  @Test
+  public void fastBall_hitsThinPlankWithContinuousCollision() {
+    for (float speed : new float[] {10.0f, 20.0f, 40.0f, 80.0f}) {
+      PhysicsEngine engine = createThinPlankTarget(speed);
+      engine.setContinuousCollision(JBulletSimulationTest.createModelParameters(1).getRadius(), false);
+      run(engine, 0.5f);
+      // Knocked away instead of passed through
+      assertTrue("at " + speed + " m/s", poses(engine)[2] < -0.1f);
+    }
+  }
+
+  @Test
+  public void tower_topplesWhenHitWithContinuousCollisionOfThePlanks() {
+    PhysicsEngine engine = createScene(10, SimulationScenario.PlankTower);
+    engine.setFixedTimeStep(FRAME_TIME, 1);
+    engine.setContinuousCollision(0.01f, true);
+    float initialTop = topY(engine, poses(engine));
+
+    engine.addBallRigidBody(new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -20.0f));
+    run(engine, 2.0f);
+
+    assertTrue(topY(engine, poses(engine)) < initialTop - 0.05f);
+  }
+
+  @Test
+  public void plankMatrix_staysInsideTheBox() {
+    PhysicsEngine engine = createScene(10, SimulationScenario.CollisionBox);
+    engine.addCylinderKineticBody(new Vector3f(0, 0, 0));
+    for (int frame = 0; frame < 60; frame++) {
+      engine.updateCylinderLocation(new Vector3f(frame * 0.002f, 0, 0));
+      engine.step(FRAME_TIME);
+    }
+
+    float[] poses = poses(engine);
+    for (int i = 0; i < engine.getPlankCount(); i++) {
+      int offset = i * PoseSnapshot.STRIDE;
+      assertTrue(Math.abs(poses[offset]) < 0.55f);
+      assertTrue(poses[offset + 1] > -0.05f);
+      assertTrue(Math.abs(poses[offset + 2]) < 0.55f);
+    }
+  }
+
+  @Test
+  public void clearScene_removesTheBodies() {
+    PhysicsEngine engine = createScene(3, SimulationScenario.PlankTower);
+    engine.addBallRigidBody(new Vector3f(0, 0.1f, 1.0f), new Vector3f(0, 0, -1.0f));
+    engine.step(FRAME_TIME);
+    assertEquals(7, engine.getStats().getActiveBodies().getLast()
+        + engine.getStats().getSleepingBodies().getLast(), 0);
+
+    engine.clearScene();
+    engine.step(FRAME_TIME);
+    assertEquals(0, engine.getStats().getManifolds().getLast(), 0);
+    assertEquals(0, engine.getStats().getActiveBodies().getLast()
+        + engine.getStats().getSleepingBodies().getLast(), 0);
+    assertFalse(engine.getBodyState().isWritten(0));
+    assertFalse(engine.getBodyState().isWritten(engine.getBallSlot()));
+  }
+
+  @Test
+  public void retirement_removesPlanksOutOfBounds() {
+    PhysicsEngine engine = createScene(10, SimulationScenario.PlankTower);
+    // The upper half of the tower is out of bounds
+    engine.setRetirement(new RetirementPolicy(new Vector3f(-1.0f, -1.0f, -1.0f),
+        new Vector3f(1.0f, 0.25f, 1.0f), 0, false));
+    float[] initialPoses = poses(engine);
+    int outside = 0;
+    for (int i = 0; i < engine.getPlankCount(); i++) {
+      if (initialPoses[i * PoseSnapshot.STRIDE + 1] > 0.25f) {
+        outside++;
+      }
+    }
+    assertTrue(outside > 0);
+
+    engine.step(FRAME_TIME);
+    PhysicsStats stats = engine.getStats();
+    assertEquals(outside, stats.getRetiredBodies().getLast(), 0);
+    assertEquals(outside, stats.getRemovedBodies());
+    assertEquals(engine.getPlankCount() - outside,
+        stats.getActiveBodies().getLast() + stats.getSleepingBodies().getLast(), 0);
+    float[] poses = poses(engine);
+    for (int i = 0; i < engine.getPlankCount(); i++) {
+      boolean inside = initialPoses[i * PoseSnapshot.STRIDE + 1] <= 0.25f;
+      assertEquals(inside, PoseSnapshot.isWritten(poses, i));
+      assertEquals(inside, engine.getBodyState().isWritten(i));
+    }
+
+    engine.step(FRAME_TIME);
+    assertEquals(0, stats.getRetiredBodies().getLast(), 0);
+    assertEquals(outside, stats.getRemovedBodies());
+  }
+
+  @Test
+  public void resetScene_putsThePlanksBack() {
+    PhysicsEngine engine = createScene(10, SimulationScenario.PlankTower);
+    float[] initialPoses = poses(engine);
+    float initialTop = topY(engine, initialPoses);
+    engine.addBallRigidBody(new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+    run(engine, 2.0f);
+    assertTrue(topY(engine, poses(engine)) < initialTop - 0.05f);
+
+    engine.resetScene();
+    float[] poses = poses(engine);
+    for (int i = 0; i < engine.getPlankCount() * PoseSnapshot.STRIDE; i++) {
+      assertEquals(initialPoses[i], poses[i], 1e-6f);
+    }
+    assertFalse(PoseSnapshot.isWritten(poses, engine.getBallSlot()));
+
+    // Stands until hit again, then topples like the first time
+    run(engine, 1.0f);
+    assertEquals(initialTop, topY(engine, poses(engine)), 0.01f);
+    engine.addBallRigidBody(new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+    run(engine, 2.0f);
+    assertTrue(topY(engine, poses(engine)) < initialTop - 0.05f);
+    assertEquals(engine.getPlankCount(), engine.getStats().getActiveBodies().getLast()
+        + engine.getStats().getSleepingBodies().getLast(), 1);
+  }
+
+  @Test
+  public void bodyState_followsEveryStep() {
+    PhysicsEngine engine = createScene(3, SimulationScenario.PlankTower);
+    BodyStateBuffer state = engine.getBodyState();
+    assertEquals(engine.getPoseCount(), state.getBodyCount());
+    assertFalse(state.isWritten(engine.getBallSlot()));
+
+    engine.addBallRigidBody(new Vector3f(0, 1.0f, 1.0f), new Vector3f(0, 0, -2.0f));
+    for (int frame = 0; frame < 3; frame++) {
+      engine.step(FRAME_TIME);
+    }
+    assertEquals(3, state.getStepCount());
+
+    int ball = engine.getBallSlot();
+    assertTrue(state.isWritten(ball));
+    // Falling freely towards the tower
+    assertEquals(-2.0f, state.getLinearVelocities()[ball * 3 + 2], 1e-3f);
+    assertTrue(state.getLinearVelocities()[ball * 3 + 1] < -0.5f);
+    assertTrue(state.getPositions()[ball * 3 + 2] < 1.0f);
+    for (int i = 0; i < engine.getPlankCount(); i++) {
+      assertTrue(state.isWritten(i));
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.collision.shapes.BoxShape;
+import com.bulletphysics.dynamics.RigidBody;
+import com.bulletphysics.dynamics.RigidBodyConstructionInfo;
+import com.bulletphysics.linearmath.DefaultMotionState;
+import com.bulletphysics.linearmath.Transform;
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import javax.vecmath.Quat4f;
+import javax.vecmath.Vector3f;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class PoseWriterTest {
+
+  private static final int BODY_COUNT = 625;
+
+  private static RigidBody createBody(float x, float y, float z, Quat4f rotation) {
+    Transform transform = new Transform();
+    transform.setIdentity();
+    transform.origin.set(x, y, z);
+    transform.setRotation(rotation);
+    RigidBodyConstructionInfo info = new RigidBodyConstructionInfo(
+        1.0f, new DefaultMotionState(transform), new BoxShape(new Vector3f(0.1f, 0.1f, 0.1f)));
+    return new RigidBody(info);
+  }
+
+  private static Quat4f axisAngle(float x, float y, float z, float angle) {
+    float s = (float)Math.sin(angle / 2);
+    return new Quat4f(x * s, y * s, z * s, (float)Math.cos(angle / 2));
+  }
+
+  @Test
+  public void write_matchesMotionState() {
+    Quat4f[] rotations = {
+        axisAngle(0, 1, 0, 0),
+        axisAngle(1, 0, 0, 3.0f),
+        axisAngle(0, 1, 0, 3.0f),
+        axisAngle(0, 0, 1, 3.0f),
+        axisAngle(0.6f, 0.8f, 0, 1.2f)
+    };
+    PoseWriter poseWriter = new PoseWriter();
+    float[] poses = new float[rotations.length * PoseSnapshot.STRIDE];
+    for (int i = 0; i < rotations.length; i++) {
+      poseWriter.write(createBody(i, 2 * i, 3 * i, rotations[i]), poses, i);
+    }
+
+    for (int i = 0; i < rotations.length; i++) {
+      int offset = i * PoseSnapshot.STRIDE;
+      assertEquals(i, poses[offset], 1e-6f);
+      assertEquals(2 * i, poses[offset + 1], 1e-6f);
+      assertEquals(3 * i, poses[offset + 2], 1e-6f);
+      // q and -q are the same rotation
+      float sign = Math.signum(rotations[i].w * poses[offset + 6] +
+          rotations[i].x * poses[offset + 3] + rotations[i].y * poses[offset + 4] +
+          rotations[i].z * poses[offset + 5]);
+      assertEquals(rotations[i].x, sign * poses[offset + 3], 1e-5f);
+      assertEquals(rotations[i].y, sign * poses[offset + 4], 1e-5f);
+      assertEquals(rotations[i].z, sign * poses[offset + 5], 1e-5f);
+      assertEquals(rotations[i].w, sign * poses[offset + 6], 1e-5f);
+    }
+  }
+
+  @Test
+  public void write_doesNotAllocateInSteadyState() {
+    // Allocation counting is a HotSpot extension, skip elsewhere
+    Object threadBean = ManagementFactory.getThreadMXBean();
+    assumeTrue(threadBean instanceof ThreadMXBean);
+    ThreadMXBean allocationBean = (ThreadMXBean)threadBean;
+    long threadId = Thread.currentThread().getId();
+
+    RigidBody[] bodies = new RigidBody[BODY_COUNT];
+    for (int i = 0; i < BODY_COUNT; i++) {
+      bodies[i] = createBody(i * 0.01f, 0.1f, -i * 0.01f, axisAngle(0, 1, 0, i * 0.01f));
+    }
+    PoseWriter poseWriter = new PoseWriter();
+    float[] poses = new float[BODY_COUNT * PoseSnapshot.STRIDE];
+    BodyStateBuffer state = new BodyStateBuffer(BODY_COUNT);
+
+    // Warm up, so pools and JIT compiled code are in place
+    for (int frame = 0; frame < 200; frame++) {
+      writeAll(poseWriter, bodies, poses, state);
+    }
+
+    long baseline = allocationBean.getThreadAllocatedBytes(threadId);
+    long overhead = allocationBean.getThreadAllocatedBytes(threadId) - baseline;
+    long before = allocationBean.getThreadAllocatedBytes(threadId);
+    for (int frame = 0; frame < 100; frame++) {
+      writeAll(poseWriter, bodies, poses, state);
+    }
+    long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before - overhead;
+
+    assertEquals(0, allocated);
+  }
+
+  private static void writeAll(PoseWriter poseWriter, RigidBody[] bodies, float[] poses,
+                               BodyStateBuffer state) {
+    for (int i = 0; i < bodies.length; i++) {
+      poseWriter.write(bodies[i], poses, i);
+      poseWriter.writeState(bodies[i], state, i);
+    }
+  }
+}
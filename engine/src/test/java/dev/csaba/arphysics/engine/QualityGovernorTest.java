@@ -0,0 +1,117 @@
+package dev.csaba.arphysics.engine;
+
+import org.junit.Test;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.SimulationScenario;
+
+import static org.junit.Assert.*;
+
+public class QualityGovernorTest {
+
+  private static final float FRAME_TIME = 1.0f / 30.0f;
+
+  // Feeds frames until the level changes, returns the number of frames fed or -1
+  private static int feedUntilChange(QualityGovernor governor, float stepMillis, int maxFrames) {
+    for (int frame = 1; frame <= maxFrames; frame++) {
+      if (governor.addStepTime(stepMillis)) {
+        return frame;
+      }
+    }
+    return -1;
+  }
+
+  @Test
+  public void slowSteps_lowerTheQualityOncePerWindow() {
+    QualityGovernor governor = new QualityGovernor(10);
+    assertEquals(QualityLevel.FULL, governor.getQuality());
+    assertEquals(30, feedUntilChange(governor, 15, 100));
+    assertEquals(1, governor.getLevel());
+    assertEquals(30, feedUntilChange(governor, 15, 100));
+    assertEquals(2, governor.getLevel());
+    // Stops at the cheapest level
+    int changes = 0;
+    while (feedUntilChange(governor, 15, 100) > 0) {
+      changes++;
+    }
+    assertEquals(QualityGovernor.LEVELS.length - 3, changes);
+    assertEquals(QualityGovernor.LEVELS.length - 1, governor.getLevel());
+    assertEquals(-1, feedUntilChange(governor, 15, 100));
+  }
+
+  @Test
+  public void stepsJustBelowTheBudget_keepTheLevel() {
+    QualityGovernor governor = new QualityGovernor(10);
+    feedUntilChange(governor, 15, 100);
+    assertEquals(-1, feedUntilChange(governor, 9, 1000));
+    assertEquals(1, governor.getLevel());
+  }
+
+  @Test
+  public void fastSteps_raiseTheQualityAfterSeveralWindows() {
+    QualityGovernor governor = new QualityGovernor(10);
+    feedUntilChange(governor, 15, 100);
+    feedUntilChange(governor, 15, 100);
+    assertEquals(90, feedUntilChange(governor, 2, 1000));
+    assertEquals(1, governor.getLevel());
+    // A window over the budget in between starts the counting again
+    feedUntilChange(governor, 2, 60);
+    feedUntilChange(governor, 11, 30);
+    assertEquals(2, governor.getLevel());
+    assertEquals(90, feedUntilChange(governor, 2, 1000));
+  }
+
+  @Test
+  public void shortSteps_areSummedPerFrame() {
+    QualityGovernor governor = new QualityGovernor(10);
+    // Four 4 ms steps of the physics thread make up a 16 ms frame
+    int steps = 0;
+    while (!governor.addStepTime(4, FRAME_TIME / 4) && steps < 1000) {
+      steps++;
+    }
+    assertEquals(119, steps);
+    assertEquals(1, governor.getLevel());
+  }
+
+  @Test
+  public void governor_isFedByTheSteppingThread() throws InterruptedException {
+    JBulletSimulation simulation = JBulletSimulationTest.createSimulation(5, SimulationScenario.PlankTower);
+    QualityGovernor governor = new QualityGovernor(1e-6f);
+    simulation.setQualityGovernor(governor);
+    simulation.startPhysicsThread();
+    simulation.addBallRigidBody(new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (simulation.getStats().getQualityChanges() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    simulation.stopPhysicsThread();
+    assertEquals(2, simulation.getStats().getQualityChanges());
+    assertEquals(governor.getLevel(), simulation.getStats().getQualityLevel());
+    assertEquals(governor.getQuality(), simulation.getQuality());
+    simulation.clearScene();
+  }
+
+  @Test
+  public void quality_appliesToTheSimulation() {
+    JBulletSimulation simulation = JBulletSimulationTest.createSimulation(5, SimulationScenario.PlankTower);
+    simulation.addBallRigidBody(new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+    QualityLevel cheapest = QualityGovernor.LEVELS[QualityGovernor.LEVELS.length - 1];
+    simulation.setQuality(cheapest);
+    assertEquals(cheapest.getSolverIterations(),
+        simulation.getDynamicsWorld().getSolverInfo().numIterations);
+    // A long frame only gets the sub-steps of the level, the ball flies for just those
+    simulation.step(FRAME_TIME * 4);
+    float flightTime = cheapest.getMaxSubSteps() * JBulletSimulation.DEFAULT_FIXED_TIME_STEP;
+    float ballZ = simulation.getBodyState().getPositions()[simulation.getBallSlot() * 3 + 2];
+    assertEquals(1.0f - 5.0f * flightTime, ballZ, 1e-3f);
+    for (int frame = 0; frame < 60; frame++) {
+      simulation.step(FRAME_TIME);
+    }
+    BodyStateBuffer state = simulation.getBodyState();
+    for (int i = 0; i < simulation.getPlankCount(); i++) {
+      assertTrue(state.getPositions()[i * 3 + 1] > 0);
+    }
+    simulation.clearScene();
+  }
+}
@@ -0,0 +1,58 @@
+package dev.csaba.arphysics.engine;
+
+import org.junit.Test;
+
+import dev.csaba.arphysics.SimulationScenario;
+
+import static org.junit.Assert.*;
+
+public class RollingStatTest {
+
+  @Test
+  public void emptyWindow_reportsZero() {
+    RollingStat stat = new RollingStat(4);
+    assertEquals(0, stat.getCount());
+    assertEquals(0, stat.getMin(), 0);
+    assertEquals(0, stat.getAverage(), 0);
+    assertEquals(0, stat.getPercentile(95), 0);
+  }
+
+  @Test
+  public void window_dropsOldestSamples() {
+    RollingStat stat = new RollingStat(4);
+    for (int i = 1; i <= 6; i++) {
+      stat.add(i);
+    }
+    assertEquals(4, stat.getCount());
+    assertEquals(6, stat.getLast(), 0);
+    assertEquals(3, stat.getMin(), 0);
+    assertEquals(6, stat.getMax(), 0);
+    assertEquals(4.5f, stat.getAverage(), 1e-6f);
+  }
+
+  @Test
+  public void percentile_usesNearestRank() {
+    RollingStat stat = new RollingStat(100);
+    for (int i = 100; i >= 1; i--) {
+      stat.add(i);
+    }
+    assertEquals(95, stat.getPercentile(95), 0);
+    assertEquals(50, stat.getPercentile(50), 0);
+    assertEquals(100, stat.getPercentile(100), 0);
+  }
+
+  @Test
+  public void simulationStep_recordsStats() {
+    JBulletSimulation simulation =
+        JBulletSimulationTest.createSimulation(3, SimulationScenario.PlankTower);
+    for (int i = 0; i < 10; i++) {
+      simulation.step(JBulletSimulation.DEFAULT_FIXED_TIME_STEP);
+    }
+    PhysicsStats stats = simulation.getStats();
+    assertEquals(10, stats.getStepMillis().getCount());
+    assertEquals(6, stats.getActiveBodies().getLast() + stats.getSleepingBodies().getLast(), 0);
+    assertTrue(stats.getManifolds().getLast() > 0);
+    assertEquals(10, stats.getRetiredBodies().getCount());
+    assertEquals(10, stats.format().length);
+  }
+}
@@ -0,0 +1,147 @@
+package dev.csaba.arphysics.engine;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+import static org.junit.Assert.*;
+
+public class SettledLayoutCacheTest {
+
+  private static final float FRAME_TIME = 1.0f / 30.0f;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void settledTower_startsAtRest() {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(10);
+    StructureLayout layout = SettledLayoutCache.settle(modelParameters, SimulationScenario.PlankTower);
+    assertTrue(layout.isResting());
+    assertNotNull(layout.getRotations());
+
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, SimulationScenario.PlankTower);
+    simulation.addStructure(layout);
+    for (int frame = 0; frame < 30; frame++) {
+      simulation.step(FRAME_TIME);
+      assertEquals(0, simulation.getStats().getActiveBodies().getLast(), 0);
+    }
+    // Nothing moved at all
+    float[] positions = simulation.getBodyState().getPositions();
+    for (int i = 0; i < layout.getPlankCount() * 3; i++) {
+      assertEquals(layout.getPositions()[i], positions[i], 0);
+    }
+    simulation.clearScene();
+  }
+
+  @Test
+  public void settledTower_wakesUpOnImpact() {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(5);
+    StructureLayout layout = SettledLayoutCache.settle(modelParameters, SimulationScenario.PlankTower);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, SimulationScenario.PlankTower);
+    simulation.addStructure(layout);
+    simulation.addBallRigidBody(new Vector3f(0, 0.1f, 1.0f),
+        new Vector3f(0, 0, -5.0f));
+    int maxActive = 0;
+    for (int frame = 0; frame < 30; frame++) {
+      simulation.step(FRAME_TIME);
+      maxActive = Math.max(maxActive, (int) simulation.getStats().getActiveBodies().getLast());
+    }
+    assertTrue(maxActive > 1);
+    simulation.clearScene();
+  }
+
+  @Test
+  public void layouts_persistAcrossInstances() throws Exception {
+    File directory = folder.newFolder();
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(3);
+    SettledLayoutCache cache = new SettledLayoutCache(directory, 4);
+    assertNull(cache.get(modelParameters, SimulationScenario.CollisionBox));
+    StructureLayout settled = cache.precompute(modelParameters, SimulationScenario.CollisionBox).get();
+    cache.shutdown();
+
+    SettledLayoutCache reopened = new SettledLayoutCache(directory, 4);
+    reopened.awaitLoading();
+    StructureLayout loaded = reopened.get(modelParameters, SimulationScenario.CollisionBox);
+    assertNotNull(loaded);
+    assertArrayEquals(settled.getPositions(), loaded.getPositions(), 0);
+    assertArrayEquals(settled.getRotations(), loaded.getRotations(), 0);
+    assertEquals(settled.isResting(), loaded.isResting());
+    // Another scenario or parameter is another layout
+    assertNull(reopened.get(modelParameters, SimulationScenario.PlankTower));
+    assertNull(reopened.get(JBulletSimulationTest.createModelParameters(4), SimulationScenario.CollisionBox));
+    // And so are other engine settings
+    assertNull(reopened.get(modelParameters, SimulationScenario.CollisionBox, BroadphaseType.AxisSweep, true));
+    assertNull(reopened.get(modelParameters, SimulationScenario.CollisionBox, BroadphaseType.Dbvt, false));
+  }
+
+  @Test
+  public void settledLayout_followsTheEngineSettings() {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(10);
+    StructureLayout boxBox = SettledLayoutCache.settle(modelParameters, SimulationScenario.PlankTower,
+        BroadphaseType.Dbvt, true);
+    StructureLayout convex = SettledLayoutCache.settle(modelParameters, SimulationScenario.PlankTower,
+        BroadphaseType.Dbvt, false);
+    assertArrayEquals(boxBox.getPositions(), SettledLayoutCache.settle(modelParameters,
+        SimulationScenario.PlankTower).getPositions(), 0);
+    assertFalse(Arrays.equals(boxBox.getPositions(), convex.getPositions()));
+  }
+
+  @Test
+  public void leastRecentlyUsedLayout_isEvicted() throws Exception {
+    File directory = folder.newFolder();
+    SettledLayoutCache cache = new SettledLayoutCache(directory, 2);
+    ModelParameters first = JBulletSimulationTest.createModelParameters(2);
+    ModelParameters second = JBulletSimulationTest.createModelParameters(3);
+    ModelParameters third = JBulletSimulationTest.createModelParameters(4);
+    cache.precompute(first, SimulationScenario.PlankTower).get();
+    Thread.sleep(10);
+    cache.precompute(second, SimulationScenario.PlankTower).get();
+    Thread.sleep(10);
+    assertNotNull(cache.get(first, SimulationScenario.PlankTower));
+    Thread.sleep(10);
+    cache.precompute(third, SimulationScenario.PlankTower).get();
+    cache.shutdown();
+    assertEquals(2, directory.list().length);
+
+    SettledLayoutCache reopened = new SettledLayoutCache(directory, 2);
+    reopened.awaitLoading();
+    assertNotNull(reopened.get(first, SimulationScenario.PlankTower));
+    assertNull(reopened.get(second, SimulationScenario.PlankTower));
+    assertNotNull(reopened.get(third, SimulationScenario.PlankTower));
+  }
+
+  @Test
+  public void pendingLayout_isSettledOnce() throws Exception {
+    SettledLayoutCache cache = new SettledLayoutCache(folder.newFolder(), 2);
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(3);
+    Future<StructureLayout> future = cache.precompute(modelParameters, SimulationScenario.PlankTower);
+    assertSame(future.get(), cache.precompute(modelParameters, SimulationScenario.PlankTower).get());
+    cache.shutdown();
+  }
+
+  @Test
+  public void failedSettling_isTriedAgain() throws Exception {
+    SettledLayoutCache cache = new SettledLayoutCache(folder.newFolder(), 2);
+    // No structure has a negative number of floors
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(-1);
+    Future<StructureLayout> future = cache.precompute(modelParameters, SimulationScenario.PlankTower);
+    try {
+      future.get();
+      fail();
+    } catch (ExecutionException e) {
+      assertNotSame(future, cache.precompute(modelParameters, SimulationScenario.PlankTower));
+    }
+    cache.shutdown();
+  }
+}
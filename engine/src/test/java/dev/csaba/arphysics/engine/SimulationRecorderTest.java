@@ -0,0 +1,247 @@
+package dev.csaba.arphysics.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+import static org.junit.Assert.*;
+
+public class SimulationRecorderTest {
+
+  private static final float FRAME_TIME = 1.0f / 30.0f;
+
+  private static JBulletSimulation createSimulation(int numFloors, SimulationScenario scenario,
+                                                    SimulationRecorder recorder) {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(numFloors);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, scenario);
+    simulation.setRecorder(recorder);
+    simulation.addStructure(StructureLayout.create(modelParameters, scenario));
+    return simulation;
+  }
+
+  private static byte[] recordTowerCollapse() throws IOException {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    SimulationRecorder recorder = new SimulationRecorder(log);
+    JBulletSimulation simulation = createSimulation(10, SimulationScenario.PlankTower, recorder);
+    simulation.addBallRigidBody(new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+    for (int frame = 0; frame < 60; frame++) {
+      // Uneven frame times, like the wall clock would give
+      simulation.step(FRAME_TIME * (0.8f + 0.4f * (frame % 3) / 2));
+    }
+    recorder.close();
+    assertNull(recorder.getError());
+    return log.toByteArray();
+  }
+
+  private static SimulationReplayer.Result replay(byte[] log) throws IOException {
+    return new SimulationReplayer().replay(new ByteArrayInputStream(log));
+  }
+
+  @Test
+  public void towerCollapse_replaysBitForBit() throws IOException {
+    SimulationReplayer.Result result = replay(recordTowerCollapse());
+    assertEquals(60, result.getStepCount());
+    assertTrue(result.isMatching());
+  }
+
+  @Test
+  public void cylinderMoves_replayBitForBit() throws IOException {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    SimulationRecorder recorder = new SimulationRecorder(log);
+    JBulletSimulation simulation = createSimulation(5, SimulationScenario.CollisionBox, recorder);
+    simulation.addCylinderKineticBody(new Vector3f(0, 0, 0));
+    for (int frame = 0; frame < 40; frame++) {
+      simulation.updateCylinderLocation(new Vector3f(frame * 0.002f, 0, -frame * 0.001f));
+      simulation.step(FRAME_TIME);
+    }
+    recorder.close();
+
+    SimulationReplayer.Result result = replay(log.toByteArray());
+    assertEquals(40, result.getStepCount());
+    assertTrue(result.isMatching());
+    assertEquals(SimulationRecorder.checksum(simulation.getBodyState()), result.getFinalChecksum());
+  }
+
+  @Test
+  public void qualityChanges_replayBitForBit() throws IOException {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    SimulationRecorder recorder = new SimulationRecorder(log);
+    JBulletSimulation simulation = createSimulation(10, SimulationScenario.PlankTower, recorder);
+    simulation.addBallRigidBody(new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+    for (int frame = 0; frame < 60; frame++) {
+      if (frame == 20) {
+        simulation.setQuality(QualityGovernor.LEVELS[2]);
+      } else if (frame == 40) {
+        simulation.setQuality(QualityLevel.FULL);
+      }
+      simulation.step(FRAME_TIME);
+    }
+    recorder.close();
+
+    SimulationReplayer.Result result = replay(log.toByteArray());
+    assertEquals(60, result.getStepCount());
+    assertTrue(result.isMatching());
+  }
+
+  @Test
+  public void solverThreads_replayBitForBit() throws IOException {
+    // The replay solves on one thread, the thread count must not change the outcome
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    SimulationRecorder recorder = new SimulationRecorder(log);
+    JBulletSimulation simulation = createSimulation(10, SimulationScenario.PlankTower, recorder);
+    simulation.setSolverThreads(3);
+    simulation.addBallRigidBody(new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+    for (int frame = 0; frame < 60; frame++) {
+      simulation.step(FRAME_TIME);
+    }
+    simulation.clearScene();
+    recorder.close();
+
+    SimulationReplayer.Result result = replay(log.toByteArray());
+    assertEquals(60, result.getStepCount());
+    assertTrue(result.isMatching());
+  }
+
+  @Test
+  public void defaultCollisionAlgorithms_replayBitForBit() throws IOException {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    SimulationRecorder recorder = new SimulationRecorder(log);
+    JBulletSimulation simulation = createSimulation(10, SimulationScenario.PlankTower, recorder);
+    simulation.setBoxCollisionAlgorithms(false);
+    simulation.addBallRigidBody(new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+    for (int frame = 0; frame < 40; frame++) {
+      simulation.step(FRAME_TIME);
+    }
+    recorder.close();
+
+    SimulationReplayer.Result result = replay(log.toByteArray());
+    assertEquals(40, result.getStepCount());
+    assertTrue(result.isMatching());
+  }
+
+  @Test
+  public void continuousCollision_replaysBitForBit() throws IOException {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    SimulationRecorder recorder = new SimulationRecorder(log);
+    JBulletSimulation simulation = createSimulation(10, SimulationScenario.PlankTower, recorder);
+    simulation.setContinuousCollision(0.01f, true);
+    simulation.addBallRigidBody(new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -20.0f));
+    for (int frame = 0; frame < 40; frame++) {
+      simulation.step(FRAME_TIME);
+    }
+    recorder.close();
+
+    SimulationReplayer.Result result = replay(log.toByteArray());
+    assertEquals(40, result.getStepCount());
+    assertTrue(result.isMatching());
+  }
+
+  @Test
+  public void ballPool_replaysBitForBit() throws IOException {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    SimulationRecorder recorder = new SimulationRecorder(log);
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(10);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, SimulationScenario.PlankTower);
+    simulation.setRecorder(recorder);
+    simulation.setBallCapacity(3);
+    simulation.addStructure(StructureLayout.create(modelParameters, SimulationScenario.PlankTower));
+    for (int frame = 0; frame < 60; frame++) {
+      if (frame % 10 == 0) {
+        // More throws than balls, the first ones are thrown again
+        simulation.launchBall(frame / 10 % 3, new Vector3f(0, 0.1f + frame * 0.01f, 1.0f),
+            new Vector3f(0, 0, -5.0f));
+      }
+      simulation.step(FRAME_TIME);
+    }
+    recorder.close();
+
+    SimulationReplayer.Result result = replay(log.toByteArray());
+    assertEquals(60, result.getStepCount());
+    assertTrue(result.isMatching());
+  }
+
+  @Test
+  public void retirement_replaysBitForBit() throws IOException {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    SimulationRecorder recorder = new SimulationRecorder(log);
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(10);
+    StructureLayout layout = StructureLayout.create(modelParameters, SimulationScenario.PlankTower);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, SimulationScenario.PlankTower);
+    simulation.setRecorder(recorder);
+    simulation.setRetirement(RetirementPolicy.around(layout, 0.5f, 0.5f, false));
+    simulation.addStructure(layout);
+    simulation.launchBall(0, new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+    for (int frame = 0; frame < 120; frame++) {
+      simulation.step(FRAME_TIME);
+    }
+    recorder.close();
+    assertTrue(simulation.getStats().getRemovedBodies() > 0);
+
+    SimulationReplayer.Result result = replay(log.toByteArray());
+    assertEquals(120, result.getStepCount());
+    assertTrue(result.isMatching());
+  }
+
+  @Test
+  public void resetScene_replaysBitForBit() throws IOException {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    SimulationRecorder recorder = new SimulationRecorder(log);
+    JBulletSimulation simulation = createSimulation(10, SimulationScenario.PlankTower, recorder);
+    for (int round = 0; round < 2; round++) {
+      simulation.launchBall(0, new Vector3f(0, 0.4f, 1.0f), new Vector3f(0, 0, -5.0f));
+      for (int frame = 0; frame < 45; frame++) {
+        simulation.step(FRAME_TIME);
+      }
+      simulation.resetScene();
+    }
+    recorder.close();
+
+    SimulationReplayer.Result result = replay(log.toByteArray());
+    assertEquals(90, result.getStepCount());
+    assertTrue(result.isMatching());
+  }
+
+  @Test
+  public void settledStructure_replaysBitForBit() throws IOException {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(5);
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    SimulationRecorder recorder = new SimulationRecorder(log);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, SimulationScenario.PlankTower);
+    simulation.setRecorder(recorder);
+    simulation.addStructure(SettledLayoutCache.settle(modelParameters, SimulationScenario.PlankTower));
+    simulation.addBallRigidBody(new Vector3f(0, 0.1f, 1.0f), new Vector3f(0, 0, -5.0f));
+    for (int frame = 0; frame < 40; frame++) {
+      simulation.step(FRAME_TIME);
+    }
+    recorder.close();
+
+    SimulationReplayer.Result result = replay(log.toByteArray());
+    assertEquals(40, result.getStepCount());
+    assertTrue(result.isMatching());
+  }
+
+  @Test
+  public void alteredChecksum_isReported() throws IOException {
+    byte[] log = recordTowerCollapse();
+    // Every step ends the log with a tag, time delta, sub-step count and checksum, END closes it
+    int lastChecksum = log.length - 1 - 8;
+    ByteBuffer.wrap(log).putLong(lastChecksum, 42L);
+
+    SimulationReplayer.Result result = replay(log);
+    assertFalse(result.isMatching());
+    assertEquals(59, result.getFirstMismatchStep());
+  }
+
+  @Test(expected = IOException.class)
+  public void foreignData_isRejected() throws IOException {
+    replay(new byte[] { 1, 2, 3, 4, 5, 6 });
+  }
+}
@@ -0,0 +1,132 @@
+package dev.csaba.arphysics.engine;
+
+import com.bulletphysics.BulletGlobals;
+import com.bulletphysics.collision.broadphase.BroadphasePair;
+import com.bulletphysics.collision.broadphase.OverlappingPairCache;
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
+import com.bulletphysics.linearmath.Transform;
+import com.bulletphysics.util.ObjectArrayList;
+
+import org.junit.Test;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+import static org.junit.Assert.*;
+
+public class SpatialHashBroadphaseTest {
+
+  private static final float FRAME_TIME = 1.0f / 30.0f;
+
+  private static JBulletSimulation createSimulation(SimulationScenario scenario,
+                                                    BroadphaseType broadphaseType) {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(10);
+    JBulletSimulation simulation =
+        new JBulletSimulation(modelParameters, scenario, new ShapeCache(), broadphaseType);
+    simulation.addStructure(StructureLayout.create(modelParameters, scenario));
+    return simulation;
+  }
+
+  private static JBulletSimulation createPlankMatrix(BroadphaseType broadphaseType) {
+    JBulletSimulation simulation = createSimulation(SimulationScenario.CollisionBox, broadphaseType);
+    simulation.addCylinderKineticBody(new Vector3f(0, 0, 0));
+    simulation.addBallRigidBody(new Vector3f(0, 0.1f, 1.0f), new Vector3f(0, 0, -5.0f));
+    for (int frame = 0; frame < 45; frame++) {
+      simulation.updateCylinderLocation(new Vector3f(frame * 0.002f, 0, 0));
+      simulation.step(FRAME_TIME);
+    }
+    // Pairs of the current poses, the step integrates the bodies after finding them
+    DiscreteDynamicsWorld world = simulation.getDynamicsWorld();
+    world.updateAabbs();
+    world.getBroadphase().calculateOverlappingPairs(world.getDispatcher());
+    return simulation;
+  }
+
+  private static boolean overlaps(CollisionObject body0, CollisionObject body1) {
+    Vector3f min0 = new Vector3f();
+    Vector3f max0 = new Vector3f();
+    Vector3f min1 = new Vector3f();
+    Vector3f max1 = new Vector3f();
+    body0.getCollisionShape().getAabb(body0.getWorldTransform(new Transform()),
+        min0, max0);
+    body1.getCollisionShape().getAabb(body1.getWorldTransform(new Transform()),
+        min1, max1);
+    // The world grows the boxes by the contact breaking threshold on both sides
+    float threshold = 2 * BulletGlobals.getContactBreakingThreshold();
+    min0.sub(new Vector3f(threshold, threshold, threshold));
+    max0.add(new Vector3f(threshold, threshold, threshold));
+    return min0.x <= max1.x && min1.x <= max0.x && min0.y <= max1.y && min1.y <= max0.y &&
+        min0.z <= max1.z && min1.z <= max0.z;
+  }
+
+  private static boolean isStatic(CollisionObject body) {
+    return body.isStaticOrKinematicObject();
+  }
+
+  // Every pair of overlapping bounding boxes, except static against static, has to be found
+  private static void assertFindsAllOverlaps(JBulletSimulation simulation) {
+    DiscreteDynamicsWorld world = simulation.getDynamicsWorld();
+    OverlappingPairCache pairCache = world.getBroadphase().getOverlappingPairCache();
+    ObjectArrayList<CollisionObject> bodies = world.getCollisionObjectArray();
+    int overlapCount = 0;
+    for (int i = 0; i < bodies.size(); i++) {
+      for (int j = i + 1; j < bodies.size(); j++) {
+        CollisionObject body0 = bodies.getQuick(i);
+        CollisionObject body1 = bodies.getQuick(j);
+        if (isStatic(body0) && isStatic(body1) || !overlaps(body0, body1)) {
+          continue;
+        }
+        overlapCount++;
+        assertNotNull(pairCache.findPair(body0.getBroadphaseHandle(), body1.getBroadphaseHandle()));
+      }
+    }
+    assertTrue(overlapCount > 0);
+  }
+
+  @Test
+  public void spatialHash_findsExactlyTheOverlaps() {
+    JBulletSimulation simulation = createPlankMatrix(BroadphaseType.SpatialHash);
+    assertFindsAllOverlaps(simulation);
+    // No stale pairs either
+    ObjectArrayList<BroadphasePair> pairs =
+        simulation.getDynamicsWorld().getBroadphase().getOverlappingPairCache().getOverlappingPairArray();
+    for (int i = 0; i < pairs.size(); i++) {
+      BroadphasePair pair = pairs.getQuick(i);
+      assertTrue(overlaps((CollisionObject) pair.pProxy0.clientObject,
+          (CollisionObject) pair.pProxy1.clientObject));
+    }
+    simulation.clearScene();
+  }
+
+  @Test
+  public void axisSweep_findsTheOverlapsWithinTheScenarioBounds() {
+    JBulletSimulation simulation = createPlankMatrix(BroadphaseType.AxisSweep);
+    assertFindsAllOverlaps(simulation);
+    simulation.clearScene();
+  }
+
+  @Test
+  public void spatialHash_keepsTheTowerStanding() {
+    JBulletSimulation simulation = createSimulation(SimulationScenario.PlankTower, BroadphaseType.SpatialHash);
+    float initialTop = topY(simulation);
+    for (int frame = 0; frame < 90; frame++) {
+      simulation.step(FRAME_TIME);
+    }
+    // Pairs come in another order than from the tree, so the solver settles the stack differently
+    assertTrue(topY(simulation) >= initialTop - 0.03f);
+    simulation.clearScene();
+  }
+
+  private static float topY(JBulletSimulation simulation) {
+    float[] poses = new float[simulation.getPoseCount() * PoseSnapshot.STRIDE];
+    simulation.writePoses(poses);
+    float top = 0;
+    for (int i = 0; i < simulation.getPlankCount(); i++) {
+      top = Math.max(top, poses[i * PoseSnapshot.STRIDE + 1]);
+    }
+    return top;
+  }
+}
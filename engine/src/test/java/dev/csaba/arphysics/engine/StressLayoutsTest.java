@@ -0,0 +1,106 @@
+package dev.csaba.arphysics.engine;
+
+import org.junit.Test;
+
+import dev.csaba.arphysics.ModelParameters;
+import dev.csaba.arphysics.SimulationScenario;
+
+import static org.junit.Assert.*;
+
+public class StressLayoutsTest {
+
+  private static final float FRAME_TIME = 1.0f / 30.0f;
+  private static final float EPSILON = 1e-5f;
+  private static final SimulationScenario[] STACKED = {
+      SimulationScenario.BrickWall, SimulationScenario.DominoChain, SimulationScenario.PlankPyramid
+  };
+
+  @Test
+  public void stressScenarios_haveTheRequestedNumberOfBodies() {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(1234);
+    for (SimulationScenario scenario : SimulationScenario.values()) {
+      if (!scenario.isStress()) {
+        continue;
+      }
+      StructureLayout layout = StructureLayout.create(modelParameters, scenario);
+      assertEquals(1234, layout.getPlankCount());
+      assertEquals(1234, StructureLayout.getPlankCount(modelParameters, scenario));
+    }
+    assertEquals(20, StructureLayout.getPlankCount(JBulletSimulationTest.createModelParameters(10),
+        SimulationScenario.PlankTower));
+    assertEquals(100, StructureLayout.getPlankCount(JBulletSimulationTest.createModelParameters(10),
+        SimulationScenario.CollisionBox));
+  }
+
+  @Test
+  public void stackedLayouts_startClearOfEachOtherAndTheGround() {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(500);
+    for (SimulationScenario scenario : STACKED) {
+      StructureLayout layout = StructureLayout.create(modelParameters, scenario);
+      float[] halfExtents = layout.getHalfExtents();
+      float[] positions = layout.getPositions();
+      for (int i = 0; i < layout.getPlankCount(); i++) {
+        assertTrue(positions[i * 3 + 1] - halfExtents[i * 3 + 1] >= -EPSILON);
+        for (int j = i + 1; j < layout.getPlankCount(); j++) {
+          assertFalse(scenario + " " + i + " " + j, intersects(halfExtents, positions, i, j));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void randomPile_isTheSameInEveryRun() {
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(300);
+    StructureLayout layout = StressLayouts.randomPile(modelParameters);
+    StructureLayout again = StressLayouts.randomPile(modelParameters);
+    assertArrayEquals(layout.getPositions(), again.getPositions(), 0);
+    assertArrayEquals(layout.getRotations(), again.getRotations(), 0);
+
+    float reach = layout.getMaxReach();
+    float[] positions = layout.getPositions();
+    float[] rotations = layout.getRotations();
+    for (int i = 0; i < layout.getPlankCount(); i++) {
+      assertTrue(positions[i * 3 + 1] >= reach);
+      float x = rotations[i * 4];
+      float y = rotations[i * 4 + 1];
+      float z = rotations[i * 4 + 2];
+      float w = rotations[i * 4 + 3];
+      assertEquals(1.0f, x * x + y * y + z * z + w * w, EPSILON);
+      // No two planks can touch whatever their rotations
+      for (int j = i + 1; j < layout.getPlankCount(); j++) {
+        float dx = positions[i * 3] - positions[j * 3];
+        float dy = positions[i * 3 + 1] - positions[j * 3 + 1];
+        float dz = positions[i * 3 + 2] - positions[j * 3 + 2];
+        assertTrue((float) Math.sqrt(dx * dx + dy * dy + dz * dz) >= 2 * reach);
+      }
+    }
+  }
+
+  @Test
+  public void brickWalls_keepStanding() {
+    // Two full walls and the first course of a third one
+    ModelParameters modelParameters = JBulletSimulationTest.createModelParameters(200);
+    StructureLayout layout = StructureLayout.create(modelParameters, SimulationScenario.BrickWall);
+    JBulletSimulation simulation = new JBulletSimulation(modelParameters, SimulationScenario.BrickWall);
+    assertEquals(200, simulation.getPlankCount());
+    simulation.addStructure(layout);
+    for (int frame = 0; frame < 60; frame++) {
+      simulation.step(FRAME_TIME);
+    }
+    float[] positions = simulation.getBodyState().getPositions();
+    for (int i = 0; i < layout.getPlankCount() * 3; i++) {
+      assertEquals(layout.getPositions()[i], positions[i], 0.01f);
+    }
+    simulation.clearScene();
+  }
+
+  private static boolean intersects(float[] halfExtents, float[] positions, int i, int j) {
+    for (int axis = 0; axis < 3; axis++) {
+      float distance = Math.abs(positions[i * 3 + axis] - positions[j * 3 + axis]);
+      if (distance >= halfExtents[i * 3 + axis] + halfExtents[j * 3 + axis] - EPSILON) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,112 @@
+package dev.csaba.arphysics.engine;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.vecmath.Vector3f;
+
+import dev.csaba.arphysics.SimulationScenario;
+
+import static org.junit.Assert.*;
+
+public class TrajectoryWriterTest {
+
+  private static final float FRAME_TIME = 1.0f / 30.0f;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void everyStep_isReadBack() throws IOException {
+    JBulletSimulation simulation = JBulletSimulationTest.createSimulation(5, SimulationScenario.PlankTower);
+    simulation.addBallRigidBody(new Vector3f(0, 0.2f, 1.0f), new Vector3f(0, 0, -5.0f));
+    File target = folder.newFile("trajectory.arpt");
+    // Room for every step, nothing may be dropped
+    TrajectoryWriter writer = new TrajectoryWriter(target, simulation.getPoseCount(), 64);
+    simulation.setStepListener(writer);
+    for (int frame = 0; frame < 30; frame++) {
+      simulation.step(FRAME_TIME);
+    }
+    simulation.setStepListener(null);
+    writer.close();
+    assertEquals(0, writer.getDroppedFrames());
+
+    try (TrajectoryReader reader = new TrajectoryReader(target)) {
+      assertEquals(simulation.getPoseCount(), reader.getBodyCount());
+      // The planks and the one ball launched, the parked balls of the pool are skipped
+      int bodyCount = simulation.getPlankCount() + 1;
+      assertEquals(30 * bodyCount, reader.getRecordCount());
+
+      // The last step is the state the simulation is in now
+      reader.seek(reader.findStep(30));
+      BodyStateBuffer state = simulation.getBodyState();
+      int count = 0;
+      while (reader.next()) {
+        assertEquals(30, reader.getStep());
+        assertEquals(count, reader.getBodyId());
+        float[] pose = reader.getPose();
+        for (int i = 0; i < 3; i++) {
+          assertEquals(state.getPositions()[count * 3 + i], pose[i], 0);
+        }
+        for (int i = 0; i < 4; i++) {
+          assertEquals(state.getRotations()[count * 4 + i], pose[3 + i], 0);
+        }
+        count++;
+      }
+      assertEquals(bodyCount, count);
+    }
+  }
+
+  @Test
+  public void findStep_locatesTheFirstRecordOfAStep() throws IOException {
+    JBulletSimulation simulation = JBulletSimulationTest.createSimulation(3, SimulationScenario.PlankTower);
+    File target = folder.newFile("trajectory.arpt");
+    try (TrajectoryWriter writer = new TrajectoryWriter(target, simulation.getPoseCount(), 16)) {
+      simulation.setStepListener(writer);
+      for (int frame = 0; frame < 10; frame++) {
+        simulation.step(FRAME_TIME);
+      }
+      simulation.setStepListener(null);
+    }
+
+    try (TrajectoryReader reader = new TrajectoryReader(target)) {
+      // No ball, six planks per step
+      assertEquals(60, reader.getRecordCount());
+      assertEquals(0, reader.findStep(0));
+      assertEquals(24, reader.findStep(5));
+      assertEquals(60, reader.findStep(11));
+      reader.seek(reader.findStep(5));
+      assertTrue(reader.next());
+      assertEquals(5, reader.getStep());
+      assertEquals(0, reader.getBodyId());
+    }
+  }
+
+  @Test
+  public void fullQueue_dropsFramesInsteadOfBlocking() throws IOException {
+    BodyStateBuffer state = new BodyStateBuffer(625);
+    for (int slot = 0; slot < 625; slot++) {
+      state.getRotations()[slot * 4 + 3] = 1.0f;
+    }
+    File target = folder.newFile("trajectory.arpt");
+    TrajectoryWriter writer = new TrajectoryWriter(target, 625, 1);
+    for (int step = 0; step < 1000; step++) {
+      state.markStep();
+      writer.onStep(state);
+    }
+    writer.close();
+
+    try (TrajectoryReader reader = new TrajectoryReader(target)) {
+      assertEquals((1000 - writer.getDroppedFrames()) * 625, reader.getRecordCount());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void foreignFile_isRejected() throws IOException {
+    new TrajectoryReader(folder.newFile("empty.arpt"));
+  }
+}